@@ -143,7 +143,7 @@ include $(BUILD_STATIC_LIBRARY)
 # Create the dynamic library wrapper
 include $(CLEAR_VARS)
 LOCAL_C_INCLUDES := $(SPHINX_PATH)/sphinxbase/include/android $(SPHINX_PATH)/sphinxbase/include \
-					$(SPHINX_PATH)/pocketsphinx/include
+					$(SPHINX_PATH)/pocketsphinx/include $(SPHINX_PATH)/pocketsphinx/src/libpocketsphinx
 LOCAL_CFLAGS += -DHAVE_CONFIG_H
 LOCAL_CFLAGS += -DANDROID_NDK
 
@@ -77,4 +77,25 @@ public class Decoder {
     return (cPtr == 0) ? null : new Hypothesis(cPtr, false);
   }
 
+  public NBest getNBest() {
+    long cPtr = pocketsphinxJNI.Decoder_getNBest(swigCPtr, this);
+    return (cPtr == 0) ? null : new NBest(cPtr, true);
+  }
+
+  public String getCmn() {
+    return pocketsphinxJNI.Decoder_getCmn(swigCPtr, this);
+  }
+
+  public int setCmn(String values) {
+    return pocketsphinxJNI.Decoder_setCmn(swigCPtr, this, values);
+  }
+
+  public double getPosterior() {
+    return pocketsphinxJNI.Decoder_getPosterior(swigCPtr, this);
+  }
+
+  public int getWordExits() {
+    return pocketsphinxJNI.Decoder_getWordExits(swigCPtr, this);
+  }
+
 }
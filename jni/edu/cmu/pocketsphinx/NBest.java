@@ -0,0 +1,51 @@
+/* ----------------------------------------------------------------------------
+ * This file was automatically generated by SWIG (http://www.swig.org).
+ * Version 2.0.4
+ *
+ * Do not make changes to this file unless you know what you are doing--modify
+ * the SWIG interface file instead.
+ * ----------------------------------------------------------------------------- */
+
+package edu.cmu.pocketsphinx;
+
+public class NBest {
+  private long swigCPtr;
+  protected boolean swigCMemOwn;
+
+  public NBest(long cPtr, boolean cMemoryOwn) {
+    swigCMemOwn = cMemoryOwn;
+    swigCPtr = cPtr;
+  }
+
+  public static long getCPtr(NBest obj) {
+    return (obj == null) ? 0 : obj.swigCPtr;
+  }
+
+  protected void finalize() {
+    delete();
+  }
+
+  public synchronized void delete() {
+    if (swigCPtr != 0) {
+      if (swigCMemOwn) {
+        swigCMemOwn = false;
+        pocketsphinxJNI.delete_NBest(swigCPtr);
+      }
+      swigCPtr = 0;
+    }
+  }
+
+  public NBest() {
+    this(pocketsphinxJNI.new_NBest(), true);
+  }
+
+  public boolean next() {
+    return pocketsphinxJNI.NBest_next(swigCPtr, this);
+  }
+
+  public Hypothesis getHyp() {
+    long cPtr = pocketsphinxJNI.NBest_getHyp(swigCPtr, this);
+    return (cPtr == 0) ? null : new Hypothesis(cPtr, true);
+  }
+
+}
@@ -33,6 +33,10 @@ public class pocketsphinxJNI {
   public final static native void delete_SegmentIterator(long jarg1);
   public final static native long new_Lattice();
   public final static native void delete_Lattice(long jarg1);
+  public final static native long new_NBest();
+  public final static native void delete_NBest(long jarg1);
+  public final static native boolean NBest_next(long jarg1, NBest jarg1_);
+  public final static native long NBest_getHyp(long jarg1, NBest jarg1_);
   public final static native long new_Decoder__SWIG_0();
   public final static native long new_Decoder__SWIG_1(long jarg1, Config jarg1_);
   public final static native long Decoder_getConfig(long jarg1, Decoder jarg1_);
@@ -43,6 +47,11 @@ public class pocketsphinxJNI {
   public final static native int Decoder_processRaw__SWIG_0(long jarg1, Decoder jarg1_, short[] jarg2, boolean jarg4, boolean jarg5);
   public final static native int Decoder_processRaw__SWIG_1(long jarg1, Decoder jarg1_, short[] jarg2, long jarg3, boolean jarg4, boolean jarg5);
   public final static native long Decoder_getHyp(long jarg1, Decoder jarg1_);
+  public final static native long Decoder_getNBest(long jarg1, Decoder jarg1_);
+  public final static native String Decoder_getCmn(long jarg1, Decoder jarg1_);
+  public final static native int Decoder_setCmn(long jarg1, Decoder jarg1_, String jarg2);
+  public final static native double Decoder_getPosterior(long jarg1, Decoder jarg1_);
+  public final static native int Decoder_getWordExits(long jarg1, Decoder jarg1_);
   public final static native void delete_Decoder(long jarg1);
   public final static native void setLogfile(String jarg1);
 }
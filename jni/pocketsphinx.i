@@ -3,6 +3,16 @@
 %{
 #include <pocketsphinx.h>
 #include <sphinxbase/err.h>
+#include <sphinxbase/feat.h>
+#include <sphinxbase/cmn.h>
+#include <pocketsphinx_internal.h>
+#include <ngram_search.h>
+#include <fsg_search_internal.h>
+#include <stdio.h>
+#include <stdlib.h>
+
+/* Frames a seeded cepstral mean is worth, matches CMN decay window. */
+#define CMN_PRIOR_FRAMES 500
 
 /* Typedefs to make Java-esque class names. */
 typedef struct cmd_ln_s Config;
@@ -19,6 +29,11 @@ typedef struct hyp_s {
 	char *uttid;
 	int best_score;
 } Hypothesis;
+
+/* Iterator over N-best hypotheses. */
+typedef struct nbest_s {
+	ps_nbest_t *nbest;
+} NBest;
 %}
 
 /* Special typemap for arrays of audio. */
@@ -50,6 +65,13 @@ typedef struct ps_lattice_s {
 } Lattice;
 typedef struct ps_decoder_s {
 } Decoder;
+typedef struct nbest_s {
+} NBest;
+
+/* Hypotheses created by these methods are owned by Java. */
+%newobject Decoder::getNBest;
+%newobject NBest::getHyp;
+%newobject Decoder::getCmn;
 
 /* Hypothesis class. */
 %extend Hypothesis {
@@ -123,6 +145,34 @@ typedef struct ps_decoder_s {
 	}
 };
 
+%extend NBest {
+	NBest() {
+		return NULL;
+	}
+	~NBest() {
+		if ($self->nbest)
+			ps_nbest_free($self->nbest);
+		ckd_free($self);
+	}
+	bool next() {
+		/* Iterator frees itself once there are no more hypotheses. */
+		if ($self->nbest)
+			$self->nbest = ps_nbest_next($self->nbest);
+		return $self->nbest != NULL;
+	}
+	Hypothesis *getHyp() {
+		char const *hyp;
+		int32 score;
+		if ($self->nbest == NULL)
+			return NULL;
+		hyp = ps_nbest_hyp($self->nbest, &score);
+		if (hyp == NULL)
+			return NULL;
+		else
+			return new_Hypothesis(hyp, NULL, score);
+	}
+};
+
 %extend Decoder {
 	Decoder() {
 		Decoder *d = ps_init(cmd_ln_init(NULL, ps_args(), FALSE, NULL));
@@ -162,6 +212,75 @@ typedef struct ps_decoder_s {
 		else
 			return new_Hypothesis(hyp, uttid, best_score);
 	}
+	NBest *getNBest() {
+		ps_nbest_t *nbest;
+		NBest *n;
+		nbest = ps_nbest($self, 0, -1, NULL, NULL);
+		if (nbest == NULL)
+			return NULL;
+		n = ckd_calloc(1, sizeof(*n));
+		n->nbest = nbest;
+		return n;
+	}
+	char *getCmn() {
+		feat_t *fcb;
+		cmn_t *cmn;
+		char *buf;
+		size_t len;
+		int i;
+		fcb = ps_get_feat($self);
+		if (fcb == NULL || fcb->cmn_struct == NULL)
+			return NULL;
+		cmn = fcb->cmn_struct;
+		buf = ckd_calloc(cmn->veclen, 16);
+		len = 0;
+		for (i = 0; i < cmn->veclen; i++) {
+			/* Running sum includes frames not yet folded into the mean. */
+			float32 mean = cmn->nframe > 0
+				? MFCC2FLOAT(cmn->sum[i]) / cmn->nframe
+				: MFCC2FLOAT(cmn->cmn_mean[i]);
+			len += sprintf(buf + len, i ? ",%.2f" : "%.2f", mean);
+		}
+		return buf;
+	}
+	int setCmn(char const *values) {
+		feat_t *fcb;
+		cmn_t *cmn;
+		char *end;
+		int i;
+		fcb = ps_get_feat($self);
+		if (fcb == NULL || fcb->cmn_struct == NULL || values == NULL)
+			return -1;
+		cmn = fcb->cmn_struct;
+		for (i = 0; i < cmn->veclen && *values; i++) {
+			double mean = strtod(values, &end);
+			if (end == values)
+				break;
+			/* Same weight as the decay window of the running estimate. */
+			cmn->cmn_mean[i] = FLOAT2MFCC(mean);
+			cmn->sum[i] = FLOAT2MFCC(mean * CMN_PRIOR_FRAMES);
+			values = (*end == ',') ? end + 1 : end;
+		}
+		cmn->nframe = CMN_PRIOR_FRAMES;
+		return i;
+	}
+	double getPosterior() {
+		char const *uttid;
+		int32 prob;
+		prob = ps_get_prob($self, &uttid);
+		return logmath_exp(ps_get_logmath($self), prob);
+	}
+	int getWordExits() {
+		/* Partial hypothesis only changes when a word exits. */
+		ps_search_t *search = $self->search;
+		if (search == NULL)
+			return -1;
+		if (0 == strcmp(ps_search_name(search), "ngram"))
+			return ((ngram_search_t *)search)->bpidx;
+		if (0 == strcmp(ps_search_name(search), "fsg"))
+			return fsg_history_n_entries(((fsg_search_t *)search)->history);
+		return -1;
+	}
 	~Decoder() {
 		ps_free($self);
 	}
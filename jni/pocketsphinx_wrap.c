@@ -759,6 +759,16 @@ jdoubleArray SWIG_JavaArrayOutDouble (JNIEnv *jenv, double *result, jsize sz) {
 
 #include <pocketsphinx.h>
 #include <sphinxbase/err.h>
+#include <sphinxbase/feat.h>
+#include <sphinxbase/cmn.h>
+#include <pocketsphinx_internal.h>
+#include <ngram_search.h>
+#include <fsg_search_internal.h>
+#include <stdio.h>
+#include <stdlib.h>
+
+/* Frames a seeded cepstral mean is worth, matches CMN decay window. */
+#define CMN_PRIOR_FRAMES 500
 
 /* Typedefs to make Java-esque class names. */
 typedef struct cmd_ln_s Config;
@@ -776,6 +786,11 @@ typedef struct hyp_s {
 	int best_score;
 } Hypothesis;
 
+/* Iterator over N-best hypotheses. */
+typedef struct nbest_s {
+	ps_nbest_t *nbest;
+} NBest;
+
 SWIGINTERN Hypothesis *new_Hypothesis(char const *hypstr,char const *uttid,int best_score){
 		Hypothesis *h = ckd_calloc(1, sizeof(*h));
 		if (hypstr)
@@ -835,6 +850,31 @@ SWIGINTERN SegmentIterator *new_SegmentIterator(){
 SWIGINTERN Lattice *new_Lattice(){
 		return NULL;
 	}
+SWIGINTERN NBest *new_NBest(){
+		return NULL;
+	}
+SWIGINTERN void delete_NBest(NBest *self){
+		if (self->nbest)
+			ps_nbest_free(self->nbest);
+		ckd_free(self);
+	}
+SWIGINTERN bool NBest_next(NBest *self){
+		/* Iterator frees itself once there are no more hypotheses. */
+		if (self->nbest)
+			self->nbest = ps_nbest_next(self->nbest);
+		return self->nbest != NULL;
+	}
+SWIGINTERN Hypothesis *NBest_getHyp(NBest *self){
+		char const *hyp;
+		int32 score;
+		if (self->nbest == NULL)
+			return NULL;
+		hyp = ps_nbest_hyp(self->nbest, &score);
+		if (hyp == NULL)
+			return NULL;
+		else
+			return new_Hypothesis(hyp, NULL, score);
+	}
 SWIGINTERN Decoder *new_Decoder__SWIG_0(){
 		Decoder *d = ps_init(cmd_ln_init(NULL, ps_args(), FALSE, NULL));
 		return d;
@@ -873,6 +913,75 @@ SWIGINTERN Hypothesis *Decoder_getHyp(Decoder *self){
 		else
 			return new_Hypothesis(hyp, uttid, best_score);
 	}
+SWIGINTERN NBest *Decoder_getNBest(Decoder *self){
+		ps_nbest_t *nbest;
+		NBest *n;
+		nbest = ps_nbest(self, 0, -1, NULL, NULL);
+		if (nbest == NULL)
+			return NULL;
+		n = ckd_calloc(1, sizeof(*n));
+		n->nbest = nbest;
+		return n;
+	}
+SWIGINTERN char *Decoder_getCmn(Decoder *self){
+		feat_t *fcb;
+		cmn_t *cmn;
+		char *buf;
+		size_t len;
+		int i;
+		fcb = ps_get_feat(self);
+		if (fcb == NULL || fcb->cmn_struct == NULL)
+			return NULL;
+		cmn = fcb->cmn_struct;
+		buf = ckd_calloc(cmn->veclen, 16);
+		len = 0;
+		for (i = 0; i < cmn->veclen; i++) {
+			/* Running sum includes frames not yet folded into the mean. */
+			float32 mean = cmn->nframe > 0
+				? MFCC2FLOAT(cmn->sum[i]) / cmn->nframe
+				: MFCC2FLOAT(cmn->cmn_mean[i]);
+			len += sprintf(buf + len, i ? ",%.2f" : "%.2f", mean);
+		}
+		return buf;
+	}
+SWIGINTERN int Decoder_setCmn(Decoder *self,char const *values){
+		feat_t *fcb;
+		cmn_t *cmn;
+		char *end;
+		int i;
+		fcb = ps_get_feat(self);
+		if (fcb == NULL || fcb->cmn_struct == NULL || values == NULL)
+			return -1;
+		cmn = fcb->cmn_struct;
+		for (i = 0; i < cmn->veclen && *values; i++) {
+			double mean = strtod(values, &end);
+			if (end == values)
+				break;
+			/* Same weight as the decay window of the running estimate. */
+			cmn->cmn_mean[i] = FLOAT2MFCC(mean);
+			cmn->sum[i] = FLOAT2MFCC(mean * CMN_PRIOR_FRAMES);
+			values = (*end == ',') ? end + 1 : end;
+		}
+		cmn->nframe = CMN_PRIOR_FRAMES;
+		return i;
+	}
+SWIGINTERN double Decoder_getPosterior(Decoder *self){
+		char const *uttid;
+		int32 prob;
+		prob = ps_get_prob(self, &uttid);
+		return logmath_exp(ps_get_logmath(self), prob);
+	}
+SWIGINTERN int Decoder_getWordExits(Decoder *self){
+		/* Partial hypothesis only changes when a word exits. */
+		ps_search_t *search = self->search;
+		if (search == NULL)
+			return -1;
+		if (0 == strcmp(ps_search_name(search), "ngram"))
+			return ((ngram_search_t *)search)->bpidx;
+		if (0 == strcmp(ps_search_name(search), "fsg"))
+			return fsg_history_n_entries(((fsg_search_t *)search)->history);
+		return -1;
+	}
 SWIGINTERN void delete_Decoder(Decoder *self){
 		ps_free(self);
 	}
@@ -1315,6 +1424,58 @@ SWIGEXPORT void JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_delete_1Lattic
 }
 
 
+SWIGEXPORT jlong JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_new_1NBest(JNIEnv *jenv, jclass jcls) {
+  jlong jresult = 0 ;
+  NBest *result = 0 ;
+  
+  (void)jenv;
+  (void)jcls;
+  result = (NBest *)new_NBest();
+  *(NBest **)&jresult = result; 
+  return jresult;
+}
+
+
+SWIGEXPORT void JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_delete_1NBest(JNIEnv *jenv, jclass jcls, jlong jarg1) {
+  NBest *arg1 = (NBest *) 0 ;
+  
+  (void)jenv;
+  (void)jcls;
+  arg1 = *(NBest **)&jarg1; 
+  delete_NBest(arg1);
+}
+
+
+SWIGEXPORT jboolean JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_NBest_1next(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jboolean jresult = 0 ;
+  NBest *arg1 = (NBest *) 0 ;
+  bool result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(NBest **)&jarg1; 
+  result = (bool)NBest_next(arg1);
+  jresult = (jboolean)result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jlong JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_NBest_1getHyp(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jlong jresult = 0 ;
+  NBest *arg1 = (NBest *) 0 ;
+  Hypothesis *result = 0 ;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(NBest **)&jarg1; 
+  result = (Hypothesis *)NBest_getHyp(arg1);
+  *(Hypothesis **)&jresult = result; 
+  return jresult;
+}
+
+
 SWIGEXPORT jlong JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_new_1Decoder_1_1SWIG_10(JNIEnv *jenv, jclass jcls) {
   jlong jresult = 0 ;
   Decoder *result = 0 ;
@@ -1493,6 +1654,89 @@ SWIGEXPORT jlong JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_Decoder_1getH
 }
 
 
+SWIGEXPORT jlong JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_Decoder_1getNBest(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jlong jresult = 0 ;
+  Decoder *arg1 = (Decoder *) 0 ;
+  NBest *result = 0 ;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(Decoder **)&jarg1; 
+  result = (NBest *)Decoder_getNBest(arg1);
+  *(NBest **)&jresult = result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jstring JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_Decoder_1getCmn(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jstring jresult = 0 ;
+  Decoder *arg1 = (Decoder *) 0 ;
+  char *result = 0 ;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(Decoder **)&jarg1; 
+  result = (char *)Decoder_getCmn(arg1);
+  if (result) jresult = (*jenv)->NewStringUTF(jenv, (const char *)result);
+  free(result);
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_Decoder_1setCmn(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jstring jarg2) {
+  jint jresult = 0 ;
+  Decoder *arg1 = (Decoder *) 0 ;
+  char *arg2 = (char *) 0 ;
+  int result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(Decoder **)&jarg1; 
+  arg2 = 0;
+  if (jarg2) {
+    arg2 = (char *)(*jenv)->GetStringUTFChars(jenv, jarg2, 0);
+    if (!arg2) return 0;
+  }
+  result = (int)Decoder_setCmn(arg1,(char const *)arg2);
+  jresult = (jint)result; 
+  if (arg2) (*jenv)->ReleaseStringUTFChars(jenv, jarg2, (const char *)arg2);
+  return jresult;
+}
+
+
+SWIGEXPORT jdouble JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_Decoder_1getPosterior(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jdouble jresult = 0 ;
+  Decoder *arg1 = (Decoder *) 0 ;
+  double result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(Decoder **)&jarg1; 
+  result = (double)Decoder_getPosterior(arg1);
+  jresult = (jdouble)result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_Decoder_1getWordExits(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jint jresult = 0 ;
+  Decoder *arg1 = (Decoder *) 0 ;
+  int result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(Decoder **)&jarg1; 
+  result = (int)Decoder_getWordExits(arg1);
+  jresult = (jint)result; 
+  return jresult;
+}
+
+
 SWIGEXPORT void JNICALL Java_edu_cmu_pocketsphinx_pocketsphinxJNI_delete_1Decoder(JNIEnv *jenv, jclass jcls, jlong jarg1) {
   Decoder *arg1 = (Decoder *) 0 ;
   
@@ -1,8 +1,12 @@
 package org.vintagephone;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.vintagephone.hardware.HardwareProvider.HardwareEventListener;
 import org.vintagephone.model.VintagePhoneLifecycle;
 import org.vintagephone.model.VintagePhoneStatusListener;
+import org.vintagephone.trace.Trace;
 
 import android.app.Activity;
 import android.os.AsyncTask;
@@ -17,6 +21,8 @@ import android.widget.TextView;
 public class DebugActivity extends Activity
 {
     protected static final String TAG = "DebugActivity";
+    
+    private static final String TRACE_FILE = "/sdcard/Android/data/vp/trace.txt";
 
     private TextView m_statusView;
     private VintagePhoneLifecycle m_lifecycle;
@@ -87,6 +93,17 @@ public class DebugActivity extends Activity
             {                
                 final String number = m_lifecycle.getOperatorWrapper().askPhoneNumber();
                 recognizedText.setText( number );
+                
+                Log.i( TAG, "Recognition statistics:\n" + m_lifecycle.getOperatorWrapper().dumpStatistics() );
+                
+                try
+                {
+                    Trace.dump( new File( TRACE_FILE ) );
+                }
+                catch ( IOException e )
+                {
+                    Log.e( TAG, "Unable to dump trace", e );
+                }
             }
         } );
         
@@ -0,0 +1,475 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.model;
+
+import java.util.Collection;
+
+/**
+ * This class is used to find out what the user has asked for (call a person,
+ * dial a number, answer yes or no, stop) from recognized text.
+ * <p>
+ * 	Text is split into words without allocating; each word is looked up in a 
+ *  character trie of known words and fed into a small state machine. Names 
+ *  of people are matched word by word against a trie of phonebook names, and
+ *  digit words (including "oh", "double" and "triple") are turned into an 
+ *  actual digit string.
+ * </p>
+ * <p>
+ * 	Partial hypotheses usually grow by a word at a time, so state after every
+ *  word except the last one is kept. When next hypothesis starts with the
+ *  same words only the new words are parsed; the last word could still 
+ *  change, so it is always parsed again. If the decoder has revised earlier 
+ *  words, text is parsed from the start.
+ * </p>
+ * <p>
+ * 	<b>Please note:</b> this class is not thread safe.
+ * </p>
+ */
+final class IntentParser
+{
+    /**
+     * This enum describes what the text is asking for as a whole 
+     */
+    enum Intent
+    {
+        NONE,
+        CALL,
+        DIAL,
+        YES
+    }
+    
+    // Word tokens, digits map to their values
+    private static final int UNKNOWN = -1;
+    private static final int PLUS = 10;
+    private static final int CALL = 11;
+    private static final int DIAL = 12;
+    private static final int STOP = 13;
+    private static final int YES = 14;
+    private static final int NO = 15;
+    private static final int DOUBLE = 16;
+    private static final int TRIPLE = 17;
+    private static final int FIRST_NAME_WORD = 18;
+    
+    private static final String[] DIGIT_WORDS = { "zero", "one", "two", "three", "four", 
+                                                  "five", "six", "seven", "eight", "nine" };
+    
+    // States of the state machine
+    private static final int STATE_START = 0;
+    private static final int STATE_YES = 1;
+    private static final int STATE_NAME = 2;
+    private static final int STATE_DIGITS = 3;
+    private static final int STATE_OTHER = 4;
+    
+    private static final int MAX_DIGITS = 32;
+    
+    private volatile Vocabulary m_nextVocabulary;
+    private Vocabulary m_vocabulary;
+    
+    // State after last word that can no longer change
+    private final State m_stableState = new State();
+    private final StringBuilder m_stableText = new StringBuilder();
+    
+    // State after all words of last hypothesis
+    private final State m_state = new State();
+    
+    IntentParser()
+    {
+        m_vocabulary = new Vocabulary( null );
+        m_nextVocabulary = m_vocabulary;
+    }
+    
+    /**
+     * Set names that could follow "call". Names are used starting with next 
+     * {@link #reset()}, so this method could be called from any thread.
+     */
+    void setNames( Collection<String> names )
+    {
+        m_nextVocabulary = new Vocabulary( names );
+    }
+    
+    /**
+     * Start parsing a new utterance
+     */
+    void reset()
+    {
+        m_vocabulary = m_nextVocabulary;
+        
+        m_stableText.setLength( 0 );
+        m_stableState.clear();
+        m_state.clear();
+    }
+    
+    /**
+     * Parse next hypothesis of current utterance
+     */
+    void parse( CharSequence text )
+    {
+        if ( !startsWithStableText( text ) )
+        {
+            m_stableText.setLength( 0 );
+            m_stableState.clear();
+        }
+        
+        m_state.copyFrom( m_stableState );
+        
+        final int length = text.length();
+        int start = m_stableText.length();
+        while ( true )
+        {
+            while ( start < length && Character.isWhitespace( text.charAt( start ) ) ) start++;
+            if ( start == length ) break;
+            
+            int end = start;
+            while ( end < length && !Character.isWhitespace( text.charAt( end ) ) ) end++;
+            
+            m_state.accept( m_vocabulary.lookup( text, start, end ), m_vocabulary.getNames() );
+            
+            if ( end < length )
+            {
+                // Word is followed by another one, it is not going to change
+                m_stableState.copyFrom( m_state );
+                for ( int i = m_stableText.length(); i < end; i++ )
+                {
+                    m_stableText.append( text.charAt( i ) );
+                }
+            }
+            
+            start = end;
+        }
+    }
+    
+    Intent getIntent()
+    {
+        switch ( m_state.state )
+        {
+            case STATE_YES:    return Intent.YES;
+            case STATE_NAME:   return m_state.name != null && m_state.name.person != null ? Intent.CALL : Intent.NONE;
+            case STATE_DIGITS: return m_state.digitCount > 0 && m_state.repeat == 1 ? Intent.DIAL : Intent.NONE;
+            default:           return Intent.NONE;
+        }
+    }
+    
+    /**
+     * @return digits to dial (e.g. "5550100") or null if text is not a dial request
+     */
+    String getNumber()
+    {
+        return getIntent() == Intent.DIAL ? new String( m_state.digits, 0, m_state.digitCount ) : null;
+    }
+    
+    /**
+     * @return phonebook name in lower case or null if text is not a call request
+     */
+    String getPerson()
+    {
+        return getIntent() == Intent.CALL ? m_state.name.person : null;
+    }
+    
+    /**
+     * @return true if "stop" was said anywhere in the text
+     */
+    boolean isStopSaid()
+    {
+        return m_state.isStopSaid;
+    }
+    
+    /**
+     * @return true if "no" was said anywhere in the text
+     */
+    boolean isNoSaid()
+    {
+        return m_state.isNoSaid;
+    }
+    
+    /**
+     * @return true if text starts with stable words and next word starts 
+     *         after them, so "call anne" does not resume "call ann"
+     */
+    private boolean startsWithStableText( CharSequence text )
+    {
+        final int length = m_stableText.length();
+        if ( text.length() <= length ) return false;
+        if ( length > 0 && !Character.isWhitespace( text.charAt( length ) ) ) return false;
+        
+        for ( int i = 0; i < length; i++ )
+        {
+            if ( text.charAt( i ) != m_stableText.charAt( i ) ) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * This class describes state of the state machine after some words
+     */
+    private static final class State
+    {
+        int state;
+        NameNode name;
+        final char[] digits = new char[ MAX_DIGITS ];
+        int digitCount;
+        int repeat;
+        boolean isStopSaid;
+        boolean isNoSaid;
+        
+        void clear()
+        {
+            state = STATE_START;
+            name = null;
+            digitCount = 0;
+            repeat = 1;
+            isStopSaid = false;
+            isNoSaid = false;
+        }
+        
+        void copyFrom( State other )
+        {
+            state = other.state;
+            name = other.name;
+            System.arraycopy( other.digits, 0, digits, 0, other.digitCount );
+            digitCount = other.digitCount;
+            repeat = other.repeat;
+            isStopSaid = other.isStopSaid;
+            isNoSaid = other.isNoSaid;
+        }
+        
+        void accept( int token, NameNode names )
+        {
+            // Could be said anywhere, e.g. "no stop"
+            if ( token == STOP ) isStopSaid = true;
+            if ( token == NO ) isNoSaid = true;
+            
+            switch ( state )
+            {
+                case STATE_START:
+                    if ( token == CALL )
+                    {
+                        state = STATE_NAME;
+                        name = names;
+                    }
+                    else if ( token == DIAL ) state = STATE_DIGITS;
+                    else if ( token == YES ) state = STATE_YES;
+                    else state = STATE_OTHER;
+                    break;
+                    
+                case STATE_NAME:
+                    name = name.next( token );
+                    if ( name == null ) state = STATE_OTHER;
+                    break;
+                    
+                case STATE_DIGITS:
+                    acceptDigit( token );
+                    break;
+                    
+                case STATE_YES:
+                    state = STATE_OTHER;
+                    break;
+            }
+        }
+        
+        private void acceptDigit( int token )
+        {
+            if ( (token == DOUBLE || token == TRIPLE) && repeat == 1 )
+            {
+                repeat = token == DOUBLE ? 2 : 3;
+            }
+            else if ( token >= 0 && token <= PLUS && digitCount + repeat <= MAX_DIGITS )
+            {
+                final char digit = token == PLUS ? '+' : (char)('0' + token);
+                for ( int i = 0; i < repeat; i++ )
+                {
+                    digits[ digitCount++ ] = digit;
+                }
+                repeat = 1;
+            }
+            else
+            {
+                state = STATE_OTHER;
+            }
+        }
+    }
+    
+    /**
+     * This class describes all words parser knows about. It does not change 
+     * once built.
+     */
+    private static final class Vocabulary
+    {
+        private final WordNode m_words = new WordNode();
+        private final NameNode m_names = new NameNode();
+        private int m_nextToken = FIRST_NAME_WORD;
+        
+        Vocabulary( Collection<String> names )
+        {
+            for ( int i = 0; i < DIGIT_WORDS.length; i++ )
+            {
+                m_words.add( DIGIT_WORDS[ i ], 0, i );
+            }
+            m_words.add( "oh", 0, 0 );
+            m_words.add( "plus", 0, PLUS );
+            m_words.add( "call", 0, CALL );
+            m_words.add( "dial", 0, DIAL );
+            m_words.add( "stop", 0, STOP );
+            m_words.add( "yes", 0, YES );
+            m_words.add( "no", 0, NO );
+            m_words.add( "double", 0, DOUBLE );
+            m_words.add( "triple", 0, TRIPLE );
+            
+            if ( names != null )
+            {
+                for ( String name : names )
+                {
+                    addName( name );
+                }
+            }
+        }
+        
+        NameNode getNames()
+        {
+            return m_names;
+        }
+        
+        int lookup( CharSequence text, int start, int end )
+        {
+            WordNode node = m_words;
+            for ( int i = start; i < end && node != null; i++ )
+            {
+                node = node.next( Character.toLowerCase( text.charAt( i ) ) );
+            }
+            
+            return node != null ? node.token : UNKNOWN;
+        }
+        
+        private void addName( String name )
+        {
+            final String normalizedName = name.toLowerCase().trim().replaceAll( "\\s+", " " );
+            if ( normalizedName.length() == 0 ) return;
+            
+            NameNode node = m_names;
+            for ( String word : normalizedName.split( " " ) )
+            {
+                int token = lookup( word, 0, word.length() );
+                if ( token == UNKNOWN )
+                {
+                    token = m_nextToken++;
+                    m_words.add( word, 0, token );
+                }
+                
+                node = node.add( token );
+            }
+            node.person = normalizedName;
+        }
+    }
+    
+    /**
+     * This class is a node of a character trie of known words
+     */
+    private static final class WordNode
+    {
+        private char[] m_chars = new char[ 0 ];
+        private WordNode[] m_next = new WordNode[ 0 ];
+        
+        int token = UNKNOWN;
+        
+        WordNode next( char c )
+        {
+            for ( int i = 0; i < m_chars.length; i++ )
+            {
+                if ( m_chars[ i ] == c ) return m_next[ i ];
+            }
+            
+            return null;
+        }
+        
+        void add( String word, int position, int wordToken )
+        {
+            if ( position == word.length() )
+            {
+                token = wordToken;
+                return;
+            }
+            
+            final char c = word.charAt( position );
+            WordNode node = next( c );
+            if ( node == null )
+            {
+                node = new WordNode();
+                
+                final int count = m_chars.length;
+                final char[] chars = new char[ count + 1 ];
+                final WordNode[] next = new WordNode[ count + 1 ];
+                System.arraycopy( m_chars, 0, chars, 0, count );
+                System.arraycopy( m_next, 0, next, 0, count );
+                chars[ count ] = c;
+                next[ count ] = node;
+                
+                m_chars = chars;
+                m_next = next;
+            }
+            
+            node.add( word, position + 1, wordToken );
+        }
+    }
+    
+    /**
+     * This class is a node of a word trie of phonebook names
+     */
+    private static final class NameNode
+    {
+        private int[] m_tokens = new int[ 0 ];
+        private NameNode[] m_next = new NameNode[ 0 ];
+        
+        String person;
+        
+        NameNode next( int token )
+        {
+            for ( int i = 0; i < m_tokens.length; i++ )
+            {
+                if ( m_tokens[ i ] == token ) return m_next[ i ];
+            }
+            
+            return null;
+        }
+        
+        NameNode add( int token )
+        {
+            NameNode node = next( token );
+            if ( node == null )
+            {
+                node = new NameNode();
+                
+                final int count = m_tokens.length;
+                final int[] tokens = new int[ count + 1 ];
+                final NameNode[] next = new NameNode[ count + 1 ];
+                System.arraycopy( m_tokens, 0, tokens, 0, count );
+                System.arraycopy( m_next, 0, next, 0, count );
+                tokens[ count ] = token;
+                next[ count ] = node;
+                
+                m_tokens = tokens;
+                m_next = next;
+            }
+            
+            return node;
+        }
+    }
+}
@@ -3,11 +3,20 @@ package org.vintagephone.model;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.vintagephone.model.SpeechGenerator.PlaybackListener;
+import org.vintagephone.model.SpeechRecognizer.BargeInListener;
 import org.vintagephone.model.SpeechRecognizer.DialNumberResult;
 import org.vintagephone.model.SpeechRecognizer.DialPersonResult;
+import org.vintagephone.model.SpeechRecognizer.DialTargetListener;
 import org.vintagephone.model.SpeechRecognizer.DialTargetResult;
+import org.vintagephone.speech_to_text.Histogram;
+import org.vintagephone.speech_to_text.PromptEnvelope;
+import org.vintagephone.speech_to_text.RecognitionMode;
 
 import android.util.Log;
 
@@ -17,14 +26,22 @@ public class OperatorWrapper
 
 
     private static final String NUMBERS_FILE = "/sdcard/Android/data/vp/book/numbers.txt";
+    
+    // Targets recognized with lower confidence need an explicit "yes"
+    private static final float CONFIDENCE_THRESHOLD = 0.6f;
 
 
     private final SpeechRecognizer m_speechRecognizer;
     private final SpeechGenerator m_speechGenerator;
     
     private final Properties m_numbers;
+    private long m_numbersModified = 0;
     
     private volatile boolean m_terminateInteraction = false;
+    
+    // Statistics
+    private final Histogram m_turnsPerCall = new Histogram( "turns per call request", "" );
+    private final AtomicLong m_explicitConfirmations = new AtomicLong();
 
 
     public OperatorWrapper()
@@ -37,9 +54,51 @@ public class OperatorWrapper
     
     public void initialize() throws Exception
     {
-        m_speechRecognizer.initialize();
-        
         loadNumbers();
+        
+        m_speechRecognizer.setPhonebookNames( getPhonebookNames() );
+        m_speechRecognizer.setBargeInListener( new BargeInListener()
+        {
+            public void speechStarted()
+            {
+                // User already knows what to say, no need to finish the prompt
+                m_speechGenerator.stopTalking();
+            }
+            
+            public void keywordSpotted(String keyword)
+            {
+                m_speechGenerator.stopTalking();
+            }
+        } );
+        m_speechRecognizer.setDialTargetListener( new DialTargetListener()
+        {
+            public void dialTargetHeard(DialTargetResult target)
+            {
+                // Read back is prepared while the user is still talking
+                if ( target instanceof DialNumberResult )
+                {
+                    m_speechGenerator.prefetchDialingNumber( ((DialNumberResult)target).number );
+                }
+                else if ( target instanceof DialPersonResult && isKnownPerson( ((DialPersonResult)target).name ) )
+                {
+                    m_speechGenerator.prefetchCallingName( ((DialPersonResult)target).name );
+                }
+            }
+        } );
+        m_speechGenerator.setPlaybackListener( new PlaybackListener()
+        {
+            public void promptStarted(PromptEnvelope envelope)
+            {
+                m_speechRecognizer.promptStarted( envelope );
+            }
+            
+            public void promptStopped()
+            {
+                m_speechRecognizer.promptStopped();
+            }
+        } );
+        m_speechGenerator.initialize();
+        m_speechRecognizer.initialize();
     }
     
 
@@ -48,20 +107,28 @@ public class OperatorWrapper
     {
         m_terminateInteraction = true;
         m_speechRecognizer.stopListening( false );
+        m_speechRecognizer.stopCapture();
         m_speechGenerator.stopTalking();
     }
 
     public String askPhoneNumber()
     {
+        // Every question operator asks is a turn
+        int turns = 0;
+        
         try
         {
             m_terminateInteraction = false;
             
+            reloadNumbersIfChanged();
+            m_speechRecognizer.startCapture();
+            
             boolean lastTimeMissed = false;
             
             while ( !m_terminateInteraction )
             {
-                m_speechRecognizer.startWaiting();
+                turns += 1;
+                m_speechRecognizer.startWaiting( RecognitionMode.DIAL_TARGET );
                 
                 if ( !lastTimeMissed )
                 {
@@ -73,13 +140,16 @@ public class OperatorWrapper
                 }
                 lastTimeMissed = false;
                 
+                // Next question, if the target is missed
+                m_speechGenerator.prefetchSorry();
                 
                 final DialTargetResult result = m_speechRecognizer.recognizeDialTarget();
                 if ( result instanceof DialNumberResult )
                 {                    
                     final String number = ((DialNumberResult)result).number;
                     
-                    if ( confirmNumber ( number ) && !m_terminateInteraction)
+                    turns += 1;
+                    if ( confirmNumber ( number, result.confidence ) && !m_terminateInteraction)
                     {
                         m_speechGenerator.sayCallPlaced();
                         
@@ -96,7 +166,8 @@ public class OperatorWrapper
                     
                     if ( isKnownPerson( person ) )
                     {
-                        if ( confirmPerson ( person ) && !m_terminateInteraction )
+                        turns += 1;
+                        if ( confirmPerson ( person, result.confidence ) && !m_terminateInteraction )
                         {
                             m_speechGenerator.sayCallPlaced();
                             
@@ -125,10 +196,39 @@ public class OperatorWrapper
         {
             Log.e( Tag, "Can't wait for call request", e );
         }
+        finally
+        {
+            // Release microphone before the call is placed
+            m_speechRecognizer.stopCapture();
+            
+            m_turnsPerCall.record( turns );
+        }
         
         return null;
     }
 
+    /**
+     * @return speech recognition timers and counters, one per line
+     */
+    public String dumpStatistics()
+    {
+        return "explicit confirmations: " + m_explicitConfirmations.get() + "\n" +
+               m_turnsPerCall + "\n" +
+               m_speechRecognizer.dumpStatistics() + "\n" +
+               m_speechGenerator.dumpStatistics();
+    }
+    
+    private Collection<String> getPhonebookNames()
+    {
+        final Collection<String> result = new ArrayList<String>();
+        for ( Object name : m_numbers.keySet() )
+        {
+            result.add( name.toString() );
+        }
+        
+        return result;
+    }
+
     private String resolveNumberFromPerson(String person)
     {
         return m_numbers.getProperty( person );
@@ -149,22 +249,45 @@ public class OperatorWrapper
         m_speechGenerator.sayCallTerminated();
     }
     
-    private boolean confirmPerson(String person) throws InterruptedException
+    private boolean confirmPerson(String person, float confidence) throws InterruptedException
     {
-        m_speechRecognizer.startWaiting();
+        m_speechRecognizer.startWaiting( RecognitionMode.CONFIRMATION );
         
         m_speechGenerator.sayCallingName( person );
         
-        return m_speechRecognizer.waitForNo( 2 );
+        return waitForConfirmation( confidence );
     }
     
-    private boolean confirmNumber(String number) throws InterruptedException
+    private boolean confirmNumber(String number, float confidence) throws InterruptedException
     {
+        m_speechRecognizer.startWaiting( RecognitionMode.CONFIRMATION );
+        
         m_speechGenerator.sayDialingNumber( number );
         
-        m_speechRecognizer.startWaiting();
+        return waitForConfirmation( confidence );
+    }
+    
+    /**
+     * Confident targets are placed unless user says "no". Less certain ones
+     * are asked about and only placed if user says "yes", which is still 
+     * quicker than asking for the whole target again. Without a recorded 
+     * question they are treated as confident ones, read back alone does not
+     * tell the user a "yes" is expected.
+     */
+    private boolean waitForConfirmation(float confidence) throws InterruptedException
+    {
+        m_speechGenerator.prefetchCallPlaced();
         
-        return m_speechRecognizer.waitForNo( 2 );
+        if ( confidence < CONFIDENCE_THRESHOLD && m_speechGenerator.sayIsThatRight() )
+        {
+            m_explicitConfirmations.incrementAndGet();
+            
+            return m_speechRecognizer.waitForYes( 3 );
+        }
+        else
+        {
+            return m_speechRecognizer.waitForNo( 2 );
+        }
     }
 
     private String resolveNumber(String dialNumber)
@@ -172,6 +295,26 @@ public class OperatorWrapper
         return "number " + dialNumber;
     }
  
+    /**
+     * Reload phonebook and update recognizer vocabulary if phonebook was edited
+     */
+    private void reloadNumbersIfChanged()
+    {
+        if ( new File( NUMBERS_FILE ).lastModified() != m_numbersModified )
+        {
+            try
+            {
+                loadNumbers();
+                
+                m_speechRecognizer.setPhonebookNames( getPhonebookNames() );
+            }
+            catch ( IOException e )
+            {
+                Log.e( Tag, "Unable to reload numbers", e );
+            }
+        }
+    }
+ 
     private void loadNumbers() throws IOException
     {
         FileInputStream fis = null;
@@ -179,7 +322,10 @@ public class OperatorWrapper
         try
         {
             final File numbersFile = new File( NUMBERS_FILE );
+            m_numbersModified = numbersFile.lastModified();
+            
             fis = new FileInputStream( numbersFile );
+            m_numbers.clear();
             m_numbers.load( fis );
             
             Log.d(Tag, "Loaded numbers: " + m_numbers );
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.model;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+
+import org.vintagephone.speech_to_text.PromptEnvelope;
+
+/**
+ * This class holds one recorded phrase operator could say, decoded to mono
+ * 16-bit samples ready to be written to an audio track.
+ * <p>
+ * 	Prompts that could not be decoded (anything but PCM WAV) keep only their
+ *  file and are played by the media player instead.
+ * </p>
+ * <p>
+ * 	Samples are either decoded into the heap or are a slice of a memory 
+ *  mapped {@link PromptArchive}.
+ * </p>
+ */
+final class Prompt
+{
+    private static final int SILENCE_THRESHOLD = 512; // about -36 dB of full scale
+    
+    private final File m_file;
+    private final ShortBuffer m_samples;
+    private final int m_sampleRate;
+    private final PromptEnvelope m_envelope;
+    
+    // Samples between leading and trailing silence
+    private final int m_voicedStart;
+    private final int m_voicedEnd;
+    
+    private Prompt( File file, ShortBuffer samples, int sampleRate, PromptEnvelope envelope, int voicedStart, int voicedEnd )
+    {
+        m_file = file;
+        m_samples = samples;
+        m_sampleRate = sampleRate;
+        m_envelope = envelope;
+        m_voicedStart = voicedStart;
+        m_voicedEnd = voicedEnd;
+    }
+    
+    /**
+     * @return prompt that is played from given file as is
+     */
+    static Prompt undecoded( File file )
+    {
+        return new Prompt( file, null, 0, null, 0, 0 );
+    }
+    
+    /**
+     * Decode a 16-bit PCM WAV file, channels are mixed down. Chunk sizes are
+     * checked against the file, so a corrupt file fails with IOException.
+     */
+    static Prompt decode( File file )
+        throws IOException
+    {
+        final byte[] bytes = new byte[ (int)file.length() ];
+        
+        final DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+        try
+        {
+            in.readFully( bytes );
+        }
+        finally
+        {
+            in.close();
+        }
+        
+        if ( bytes.length < 12 || !"RIFF".equals( new String( bytes, 0, 4, "US-ASCII" ) ) 
+                              || !"WAVE".equals( new String( bytes, 8, 4, "US-ASCII" ) ) )
+        {
+            throw new IOException( file + " is not a WAV file" );
+        }
+        
+        int sampleRate = 0;
+        int channels = 0;
+        
+        int offset = 12;
+        while ( offset + 8 <= bytes.length )
+        {
+            final String id = new String( bytes, offset, 4, "US-ASCII" );
+            final int size = readInt( bytes, offset + 4 );
+            final int body = offset + 8;
+            
+            if ( size < 0 || size > bytes.length - body ) throw new IOException( file + " has corrupt " + id.trim() + " chunk" );
+            
+            if ( "fmt ".equals( id ) )
+            {
+                if ( size < 16 ) throw new IOException( file + " has corrupt format chunk" );
+                
+                final int encoding = readShort( bytes, body );
+                final int bitsPerSample = readShort( bytes, body + 14 );
+                if ( encoding != 1 || bitsPerSample != 16 ) throw new IOException( file + " is not 16-bit PCM" );
+                
+                channels = readShort( bytes, body + 2 );
+                sampleRate = readInt( bytes, body + 4 );
+            }
+            else if ( "data".equals( id ) )
+            {
+                if ( sampleRate == 0 || channels < 1 ) throw new IOException( file + " has no format chunk" );
+                
+                final int length = size / (2 * channels);
+                final short[] samples = new short[ length ];
+                for ( int i = 0; i < length; i++ )
+                {
+                    int mixed = 0;
+                    for ( int channel = 0; channel < channels; channel++ )
+                    {
+                        mixed += readShort( bytes, body + 2*(i*channels + channel) );
+                    }
+                    samples[ i ] = (short)(mixed / channels);
+                }
+                
+                return fromSamples( file, samples, sampleRate );
+            }
+            
+            // Chunks are word aligned
+            offset = body + size + (size % 2);
+        }
+        
+        throw new IOException( file + " has no data chunk" );
+    }
+    
+    static Prompt fromSamples( File file, short[] samples, int sampleRate )
+    {
+        final PromptEnvelope envelope = PromptEnvelope.fromSamples( samples, samples.length, sampleRate, 1 );
+        
+        int voicedStart = 0;
+        while ( voicedStart < samples.length && Math.abs( samples[ voicedStart ] ) < SILENCE_THRESHOLD ) voicedStart++;
+        
+        int voicedEnd = samples.length;
+        while ( voicedEnd > voicedStart && Math.abs( samples[ voicedEnd - 1 ] ) < SILENCE_THRESHOLD ) voicedEnd--;
+        
+        return new Prompt( file, ShortBuffer.wrap( samples ), sampleRate, envelope, voicedStart, voicedEnd );
+    }
+    
+    /**
+     * @return prompt playing given samples as they are, without copying them
+     *         (see {@link PromptArchive})
+     */
+    static Prompt fromBuffer( File file, ShortBuffer samples, int sampleRate, PromptEnvelope envelope, int voicedStart, int voicedEnd )
+    {
+        return new Prompt( file, samples, sampleRate, envelope, voicedStart, voicedEnd );
+    }
+    
+    File getFile()
+    {
+        return m_file;
+    }
+    
+    /**
+     * @return file name without extension
+     */
+    String getName()
+    {
+        final String name = m_file.getName();
+        final int dot = name.lastIndexOf( '.' );
+        
+        return dot > 0 ? name.substring( 0, dot ) : name;
+    }
+    
+    boolean isDecoded()
+    {
+        return m_samples != null;
+    }
+    
+    /**
+     * @return read-only view of all samples, position and limit of the view
+     *         could be changed freely
+     */
+    ShortBuffer getSamples()
+    {
+        return m_samples.asReadOnlyBuffer();
+    }
+    
+    int getLength()
+    {
+        return m_samples != null ? m_samples.remaining() : 0;
+    }
+    
+    int getSampleRate()
+    {
+        return m_sampleRate;
+    }
+    
+    /**
+     * @return index of first sample that is not part of leading silence
+     */
+    int getVoicedStart()
+    {
+        return m_voicedStart;
+    }
+    
+    /**
+     * @return index right after last sample that is not part of trailing 
+     *         silence
+     */
+    int getVoicedEnd()
+    {
+        return m_voicedEnd;
+    }
+    
+    PromptEnvelope getEnvelope()
+    {
+        return m_envelope;
+    }
+    
+    long getDurationMillis()
+    {
+        return m_sampleRate > 0 ? 1000L * getLength() / m_sampleRate : 0;
+    }
+    
+    /**
+     * @return this prompt converted to given sample rate (linear interpolation)
+     */
+    Prompt resample( int sampleRate )
+    {
+        if ( sampleRate == m_sampleRate || m_samples == null ) return this;
+        
+        final ShortBuffer source = getSamples();
+        final int sourceLength = source.remaining();
+        final int length = (int)((long)sourceLength * sampleRate / m_sampleRate);
+        final short[] result = new short[ length ];
+        
+        final double step = (double)m_sampleRate / sampleRate;
+        for ( int i = 0; i < length; i++ )
+        {
+            final double position = i * step;
+            final int index = (int)position;
+            final double fraction = position - index;
+            
+            final int first = source.get( Math.min( index, sourceLength - 1 ) );
+            final int second = source.get( Math.min( index + 1, sourceLength - 1 ) );
+            
+            result[ i ] = (short)Math.round( first + (second - first) * fraction );
+        }
+        
+        return fromSamples( m_file, result, sampleRate );
+    }
+    
+    private static int readShort( byte[] bytes, int offset )
+    {
+        return (short)((bytes[ offset ] & 0xFF) | (bytes[ offset + 1 ] << 8));
+    }
+    
+    private static int readInt( byte[] bytes, int offset )
+    {
+        return (bytes[ offset ] & 0xFF) | ((bytes[ offset + 1 ] & 0xFF) << 8) 
+               | ((bytes[ offset + 2 ] & 0xFF) << 16) | ((bytes[ offset + 3 ] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.vintagephone.speech_to_text.PromptEnvelope;
+
+/**
+ * This class is used to read and write all prompts packed into a single 
+ * file, so that startup takes one file open instead of one per prompt.
+ * <p>
+ * 	Archive is memory mapped and prompts are handed out as slices of the 
+ *  mapping, samples are never copied. Layout (all numbers little endian):
+ *  <pre>
+ *  header (32 bytes):
+ *      "VPPK", version, sample rate, prompt count, 
+ *      index length, data offset, data length, CRC32 of index
+ *  index:
+ *      folder count, then per folder:
+ *          folder (UTF-8, length as short), newest change to it when packed
+ *          (milliseconds as long)
+ *      then per prompt:
+ *          folder (UTF-8, length as short), name (UTF-8, length as short), 
+ *          data offset, sample count, voiced start, voiced end, 
+ *          envelope frame count, envelope energies (floats)
+ *  data (starts on a page boundary, each prompt 16 byte aligned):
+ *      mono 16-bit PCM
+ *  </pre>
+ * </p>
+ * <p>
+ * 	Only the header and the index are checked when archive is opened, 
+ *  samples are paged in as they are played. Archive is replaced by moving 
+ *  a new file over it, a mapped file must not be rewritten in place.
+ * </p>
+ * <p>
+ * 	Archives are written by <code>PromptPacker</code> tool.
+ * </p>
+ */
+final class PromptArchive
+{
+    static final String FILE_NAME = "prompts.pack";
+    
+    private static final int MAGIC = 0x4B505056; // "VPPK"
+    private static final int VERSION = 2;
+    
+    private static final int HEADER_SIZE = 32;
+    private static final int PAGE_SIZE = 4096;
+    private static final int ALIGNMENT = 16;
+    
+    private PromptArchive()
+    {
+    }
+    
+    /**
+     * Map given archive and check that it is intact
+     * 
+     * @param folderTimes map to put newest change to every folder when it was
+     *        packed (see {@link PromptLibrary#getLastModified(File)}) in or 
+     *        null
+     * @return prompts by folder, in the order they were packed
+     * @throws IOException if file could not be mapped, is of another version 
+     *                     or is damaged
+     */
+    static Map<String, List<Prompt>> read( File file, Map<String, Long> folderTimes )
+        throws IOException
+    {
+        final MappedByteBuffer mapping;
+        final RandomAccessFile input = new RandomAccessFile( file, "r" );
+        try
+        {
+            if ( input.length() < HEADER_SIZE || input.length() > Integer.MAX_VALUE ) throw new IOException( file + " has wrong size" );
+            
+            mapping = input.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, input.length() );
+        }
+        finally
+        {
+            // Mapping stays valid
+            input.close();
+        }
+        mapping.order( ByteOrder.LITTLE_ENDIAN );
+        
+        if ( mapping.getInt( 0 ) != MAGIC ) throw new IOException( file + " is not a prompt archive" );
+        
+        final int version = mapping.getInt( 4 );
+        if ( version != VERSION ) throw new IOException( file + " is of version " + version + ", expected " + VERSION );
+        
+        final int sampleRate = mapping.getInt( 8 );
+        final int count = mapping.getInt( 12 );
+        final int indexLength = mapping.getInt( 16 );
+        final int dataOffset = mapping.getInt( 20 );
+        final int dataLength = mapping.getInt( 24 );
+        final int checksum = mapping.getInt( 28 );
+        
+        if ( sampleRate <= 0 || count < 0 || indexLength < 0 || dataLength < 0 || dataOffset < HEADER_SIZE + indexLength 
+                             || (long)dataOffset + dataLength != mapping.capacity() )
+        {
+            throw new IOException( file + " is truncated or has a damaged header" );
+        }
+        
+        final byte[] indexBytes = new byte[ indexLength ];
+        mapping.position( HEADER_SIZE );
+        mapping.get( indexBytes );
+        
+        final CRC32 crc = new CRC32();
+        crc.update( indexBytes );
+        if ( (int)crc.getValue() != checksum ) throw new IOException( file + " has a damaged index" );
+        
+        try
+        {
+            final ByteBuffer index = ByteBuffer.wrap( indexBytes ).order( ByteOrder.LITTLE_ENDIAN );
+            readFolderTimes( file, index, folderTimes );
+            
+            return readIndex( file, mapping, index, count, sampleRate, dataOffset, dataLength );
+        }
+        catch ( BufferUnderflowException e )
+        {
+            throw new IOException( file + " has a truncated index" );
+        }
+    }
+    
+    private static void readFolderTimes( File file, ByteBuffer index, Map<String, Long> folderTimes )
+        throws IOException
+    {
+        final int count = index.getInt();
+        if ( count < 0 || count > index.remaining() / 10 ) throw new IOException( file + " has a damaged index" );
+        
+        for ( int i = 0; i < count; i++ )
+        {
+            final String folder = readString( index );
+            final long modified = index.getLong();
+            
+            if ( folderTimes != null ) folderTimes.put( folder, modified );
+        }
+    }
+    
+    private static Map<String, List<Prompt>> readIndex( File file, ByteBuffer mapping, ByteBuffer index, 
+                                                        int count, int sampleRate, int dataOffset, int dataLength )
+        throws IOException
+    {
+        final Map<String, List<Prompt>> result = new HashMap<String, List<Prompt>>();
+        final File root = file.getParentFile();
+        for ( int i = 0; i < count; i++ )
+        {
+            final String folder = readString( index );
+            final String name = readString( index );
+            final int offset = index.getInt();
+            final int length = index.getInt();
+            final int voicedStart = index.getInt();
+            final int voicedEnd = index.getInt();
+            
+            final int frames = index.getInt();
+            if ( frames < 0 || frames > index.remaining() / 4 ) throw new IOException( file + " has a damaged index" );
+            
+            final float[] energies = new float[ frames ];
+            for ( int frame = 0; frame < energies.length; frame++ )
+            {
+                energies[ frame ] = index.getFloat();
+            }
+            
+            if ( offset < 0 || length < 0 || (long)offset + 2L * length > dataLength ) throw new IOException( file + " has a damaged index" );
+            
+            final ByteBuffer slice = mapping.duplicate();
+            slice.limit( dataOffset + offset + 2 * length );
+            slice.position( dataOffset + offset );
+            
+            final Prompt prompt = Prompt.fromBuffer( new File( new File( root, folder ), name + ".wav" ), 
+                                                     slice.slice().order( ByteOrder.LITTLE_ENDIAN ).asShortBuffer(), 
+                                                     sampleRate, new PromptEnvelope( energies ), voicedStart, voicedEnd );
+            
+            List<Prompt> prompts = result.get( folder );
+            if ( prompts == null )
+            {
+                prompts = new ArrayList<Prompt>();
+                result.put( folder, prompts );
+            }
+            prompts.add( prompt );
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Pack given prompts into an archive. Archive is written next to given 
+     * file first and then moved over it. Newest change to every folder is 
+     * taken from the folder of that name next to the archive.
+     * 
+     * @param folders decoded prompts by folder, all of given sample rate
+     */
+    static void write( Map<String, List<Prompt>> folders, int sampleRate, File file )
+        throws IOException
+    {
+        final File root = file.getParentFile();
+        
+        int count = 0;
+        int indexLength = 4;
+        int dataLength = 0;
+        for ( Map.Entry<String, List<Prompt>> entry : folders.entrySet() )
+        {
+            indexLength += 2 + utf8( entry.getKey() ).length + 8;
+            
+            for ( Prompt prompt : entry.getValue() )
+            {
+                if ( prompt.getSampleRate() != sampleRate ) throw new IOException( prompt.getFile() + " is not at " + sampleRate + " Hz" );
+                
+                count += 1;
+                indexLength += 2 + utf8( entry.getKey() ).length + 2 + utf8( prompt.getName() ).length 
+                               + 5 * 4 + 4 * prompt.getEnvelope().getFrameCount();
+                dataLength = align( dataLength + 2 * prompt.getLength(), ALIGNMENT );
+            }
+        }
+        
+        final int dataOffset = align( HEADER_SIZE + indexLength, PAGE_SIZE );
+        
+        final ByteBuffer index = ByteBuffer.allocate( indexLength ).order( ByteOrder.LITTLE_ENDIAN );
+        final ByteBuffer data = ByteBuffer.allocate( dataLength ).order( ByteOrder.LITTLE_ENDIAN );
+        
+        index.putInt( folders.size() );
+        for ( String folder : folders.keySet() )
+        {
+            writeString( index, folder );
+            index.putLong( PromptLibrary.getLastModified( new File( root, folder ) ) );
+        }
+        
+        for ( Map.Entry<String, List<Prompt>> entry : folders.entrySet() )
+        {
+            for ( Prompt prompt : entry.getValue() )
+            {
+                final PromptEnvelope envelope = prompt.getEnvelope();
+                
+                writeString( index, entry.getKey() );
+                writeString( index, prompt.getName() );
+                index.putInt( data.position() );
+                index.putInt( prompt.getLength() );
+                index.putInt( prompt.getVoicedStart() );
+                index.putInt( prompt.getVoicedEnd() );
+                index.putInt( envelope.getFrameCount() );
+                for ( int frame = 0; frame < envelope.getFrameCount(); frame++ )
+                {
+                    index.putFloat( envelope.getMaxEnergy( frame, frame ) );
+                }
+                
+                data.asShortBuffer().put( prompt.getSamples() );
+                data.position( align( data.position() + 2 * prompt.getLength(), ALIGNMENT ) );
+            }
+        }
+        
+        final CRC32 crc = new CRC32();
+        crc.update( index.array() );
+        
+        final ByteBuffer header = ByteBuffer.allocate( dataOffset ).order( ByteOrder.LITTLE_ENDIAN );
+        header.putInt( MAGIC ).putInt( VERSION ).putInt( sampleRate ).putInt( count )
+              .putInt( indexLength ).putInt( dataOffset ).putInt( dataLength ).putInt( (int)crc.getValue() );
+        header.put( index.array() );
+        header.clear();
+        data.clear();
+        
+        final File temporary = new File( file.getPath() + ".tmp" );
+        final RandomAccessFile output = new RandomAccessFile( temporary, "rw" );
+        try
+        {
+            output.setLength( 0 );
+            
+            final FileChannel channel = output.getChannel();
+            while ( header.hasRemaining() ) channel.write( header );
+            while ( data.hasRemaining() ) channel.write( data );
+        }
+        finally
+        {
+            output.close();
+        }
+        
+        if ( !temporary.renameTo( file ) ) 
+        {
+            // Some file systems do not replace on rename
+            if ( !file.delete() || !temporary.renameTo( file ) ) throw new IOException( "Unable to replace " + file );
+        }
+    }
+    
+    private static int align( int value, int alignment )
+    {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+    
+    private static byte[] utf8( String value )
+        throws IOException
+    {
+        return value.getBytes( "UTF-8" );
+    }
+    
+    private static void writeString( ByteBuffer buffer, String value )
+        throws IOException
+    {
+        final byte[] bytes = utf8( value );
+        
+        buffer.putShort( (short)bytes.length );
+        buffer.put( bytes );
+    }
+    
+    private static String readString( ByteBuffer buffer )
+        throws IOException
+    {
+        final byte[] bytes = new byte[ buffer.getShort() & 0xFFFF ];
+        buffer.get( bytes );
+        
+        return new String( bytes, "UTF-8" );
+    }
+}
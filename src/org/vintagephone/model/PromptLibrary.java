@@ -0,0 +1,501 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.model;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import android.os.FileObserver;
+import android.util.Log;
+
+/**
+ * This class is used to keep all operator prompts decoded in memory.
+ * <p>
+ * 	Every folder under voice root holds variants of one phrase (or, for 
+ *  names, one file per name). All of them are decoded when the library is
+ *  loaded and converted to the sample rate most of them share, so that they
+ *  could be written to a single audio track as is.
+ * </p>
+ * <p>
+ * 	If voice root holds an intact {@link PromptArchive}, prompts are mapped
+ *  from it instead and prompt files are not decoded. Folders that changed 
+ *  since the archive was packed, or were not packed at all, are still 
+ *  decoded from their files.
+ * </p>
+ * <p>
+ * 	Lookups never touch the SD card. Once {@link #startWatching()} is 
+ *  called, voice root and every folder under it are watched and a folder 
+ *  that changed is decoded again in the background, shortly after the last
+ *  change to it.
+ * </p>
+ */
+final class PromptLibrary
+{
+    private static final String Tag = "PromptLibrary";
+    
+    private static final int DEFAULT_SAMPLE_RATE = 8000;
+    private static final long SETTLE_DELAY = 500; // ms
+    
+    private static final int ROOT_EVENTS = FileObserver.CREATE | FileObserver.CLOSE_WRITE | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+    private static final int FOLDER_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+    
+    private final File m_root;
+    
+    // Replaced as a whole on every change, never modified
+    private volatile Map<String, Folder> m_folders = Collections.emptyMap();
+    private volatile int m_sampleRate = 0;
+    
+    // Changes not reloaded yet (guarded by m_changeLock)
+    private final Object m_changeLock = new Object();
+    private final Set<String> m_changedFolders = new HashSet<String>();
+    private boolean m_isRootChanged = false;
+    
+    // Observers have to be referenced to keep watching (only accessed from watcher thread)
+    private FileObserver m_rootObserver = null;
+    private final Map<String, FileObserver> m_folderObservers = new HashMap<String, FileObserver>();
+    
+    /**
+     * Variants of one phrase
+     */
+    private static final class Folder
+    {
+        final List<Prompt> variants;
+        final Map<String, Prompt> byName = new HashMap<String, Prompt>();
+        
+        Folder( List<Prompt> variants )
+        {
+            this.variants = variants;
+            for ( Prompt prompt : variants )
+            {
+                byName.put( prompt.getName(), prompt );
+            }
+        }
+    }
+    
+    PromptLibrary( File root )
+    {
+        m_root = root;
+    }
+    
+    /**
+     * Decode all prompts under voice root
+     */
+    void load()
+    {
+        final long start = System.nanoTime();
+        
+        Map<String, List<Prompt>> decoded = null;
+        
+        final File archive = new File( m_root, PromptArchive.FILE_NAME );
+        final Map<String, Long> packedTimes = new HashMap<String, Long>();
+        if ( archive.exists() )
+        {
+            try
+            {
+                decoded = PromptArchive.read( archive, packedTimes );
+            }
+            catch ( IOException e )
+            {
+                Log.w( Tag, "Unable to use " + archive + ", loading prompt files instead", e );
+            }
+        }
+        
+        String source = "prompt files";
+        if ( decoded != null )
+        {
+            final int changed = decodeChangedFolders( decoded, packedTimes );
+            source = archive.getName() + (changed > 0 ? " and " + changed + " folders changed since packing" : "");
+        }
+        else
+        {
+            decoded = decodeTree( m_root );
+        }
+        
+        if ( m_sampleRate == 0 ) m_sampleRate = getCommonSampleRate( decoded );
+        
+        int count = 0;
+        long samples = 0;
+        final Map<String, Folder> folderMap = new HashMap<String, Folder>();
+        for ( Map.Entry<String, List<Prompt>> entry : decoded.entrySet() )
+        {
+            final Folder folder = createFolder( entry.getValue() );
+            for ( Prompt prompt : folder.variants )
+            {
+                count += 1;
+                samples += prompt.getLength();
+            }
+            
+            folderMap.put( entry.getKey(), folder );
+        }
+        m_folders = folderMap;
+        
+        Log.i( Tag, "Loaded " + count + " prompts in " + folderMap.size() + " folders (" + (2 * samples / 1024) + " KB at " 
+                    + m_sampleRate + " Hz) from " + source + " in " + (System.nanoTime() - start) / 1000000 + " ms" );
+    }
+    
+    /**
+     * Decode prompt files in every folder under given root
+     */
+    static Map<String, List<Prompt>> decodeTree( File root )
+    {
+        final Map<String, List<Prompt>> result = new HashMap<String, List<Prompt>>();
+        
+        final File[] folders = root.listFiles();
+        if ( folders != null )
+        {
+            for ( File folder : folders )
+            {
+                if ( isPromptFolder( folder ) )
+                {
+                    result.put( folder.getName(), decodeFolder( folder ) );
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return newest modification time of given folder and prompt files in it
+     */
+    static long getLastModified( File folder )
+    {
+        long result = folder.lastModified();
+        
+        final File[] files = folder.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                if ( isPromptFile( file.getName() ) ) result = Math.max( result, file.lastModified() );
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Decode folders under voice root that are newer than their packed copy
+     * or were not packed, replacing them in given prompts
+     * 
+     * @param packedTimes newest change to every folder when it was packed
+     * @return number of folders decoded
+     */
+    private int decodeChangedFolders( Map<String, List<Prompt>> prompts, Map<String, Long> packedTimes )
+    {
+        int result = 0;
+        
+        final File[] folders = m_root.listFiles();
+        if ( folders == null ) return result;
+        
+        for ( File folder : folders )
+        {
+            if ( !isPromptFolder( folder ) ) continue;
+            
+            final Long packedTime = packedTimes.get( folder.getName() );
+            if ( packedTime == null || getLastModified( folder ) > packedTime )
+            {
+                prompts.put( folder.getName(), decodeFolder( folder ) );
+                result += 1;
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Watch voice root for changes and reload changed folders in the 
+     * background. Must be called after {@link #load()}.
+     */
+    void startWatching()
+    {
+        final Thread thread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                watch();
+            }
+        }, "prompt-watcher" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+    
+    /**
+     * @return sample rate of all decoded prompts
+     */
+    int getSampleRate()
+    {
+        return m_sampleRate > 0 ? m_sampleRate : DEFAULT_SAMPLE_RATE;
+    }
+    
+    /**
+     * @return random variant of phrase in given folder or null if there are none
+     */
+    Prompt getRandomVariant( String folderName, Random random )
+    {
+        final Folder folder = m_folders.get( folderName );
+        if ( folder == null || folder.variants.isEmpty() ) return null;
+        
+        return folder.variants.get( random.nextInt( folder.variants.size() ) );
+    }
+    
+    /**
+     * @return prompt with given file name (without extension) or null if 
+     *         there is no such prompt
+     */
+    Prompt getPrompt( String folderName, String name )
+    {
+        final Folder folder = m_folders.get( folderName );
+        
+        return folder != null ? folder.byName.get( name ) : null;
+    }
+    
+    private void watch()
+    {
+        try
+        {
+            updateObservers();
+            
+            while ( true )
+            {
+                synchronized ( m_changeLock )
+                {
+                    while ( m_changedFolders.isEmpty() && !m_isRootChanged )
+                    {
+                        m_changeLock.wait();
+                    }
+                }
+                
+                // Files are usually copied in bulk, wait for the copy to finish
+                Thread.sleep( SETTLE_DELAY );
+                
+                final boolean isRootChanged;
+                final Set<String> changedFolders;
+                synchronized ( m_changeLock )
+                {
+                    isRootChanged = m_isRootChanged;
+                    changedFolders = new HashSet<String>( m_changedFolders );
+                    
+                    m_isRootChanged = false;
+                    m_changedFolders.clear();
+                }
+                
+                if ( isRootChanged )
+                {
+                    // Watch new folders before they are read, so nothing copied in between is missed
+                    updateObservers();
+                    load();
+                }
+                else
+                {
+                    reload( changedFolders );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Log.e( Tag, "Interrupted watching " + m_root, e );
+        }
+    }
+    
+    /**
+     * Decode given folders again, leaving the rest as they are
+     */
+    private void reload( Set<String> folderNames )
+    {
+        final Map<String, Folder> folderMap = new HashMap<String, Folder>( m_folders );
+        for ( String folderName : folderNames )
+        {
+            final File folder = new File( m_root, folderName );
+            if ( isPromptFolder( folder ) )
+            {
+                final Folder reloaded = createFolder( decodeFolder( folder ) );
+                folderMap.put( folderName, reloaded );
+                
+                Log.i( Tag, "Reloaded " + reloaded.variants.size() + " prompts in " + folderName );
+            }
+            else
+            {
+                folderMap.remove( folderName );
+            }
+        }
+        m_folders = folderMap;
+    }
+    
+    /**
+     * Start watching voice root and every folder under it not watched yet, 
+     * stop watching folders that are gone
+     */
+    private void updateObservers()
+    {
+        if ( m_rootObserver == null )
+        {
+            m_rootObserver = new FileObserver( m_root.getAbsolutePath(), ROOT_EVENTS )
+            {
+                @Override
+                public void onEvent( int event, String path )
+                {
+                    if ( path == null || path.startsWith( "." ) ) return;
+                    
+                    synchronized ( m_changeLock )
+                    {
+                        m_isRootChanged = true;
+                        m_changeLock.notify();
+                    }
+                }
+            };
+            m_rootObserver.startWatching();
+        }
+        
+        final Set<String> present = new HashSet<String>();
+        final File[] folders = m_root.listFiles();
+        if ( folders != null )
+        {
+            for ( File folder : folders )
+            {
+                if ( !isPromptFolder( folder ) ) continue;
+                
+                final String folderName = folder.getName();
+                present.add( folderName );
+                
+                if ( m_folderObservers.containsKey( folderName ) ) continue;
+                
+                final FileObserver observer = new FileObserver( folder.getAbsolutePath(), FOLDER_EVENTS )
+                {
+                    @Override
+                    public void onEvent( int event, String path )
+                    {
+                        if ( path != null && !isPromptFile( path ) ) return;
+                        
+                        synchronized ( m_changeLock )
+                        {
+                            m_changedFolders.add( folderName );
+                            m_changeLock.notify();
+                        }
+                    }
+                };
+                observer.startWatching();
+                m_folderObservers.put( folderName, observer );
+            }
+        }
+        
+        final List<String> watched = new ArrayList<String>( m_folderObservers.keySet() );
+        for ( String folderName : watched )
+        {
+            if ( !present.contains( folderName ) ) m_folderObservers.remove( folderName ).stopWatching();
+        }
+    }
+    
+    /**
+     * @return given variants converted to common sample rate
+     */
+    private Folder createFolder( List<Prompt> variants )
+    {
+        for ( int i = 0; i < variants.size(); i++ )
+        {
+            variants.set( i, variants.get( i ).resample( m_sampleRate ) );
+        }
+        
+        return new Folder( variants );
+    }
+    
+    private static boolean isPromptFolder( File folder )
+    {
+        return folder.isDirectory() && !folder.getName().startsWith( "." );
+    }
+    
+    private static boolean isPromptFile( String name )
+    {
+        return !name.startsWith(".") && name.endsWith(".wav");
+    }
+    
+    private static List<Prompt> decodeFolder( File folder )
+    {
+        final File[] files = folder.listFiles( new FileFilter()
+        {
+            public boolean accept(File pathname)
+            {
+                return isPromptFile( pathname.getName() );
+            }
+        });
+        
+        final List<Prompt> result = new ArrayList<Prompt>();
+        if ( files == null ) return result;
+        
+        Arrays.sort( files );
+        for ( File file : files )
+        {
+            try
+            {
+                result.add( Prompt.decode( file ) );
+            }
+            catch ( IOException e )
+            {
+                Log.w( Tag, "Unable to decode " + file + ", it will be played by media player without echo suppression", e );
+                
+                result.add( Prompt.undecoded( file ) );
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return sample rate shared by most decoded prompts
+     */
+    static int getCommonSampleRate( Map<String, List<Prompt>> folders )
+    {
+        final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        
+        int result = DEFAULT_SAMPLE_RATE;
+        int best = 0;
+        for ( List<Prompt> prompts : folders.values() )
+        {
+            for ( Prompt prompt : prompts )
+            {
+                if ( !prompt.isDecoded() ) continue;
+                
+                final Integer count = counts.get( prompt.getSampleRate() );
+                final int newCount = count != null ? count + 1 : 1;
+                counts.put( prompt.getSampleRate(), newCount );
+                
+                if ( newCount > best )
+                {
+                    best = newCount;
+                    result = prompt.getSampleRate();
+                }
+            }
+        }
+        
+        return result;
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.model;
+
+import org.vintagephone.speech_to_text.Histogram;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.util.Log;
+
+/**
+ * This class is used to play decoded prompts through one audio track that 
+ * stays open for the whole lifetime of the application.
+ * <p>
+ * 	Track is opened in streaming mode at the sample rate of the prompt 
+ *  library. Samples are written in small chunks from a thread of its own, 
+ *  so a newer request or {@link #stop()} cuts the current prompt short 
+ *  within a chunk. Sequence given in one request is mixed chunk by chunk 
+ *  as it is written, so playback starts as soon as its first chunk is ready.
+ * </p>
+ */
+final class PromptPlayer
+    implements Runnable
+{
+    private static final String Tag = "PromptPlayer";
+    
+    private static final int CHUNK_MILLIS = 20;
+    private static final long POLL_INTERVAL = 5; // ms
+    private static final long DRAIN_MARGIN = 1000; // ms
+    
+    /**
+     * This interface is used to follow playback of one request. Methods are 
+     * called from player thread.
+     */
+    interface Callback
+    {
+        /**
+         * First samples have been handed over to audio track
+         */
+        void playbackStarted();
+        
+        /**
+         * Last sample has been played or playback has been cut short
+         */
+        void playbackFinished();
+    }
+    
+    private static final class Request
+    {
+        final PromptSequence sequence;
+        final Callback callback;
+        final long requestedAt;
+        final long generation;
+        
+        Request( PromptSequence sequence, Callback callback, long generation )
+        {
+            this.sequence = sequence;
+            this.callback = callback;
+            this.requestedAt = System.nanoTime();
+            this.generation = generation;
+        }
+    }
+    
+    private final int m_sampleRate;
+    private final short[] m_chunk;
+    
+    // Pending request (guarded by m_lock)
+    private final Object m_lock = new Object();
+    private Request m_pending = null;
+    
+    // Incremented by every request and stop, current request is abandoned once it changes
+    private volatile long m_generation = 0;
+    
+    // Only accessed from player thread
+    private AudioTrack m_track;
+    
+    // Statistics
+    final Histogram firstWrite = new Histogram( "prompt request to first write", "ms" );
+    final Histogram firstSample = new Histogram( "prompt request to first sample played", "ms" );
+    
+    PromptPlayer( int sampleRate )
+    {
+        m_sampleRate = sampleRate;
+        m_chunk = new short[ sampleRate * CHUNK_MILLIS / 1000 ];
+    }
+    
+    int getSampleRate()
+    {
+        return m_sampleRate;
+    }
+    
+    /**
+     * Stop whatever is playing and play given sequence
+     */
+    void play( PromptSequence sequence, Callback callback )
+    {
+        synchronized ( m_lock )
+        {
+            m_generation += 1;
+            m_pending = new Request( sequence, callback, m_generation );
+            m_lock.notify();
+        }
+    }
+    
+    void stop()
+    {
+        synchronized ( m_lock )
+        {
+            m_generation += 1;
+            m_pending = null;
+        }
+    }
+    
+    public void run()
+    {
+        final int minBufferSize = AudioTrack.getMinBufferSize( m_sampleRate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT );
+        m_track = new AudioTrack( AudioManager.STREAM_MUSIC, m_sampleRate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT, 
+                                  Math.max( minBufferSize, 4 * 2 * m_chunk.length ), AudioTrack.MODE_STREAM );
+        
+        if ( m_track.getState() != AudioTrack.STATE_INITIALIZED )
+        {
+            Log.e( Tag, "Unable to open audio track at " + m_sampleRate + " Hz" );
+            m_track.release();
+            return;
+        }
+        
+        try
+        {
+            // Track is kept open until the application exits
+            while ( true )
+            {
+                final Request request;
+                synchronized ( m_lock )
+                {
+                    while ( m_pending == null )
+                    {
+                        m_lock.wait();
+                    }
+                    
+                    request = m_pending;
+                    m_pending = null;
+                }
+                
+                render( request );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Log.e( Tag, "Interrupted waiting for next prompt", e );
+        }
+        
+        m_track.release();
+    }
+    
+    private void render( Request request )
+        throws InterruptedException
+    {
+        final int baseline = m_track.getPlaybackHeadPosition();
+        m_track.play();
+        
+        long written = 0;
+        boolean isSounding = false;
+        boolean isAborted = false;
+        
+        int length;
+        while ( (length = request.sequence.read( m_chunk, m_chunk.length )) > 0 )
+        {
+            if ( request.generation != m_generation )
+            {
+                isAborted = true;
+                break;
+            }
+            
+            final int result = m_track.write( m_chunk, 0, length );
+            if ( result < 0 )
+            {
+                Log.e( Tag, "Unable to write to audio track (" + result + ")" );
+                
+                isAborted = true;
+                break;
+            }
+            
+            if ( written == 0 )
+            {
+                firstWrite.record( (System.nanoTime() - request.requestedAt) / 1000000 );
+                request.callback.playbackStarted();
+            }
+            written += length;
+            
+            if ( !isSounding ) isSounding = checkSounding( request, baseline );
+        }
+        
+        // Wait for samples still in track buffer, track that stalled is given up on
+        final long deadline = System.nanoTime() + (1000 * written / m_sampleRate + DRAIN_MARGIN) * 1000000;
+        while ( !isAborted && m_track.getPlaybackHeadPosition() - baseline < written )
+        {
+            if ( request.generation != m_generation || System.nanoTime() > deadline )
+            {
+                isAborted = true;
+                break;
+            }
+            
+            if ( !isSounding ) isSounding = checkSounding( request, baseline );
+            
+            Thread.sleep( POLL_INTERVAL );
+        }
+        
+        m_track.pause();
+        if ( isAborted ) m_track.flush();
+        
+        request.callback.playbackFinished();
+    }
+    
+    private boolean checkSounding( Request request, int baseline )
+    {
+        if ( m_track.getPlaybackHeadPosition() == baseline ) return false;
+        
+        firstSample.record( (System.nanoTime() - request.requestedAt) / 1000000 );
+        return true;
+    }
+}
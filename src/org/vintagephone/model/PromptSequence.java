@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.model;
+
+import java.nio.ShortBuffer;
+
+import org.vintagephone.speech_to_text.PromptEnvelope;
+
+/**
+ * This class is used to join several prompts into one continuous stream of 
+ * samples, for example digits of a phone number.
+ * <p>
+ * 	Silence between prompts is trimmed and every join is crossfaded, so the 
+ *  prompts run into each other without gaps or clicks. Samples are mixed as 
+ *  they are read, nothing is assembled up front: creating a sequence only 
+ *  works out where each prompt starts and ends.
+ * </p>
+ */
+final class PromptSequence
+{
+    private final ShortBuffer[] m_samples;
+    private final int[] m_starts;
+    private final int[] m_ends;
+    private final int[] m_fades;  // overlap of each prompt with the next one
+    
+    private final int m_sampleRate;
+    private final int m_length;
+    private final PromptEnvelope m_envelope;
+    
+    // Read position (only accessed from player thread)
+    private int m_index = 0;
+    private int m_position = 0;
+    
+    /**
+     * @param prompts decoded prompts of the same sample rate
+     * @param crossfade longest number of samples two prompts overlap by
+     */
+    PromptSequence( Prompt[] prompts, int crossfade )
+    {
+        final int count = prompts.length;
+        
+        m_samples = new ShortBuffer[ count ];
+        m_starts = new int[ count ];
+        m_ends = new int[ count ];
+        m_fades = new int[ count ];
+        m_sampleRate = count > 0 ? prompts[ 0 ].getSampleRate() : 0;
+        
+        for ( int i = 0; i < count; i++ )
+        {
+            final Prompt prompt = prompts[ i ];
+            
+            // Keep just enough silence around a join to fade through
+            m_samples[ i ] = prompt.getSamples();
+            m_starts[ i ] = i > 0 ? Math.max( 0, prompt.getVoicedStart() - crossfade ) : 0;
+            m_ends[ i ] = i < count - 1 ? Math.min( prompt.getLength(), prompt.getVoicedEnd() + crossfade ) : prompt.getLength();
+            
+            // Silent prompt
+            if ( m_ends[ i ] < m_starts[ i ] ) m_ends[ i ] = m_starts[ i ];
+        }
+        
+        int length = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( i < count - 1 )
+            {
+                final int fade = Math.min( crossfade, Math.min( m_ends[ i ] - m_starts[ i ], m_ends[ i + 1 ] - m_starts[ i + 1 ] ) / 2 );
+                m_fades[ i ] = Math.max( 0, fade );
+            }
+            
+            length += m_ends[ i ] - m_starts[ i ] - m_fades[ i ];
+        }
+        m_length = length;
+        
+        m_envelope = createEnvelope( prompts );
+    }
+    
+    /**
+     * @return sequence of a single prompt
+     */
+    static PromptSequence of( Prompt prompt )
+    {
+        return new PromptSequence( new Prompt[] { prompt }, 0 );
+    }
+    
+    /**
+     * @return total number of samples in the sequence
+     */
+    int getLength()
+    {
+        return m_length;
+    }
+    
+    long getDurationMillis()
+    {
+        return m_sampleRate > 0 ? 1000L * m_length / m_sampleRate : 0;
+    }
+    
+    /**
+     * @return energy envelope of the whole sequence
+     */
+    PromptEnvelope getEnvelope()
+    {
+        return m_envelope;
+    }
+    
+    /**
+     * Mix next samples of the sequence into given array
+     * 
+     * @return number of samples read, 0 once whole sequence has been read
+     */
+    int read( short[] target, int length )
+    {
+        int count = 0;
+        while ( count < length && m_index < m_samples.length )
+        {
+            final ShortBuffer samples = m_samples[ m_index ];
+            final int start = m_starts[ m_index ];
+            final int fade = m_fades[ m_index ];
+            final int solo = m_ends[ m_index ] - start - fade;
+            
+            if ( m_position < solo )
+            {
+                final int toCopy = Math.min( solo - m_position, length - count );
+                
+                samples.position( start + m_position );
+                samples.get( target, count, toCopy );
+                
+                count += toCopy;
+                m_position += toCopy;
+            }
+            else if ( m_position < solo + fade )
+            {
+                final ShortBuffer next = m_samples[ m_index + 1 ];
+                final int nextStart = m_starts[ m_index + 1 ];
+                
+                while ( m_position < solo + fade && count < length )
+                {
+                    final int step = m_position - solo;
+                    final int outgoing = samples.get( start + m_position );
+                    final int incoming = next.get( nextStart + step );
+                    
+                    target[ count++ ] = (short)((outgoing * (fade - step) + incoming * step) / fade);
+                    m_position += 1;
+                }
+            }
+            else
+            {
+                // Overlapped samples of the next prompt have been played already
+                m_index += 1;
+                m_position = fade;
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Lay envelopes of all prompts out the way their samples are played
+     */
+    private PromptEnvelope createEnvelope( Prompt[] prompts )
+    {
+        if ( prompts.length == 1 ) return prompts[ 0 ].getEnvelope();
+        
+        final int frameSize = Math.max( 1, m_sampleRate * PromptEnvelope.FRAME_MILLIS / 1000 );
+        final float[] energies = new float[ (m_length + frameSize - 1) / frameSize ];
+        
+        int offset = 0;
+        for ( int i = 0; i < prompts.length; i++ )
+        {
+            final PromptEnvelope envelope = prompts[ i ].getEnvelope();
+            if ( envelope != null )
+            {
+                for ( int frame = m_starts[ i ] / frameSize; frame * frameSize < m_ends[ i ]; frame++ )
+                {
+                    final int target = (offset + frame * frameSize - m_starts[ i ]) / frameSize;
+                    if ( target < 0 || target >= energies.length ) continue;
+                    
+                    energies[ target ] = Math.max( energies[ target ], envelope.getMaxEnergy( frame, frame ) );
+                }
+            }
+            
+            offset += m_ends[ i ] - m_starts[ i ] - m_fades[ i ];
+        }
+        
+        return new PromptEnvelope( energies );
+    }
+}
@@ -22,10 +22,16 @@
 package org.vintagephone.model;
 
 import java.io.File;
-import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vintagephone.speech_to_text.PromptEnvelope;
 
 import android.media.AudioManager;
 import android.media.MediaPlayer;
@@ -35,6 +41,21 @@ import android.util.Log;
 /**
  * 
  * This class is used to generate various words that operator might say.
+ * <p>
+ * 	All prompts are decoded into memory by {@link #initialize()} and played 
+ *  through a single audio track that is kept open, so nothing has to be read
+ *  or prepared once operator starts talking. Files that could not be decoded
+ *  are still played by the media player.
+ * </p>
+ * <p>
+ * 	Phone numbers are read back by joining a prompt per digit into a single
+ *  crossfaded stream (see {@link PromptSequence}).
+ * </p>
+ * <p>
+ * 	Prompts the dialogue is likely to need next could be prefetched while
+ *  the user is still talking: variant is picked and the sequence is set up
+ *  right away, so saying it only has to start the audio track.
+ * </p>
  * 
  * @author Basil Shikin
  *
@@ -45,11 +66,73 @@ public class SpeechGenerator
     
     private final static String Tag = "SpeechGenerator";
     
+    private final static long MIN_PLAYBACK_WAIT = 5000; // ms
+    private final static long PLAYBACK_WAIT_MARGIN = 1000; // ms
+    private final static int CROSSFADE_MILLIS = 15;
+    
     private final static Random s_random = new Random();
 
+    private final PromptLibrary m_library = new PromptLibrary( new File( VOICE_ROOT ) );
+    private volatile PromptPlayer m_player = null;
+    
     private volatile CountDownLatch m_playbackLatch = null;
+    
+    // Fallback for prompts that could not be decoded
+    private final Object m_mediaPlayerLock = new Object();
     private volatile MediaPlayer m_activePlayer = null;
     
+    private volatile PlaybackListener m_playbackListener = null;
+    
+    // Prefetched prompts, one per kind (guarded by m_staged)
+    private final Map<String, StagedPrompt> m_staged = new HashMap<String, StagedPrompt>();
+    
+    // Statistics
+    private final AtomicLong m_prefetchHits = new AtomicLong();
+    private final AtomicLong m_prefetchMisses = new AtomicLong();
+    private final AtomicLong m_prefetchUnused = new AtomicLong();
+    
+    /**
+     * Prompt prepared for given key (e.g. number that is going to be read 
+     * back) ahead of time
+     */
+    private static final class StagedPrompt
+    {
+        final String key;
+        final PromptSequence sequence;
+        
+        StagedPrompt( String key, PromptSequence sequence )
+        {
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+    
+    /**
+     * Decode all prompts and open audio track they are played through. 
+     * Nothing can be said until this method is called.
+     */
+    public void initialize()
+    {
+        m_library.load();
+        m_library.startWatching();
+        
+        final PromptPlayer player = new PromptPlayer( m_library.getSampleRate() );
+        final Thread thread = new Thread( player, "prompt-player" );
+        thread.setPriority( Thread.MAX_PRIORITY );
+        thread.start();
+        
+        m_player = player;
+    }
+    
+    /**
+     * Set listener notified when a prompt starts and stops playing, so that
+     * the recognizer can tell prompt echo from the user talking over it.
+     */
+    public void setPlaybackListener( PlaybackListener listener )
+    {
+        m_playbackListener = listener;
+    }
+    
     public void sayHello()
     {
         sayFolder("hello", true );
@@ -57,11 +140,13 @@ public class SpeechGenerator
     
     public void sayCallingName( final String name)
     {
-        final File personFile = new File( VOICE_ROOT + "/calling_person", name.toLowerCase() + ".wav" );
+        if ( sayStaged( "calling_person", name.toLowerCase(), true ) ) return;
+        
+        final Prompt prompt = m_library.getPrompt( "calling_person", name.toLowerCase() );
         
-        if ( personFile.exists() )
+        if ( prompt != null )
         {
-            sayFile( personFile, true  );
+            sayPrompt( prompt, true  );
         }
         else
         {
@@ -69,9 +154,40 @@ public class SpeechGenerator
         }
     }
     
+    /**
+     * Say "dialing" followed by every digit of given number, other characters
+     * are skipped. Only "dialing" is said unless there is a decoded prompt 
+     * for every digit in the digits folder.
+     */
     public void sayDialingNumber( final String number )
     {
-        sayFolder("dialing", true); // TODO SPELL DIGITS
+        if ( sayStaged( "digits", number, true ) ) return;
+        
+        final PromptSequence sequence = prepareDialingNumber( number );
+        if ( sequence != null )
+        {
+            releaseMediaPlayer( m_activePlayer );
+            
+            playSequence( m_player, sequence, true );
+        }
+        else
+        {
+            Log.w(Tag, "Unable to spell " + number + ", digit prompts are missing" );
+            
+            sayFolder("dialing", true);
+        }
+    }
+    
+    /**
+     * Ask user to confirm what operator has just repeated back. Question is 
+     * recorded in "confirm" folder of voice root, which older installs do 
+     * not have.
+     * 
+     * @return true if question was asked, false if there is no prompt for it
+     */
+    public boolean sayIsThatRight()
+    {
+        return sayFolder( "confirm", true );
     }
     
     public void sayCallTerminated()
@@ -81,47 +197,226 @@ public class SpeechGenerator
     
     public void sayCallPlaced()
     {
-        sayFolder( "placed", true );
+        if ( !sayStaged( "placed", "placed", true ) ) sayFolder( "placed", true );
     }
     
     public void saySorry()
     {
-        sayFolder( "sorry", false );
+        if ( !sayStaged( "sorry", "sorry", false ) ) sayFolder( "sorry", false );
+    }
+    
+    /**
+     * Prepare {@link #sayDialingNumber(String)} for given number
+     */
+    public void prefetchDialingNumber( final String number )
+    {
+        stage( "digits", number, prepareDialingNumber( number ) );
+    }
+    
+    /**
+     * Prepare {@link #sayCallingName(String)} for given name
+     */
+    public void prefetchCallingName( final String name )
+    {
+        final String key = name.toLowerCase();
+        
+        stage( "calling_person", key, prepareSingle( m_library.getPrompt( "calling_person", key ) ) );
+    }
+    
+    /**
+     * Prepare {@link #sayCallPlaced()}
+     */
+    public void prefetchCallPlaced()
+    {
+        stage( "placed", "placed", prepareSingle( m_library.getRandomVariant( "placed", s_random ) ) );
+    }
+    
+    /**
+     * Prepare {@link #saySorry()}
+     */
+    public void prefetchSorry()
+    {
+        stage( "sorry", "sorry", prepareSingle( m_library.getRandomVariant( "sorry", s_random ) ) );
     }
     
     public void stopTalking()
     {
         if ( m_playbackLatch != null ) m_playbackLatch.countDown();
-        if ( m_activePlayer != null )
+        
+        final PromptPlayer player = m_player;
+        if ( player != null ) player.stop();
+        
+        releaseMediaPlayer( m_activePlayer );
+        
+        notifyPromptStopped();
+    }
+    
+    /**
+     * @return prompt playback timers, one per line
+     */
+    public String dumpStatistics()
+    {
+        final PromptPlayer player = m_player;
+        if ( player == null ) return "prompt player not initialized";
+        
+        return player.firstWrite + "\n" + 
+               player.firstSample + "\n" +
+               "prompt prefetch: hits=" + m_prefetchHits.get() + " misses=" + m_prefetchMisses.get() + " unused=" + m_prefetchUnused.get();
+    }
+    
+    private void stage( final String kind, final String key, final PromptSequence sequence )
+    {
+        if ( sequence == null ) return;
+        
+        final StagedPrompt previous;
+        synchronized ( m_staged )
+        {
+            previous = m_staged.put( kind, new StagedPrompt( key, sequence ) );
+        }
+        
+        if ( previous != null ) m_prefetchUnused.incrementAndGet();
+    }
+    
+    /**
+     * Say prompt of given kind if it has been prefetched for given key
+     * 
+     * @return true if prefetched prompt was said
+     */
+    private boolean sayStaged( final String kind, final String key, final boolean waitUnilSaid )
+    {
+        final StagedPrompt staged;
+        synchronized ( m_staged )
+        {
+            staged = m_staged.remove( kind );
+        }
+        
+        if ( staged == null || !staged.key.equals( key ) )
+        {
+            if ( staged != null ) m_prefetchUnused.incrementAndGet();
+            m_prefetchMisses.incrementAndGet();
+            
+            return false;
+        }
+        
+        m_prefetchHits.incrementAndGet();
+        
+        releaseMediaPlayer( m_activePlayer );
+        playSequence( m_player, staged.sequence, waitUnilSaid );
+        
+        return true;
+    }
+    
+    /**
+     * @return sequence reading given number back or null if it could not be
+     *         played through the prompt player
+     */
+    private PromptSequence prepareDialingNumber( final String number )
+    {
+        final PromptPlayer player = m_player;
+        final Prompt dialing = m_library.getRandomVariant( "dialing", s_random );
+        
+        final List<Prompt> prompts = new ArrayList<Prompt>( number.length() + 1 );
+        if ( dialing != null ) prompts.add( dialing );
+        
+        boolean isComplete = player != null;
+        for ( int i = 0; i < number.length() && isComplete; i++ )
+        {
+            final char digit = number.charAt( i );
+            if ( !Character.isDigit( digit ) ) continue;
+            
+            final Prompt prompt = m_library.getPrompt( "digits", String.valueOf( digit ) );
+            if ( prompt != null ) prompts.add( prompt );
+            
+            isComplete = prompt != null;
+        }
+        
+        for ( Prompt prompt : prompts )
+        {
+            isComplete &= prompt.isDecoded();
+        }
+        
+        if ( !isComplete || prompts.isEmpty() ) return null;
+        
+        final int crossfade = player.getSampleRate() * CROSSFADE_MILLIS / 1000;
+        return new PromptSequence( prompts.toArray( new Prompt[ prompts.size() ] ), crossfade );
+    }
+    
+    /**
+     * @return sequence of given prompt or null if it could not be played 
+     *         through the prompt player
+     */
+    private PromptSequence prepareSingle( final Prompt prompt )
+    {
+        if ( m_player == null || prompt == null || !prompt.isDecoded() ) return null;
+        
+        return PromptSequence.of( prompt );
+    }
+    
+    /**
+     * @return false if there are no prompts in given folder
+     */
+    private boolean sayFolder( final String folderName, final boolean waitUnilSaid)
+    {
+        final Prompt prompt = m_library.getRandomVariant( folderName, s_random );
+        if ( prompt != null )
+        {
+            sayPrompt( prompt, waitUnilSaid );
+            return true;
+        }
+        else
+        {
+            Log.e(Tag, "No prompts for " + folderName );
+            return false;
+        }
+    }
+    
+    private void sayPrompt( final Prompt prompt, final boolean waitUnilSaid )
+    {
+        final PromptPlayer player = m_player;
+        
+        releaseMediaPlayer( m_activePlayer );
+        if ( player != null ) player.stop();
+        
+        if ( player != null && prompt.isDecoded() )
         {
-            m_activePlayer.pause();
-            m_activePlayer.stop();
+            playSequence( player, PromptSequence.of( prompt ), waitUnilSaid );
+        }
+        else
+        {
+            sayFile( prompt.getFile(), waitUnilSaid );
         }
     }
     
-    private void sayFolder( final String folderName, final boolean waitUnilSaid)
+    private void playSequence( final PromptPlayer player, final PromptSequence sequence, final boolean waitUnilSaid )
     {
-        final File folder = new File( VOICE_ROOT, folderName );
-        if ( folder.isDirectory() )
+        final CountDownLatch playbackLatch = new CountDownLatch( 1 );
+        m_playbackLatch = playbackLatch;
+        
+        player.play( sequence, new PromptPlayer.Callback()
         {
-            final File[] files = folder.listFiles( new FileFilter()
+            public void playbackStarted()
             {
-                public boolean accept(File pathname)
-                {
-                    final String name = pathname.getName();
-                    return !name.startsWith(".") && name.endsWith(".wav");
-                }
-            });
+                final PlaybackListener listener = m_playbackListener;
+                final PromptEnvelope envelope = sequence.getEnvelope();
+                if ( listener != null && envelope != null ) listener.promptStarted( envelope );
+            }
             
-            if ( files != null && files.length > 0 )
+            public void playbackFinished()
             {
-                final File file = files [ s_random.nextInt( files.length ) ];
-                
-                sayFile( file, waitUnilSaid );
+                playbackLatch.countDown();
+                notifyPromptStopped();
             }
-            else
+        } );
+        
+        if ( waitUnilSaid )
+        {
+            try
+            {
+                playbackLatch.await( Math.max( MIN_PLAYBACK_WAIT, sequence.getDurationMillis() + PLAYBACK_WAIT_MARGIN ), TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException e )
             {
-                Log.e(Tag, "No folder for " + folderName + " is empty");
+                Log.e(Tag, "Interrupted waiting for prompt to be said", e );
             }
         }
     }
@@ -134,21 +429,26 @@ public class SpeechGenerator
             mediaPlayer.setDataSource( file.getAbsolutePath() );
             mediaPlayer.setAudioStreamType( AudioManager.STREAM_MUSIC );            
             mediaPlayer.prepare();
-            mediaPlayer.start();
             
+            final CountDownLatch playbackLatch = new CountDownLatch( 1 );
+            mediaPlayer.setOnCompletionListener( new OnCompletionListener()
+            {
+                public void onCompletion(MediaPlayer mp)
+                {
+                    playbackLatch.countDown();
+                    releaseMediaPlayer( mp );
+                    notifyPromptStopped();
+                }
+            } );
+            m_playbackLatch = playbackLatch;
+            
+            // File could not be decoded, so it has no envelope to suppress echo with
             m_activePlayer = mediaPlayer;
+            mediaPlayer.start();
             
             if ( waitUnilSaid )
             {
-                m_playbackLatch = new CountDownLatch( 1 );
-                mediaPlayer.setOnCompletionListener( new OnCompletionListener()
-                {
-                    public void onCompletion(MediaPlayer mp)
-                    {
-                        m_playbackLatch.countDown();
-                    }
-                } );  
-                m_playbackLatch.await( 5, TimeUnit.SECONDS );
+                playbackLatch.await( MIN_PLAYBACK_WAIT, TimeUnit.MILLISECONDS );
             }
         }
         catch ( Exception e )
@@ -156,4 +456,37 @@ public class SpeechGenerator
             Log.e(Tag, "Unable to play " + file, e );
         }
     }
+    
+    /**
+     * Stop and release given media player unless it has been released already
+     */
+    private void releaseMediaPlayer( final MediaPlayer mediaPlayer )
+    {
+        if ( mediaPlayer == null ) return;
+        
+        synchronized ( m_mediaPlayerLock )
+        {
+            if ( m_activePlayer != mediaPlayer ) return;
+            
+            m_activePlayer = null;
+        }
+        
+        mediaPlayer.release();
+    }
+    
+    private void notifyPromptStopped()
+    {
+        final PlaybackListener listener = m_playbackListener;
+        if ( listener != null ) listener.promptStopped();
+    }
+    
+    /**
+     * This interface is used to follow prompt playback
+     */
+    public interface PlaybackListener
+    {
+        void promptStarted( PromptEnvelope envelope );
+        
+        void promptStopped();
+    }
 }
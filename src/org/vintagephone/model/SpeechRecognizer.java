@@ -21,11 +21,16 @@
  */
 package org.vintagephone.model;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.vintagephone.speech_to_text.Histogram;
+import org.vintagephone.speech_to_text.PromptEnvelope;
+import org.vintagephone.speech_to_text.RecognitionAlternative;
+import org.vintagephone.speech_to_text.RecognitionMode;
 import org.vintagephone.speech_to_text.SpeechToTextListener;
 import org.vintagephone.speech_to_text.SpeechToTextProvider;
 import org.vintagephone.speech_to_text.impl.sphinx.SphinxSpeechToTextProvider;
@@ -41,16 +46,28 @@ import android.util.Log;
  */
 public class SpeechRecognizer
 {
-    private static final Pattern CALL_PATTERN = Pattern.compile("^(call [a-zA-Z]+)");
-    private static final Pattern DIAL_PATTERN = Pattern.compile("^(dial (((one)|(two)|(three)|(four)|(five)|(six)|(seven)|(eight)|(nine)|(zero)|(plus))\\s?)+)");
-    
     private static final String Tag = "SpeechRecognizer";
     
     private final SpeechToTextProvider m_speechToTextProvider;
     private final TextListener m_textListener;
     
     private volatile CountDownLatch m_recognitionLatch;
+    private volatile long m_waitStartedAt;
+    private volatile RecognitionMode m_mode = RecognitionMode.DIAL_TARGET;
+    
+    private volatile BargeInListener m_bargeInListener;
+    private volatile DialTargetListener m_dialTargetListener;
     
+    // Statistics
+    private final Histogram m_dialTargetWait = new Histogram( "dial target wait", "ms" );
+    private final Histogram m_answerWait = new Histogram( "answer wait", "ms" );
+    private final AtomicLong m_dialNumbers = new AtomicLong();
+    private final AtomicLong m_dialPersons = new AtomicLong();
+    private final AtomicLong m_alternatives = new AtomicLong();
+    private final AtomicLong m_stops = new AtomicLong();
+    private final AtomicLong m_noAnswers = new AtomicLong();
+    private final AtomicLong m_unrecognized = new AtomicLong();
+    private final AtomicLong m_timeouts = new AtomicLong();
     
 
     public SpeechRecognizer()
@@ -59,14 +76,80 @@ public class SpeechRecognizer
         m_textListener = new TextListener();
     }
 
+    /**
+     * Set names of people that could be called. Could be called again 
+     * whenever phonebook changes.
+     */
+    public void setPhonebookNames( Collection<String> names )
+    {
+        m_speechToTextProvider.setVocabulary( names );
+        m_textListener.setPhonebookNames( names );
+    }
+    
     /**
      * Start speech stack and attach listeners
      */
     public void initialize()
     {
         m_speechToTextProvider.setListener( m_textListener );
+        m_speechToTextProvider.setKeywordSpottingEnabled( true );
         m_speechToTextProvider.initialize();        
     }
+    
+    /**
+     * Set lowest acoustic score per 10 ms frame accepted for given keyword 
+     * ("stop", "yes" or "no"), see {@link SpeechToTextProvider#setKeywordThreshold(String, int)}
+     */
+    public void setKeywordThreshold( String keyword, int threshold )
+    {
+        m_speechToTextProvider.setKeywordThreshold( keyword, threshold );
+    }
+    
+    /**
+     * Set listener notified when user starts talking while listening or says
+     * a keyword that matters right now: "stop" at any time, "yes" or "no" 
+     * while confirmation is expected.
+     */
+    public void setBargeInListener( BargeInListener listener )
+    {
+        m_bargeInListener = listener;
+    }
+    
+    /**
+     * Set listener notified whenever number or name heard so far changes 
+     * while dial target is being recognized, before the utterance is over
+     */
+    void setDialTargetListener( DialTargetListener listener )
+    {
+        m_dialTargetListener = listener;
+    }
+    
+    /**
+     * Prompt has started playing, its echo should not be taken for the user
+     */
+    public void promptStarted( PromptEnvelope envelope )
+    {
+        m_speechToTextProvider.promptStarted( envelope );
+    }
+    
+    public void promptStopped()
+    {
+        m_speechToTextProvider.promptStopped();
+    }
+
+    /**
+     * Keep microphone open until {@link #stopCapture()} is called, so that 
+     * each prompt starts listening right away.
+     */
+    public void startCapture()
+    {
+        m_speechToTextProvider.startCapture();
+    }
+    
+    public void stopCapture()
+    {
+        m_speechToTextProvider.stopCapture();
+    }
 
     public void stopListening( boolean recognize )
     {
@@ -77,36 +160,50 @@ public class SpeechRecognizer
     {
         Log.d(Tag, "Waiting for dial target...");
                
-        // Wait to recognize target
-        m_recognitionLatch.await( 3, TimeUnit.SECONDS );
+        // Wait to recognize target (released early once user stops talking)
+        awaitRecognition( 3, m_dialTargetWait );
         
         stopListening( true );
         
-        if ( m_textListener.m_stopSaid ) return null;
+        if ( m_textListener.m_stopSaid ) 
+        {
+            m_stops.incrementAndGet();
+            return null;
+        }
         
-        if ( m_textListener.m_dialNumber != null )
+        final DialTargetResult result = m_textListener.getDialTarget();
+        if ( result instanceof DialNumberResult )
         {
-            Log.d(Tag, "Recognized dial number: " + m_textListener.m_dialNumber );
-            
-            return new DialNumberResult( m_textListener.m_dialNumber );
+            Log.d(Tag, "Recognized dial number: " + ((DialNumberResult)result).number + " (confidence " + result.confidence + ")" );
+            m_dialNumbers.incrementAndGet();
         }
-        else if ( m_textListener.m_dialPerson != null )
+        else if ( result instanceof DialPersonResult )
         {
-            Log.d(Tag, "Recognized dial person: " + m_textListener.m_dialPerson );
-            
-            return new DialPersonResult( m_textListener.m_dialPerson );
+            Log.d(Tag, "Recognized dial person: " + ((DialPersonResult)result).name + " (confidence " + result.confidence + ")" );
+            m_dialPersons.incrementAndGet();
+        }
+        else
+        {
+            Log.d(Tag, "Dial target not recognized" );
+            m_unrecognized.incrementAndGet();
         }
         
-        Log.d(Tag, "Dial target not recognized" );
+        if ( result != null && result.isAlternative ) m_alternatives.incrementAndGet();
         
-        return null;
+        return result;
     }
     
-    public void startWaiting()
+    /**
+     * Start listening for a sentence of given kind
+     */
+    public void startWaiting( RecognitionMode mode )
     {        
         m_recognitionLatch = new CountDownLatch( 1 );
         m_textListener.reset();
+        m_waitStartedAt = System.nanoTime();
+        m_mode = mode;
         
+        m_speechToTextProvider.setMode( mode );
         m_speechToTextProvider.startListening();
     }
     
@@ -114,33 +211,118 @@ public class SpeechRecognizer
     {
         Log.d(Tag, "Waiting for \"no\".");
         
-        m_recognitionLatch.await( duration, TimeUnit.SECONDS );
+        // Released early once user stops talking
+        awaitRecognition( duration, m_answerWait );
         stopListening( true );
         
+        if ( m_textListener.m_stopSaid ) m_stops.incrementAndGet();
+        if ( m_textListener.m_noSaid ) m_noAnswers.incrementAndGet();
+        
         return !m_textListener.m_noSaid && !m_textListener.m_stopSaid;        
     }
     
-    public boolean waitForYes(int duration) throws InterruptedException
+    /**
+     * Wait for an explicit "yes", answer started with {@link #startWaiting(RecognitionMode)}
+     * could be said while the question is still being asked.
+     */
+    public boolean waitForYes(long duration) throws InterruptedException
     {
         Log.d(Tag, "Waiting for \"yes\".");
         
-        m_recognitionLatch = new CountDownLatch( 1 );
-        m_textListener.reset();
+        // Released early once user stops talking
+        awaitRecognition( duration, m_answerWait );
+        stopListening( true );
+        
+        if ( m_textListener.m_stopSaid ) m_stops.incrementAndGet();
         
-        m_recognitionLatch.await( duration, TimeUnit.SECONDS );
+        return m_textListener.m_yesSaid && !m_textListener.m_stopSaid;    
+    }
+    
+    /**
+     * @return recognition timers and counters of this class and of speech to
+     *         text provider, one per line
+     */
+    public String dumpStatistics()
+    {
+        final StringBuilder result = new StringBuilder();
+        
+        result.append( "dial targets: numbers=" ).append( m_dialNumbers.get() )
+              .append( " persons=" ).append( m_dialPersons.get() )
+              .append( " from alternatives=" ).append( m_alternatives.get() )
+              .append( " unrecognized=" ).append( m_unrecognized.get() )
+              .append( " stops=" ).append( m_stops.get() )
+              .append( " no answers=" ).append( m_noAnswers.get() )
+              .append( " timeouts=" ).append( m_timeouts.get() ).append( '\n' );
+        result.append( m_dialTargetWait ).append( '\n' );
+        result.append( m_answerWait ).append( '\n' );
+        result.append( m_speechToTextProvider.dumpStatistics() );
+        
+        return result.toString();
+    }
+    
+    /**
+     * Wait for current utterance and record how long it took since listening
+     * has started. Hitting the timeout is counted separately, because it means
+     * the timeout rather than the user ended the utterance.
+     */
+    private void awaitRecognition( long seconds, Histogram histogram ) 
+        throws InterruptedException
+    {
+        final boolean isReleased = m_recognitionLatch.await( seconds, TimeUnit.SECONDS );
+        
+        histogram.record( (System.nanoTime() - m_waitStartedAt) / 1000000 );
+        if ( !isReleased ) m_timeouts.incrementAndGet();
+    }
+    
+    /**
+     * This interface is used to react on the user talking as soon as it 
+     * happens (e.g. to interrupt a prompt)
+     */
+    public interface BargeInListener
+    {
+        void speechStarted();
         
-        return m_textListener.m_yesSaid;    
+        void keywordSpotted( String keyword );
     }
     
-    static class DialTargetResult { }
+    /**
+     * This interface is used to learn the likely dial target before 
+     * recognition is over (e.g. to prepare what operator says next)
+     */
+    interface DialTargetListener
+    {
+        void dialTargetHeard( DialTargetResult target );
+    }
+    
+    static class DialTargetResult 
+    { 
+        /**
+         * Posterior probability of the sentence this target was taken from
+         */
+        public final float confidence;
+        
+        /**
+         * True if the target was not taken from the best hypothesis, but 
+         * from one of the alternatives
+         */
+        public final boolean isAlternative;
+        
+        DialTargetResult(float confidence, boolean isAlternative)
+        {
+            this.confidence = confidence;
+            this.isAlternative = isAlternative;
+        }
+    }
     
     static class DialNumberResult
         extends DialTargetResult
     {
         public final String number;
 
-        public DialNumberResult(String number)
+        public DialNumberResult(String number, float confidence, boolean isAlternative)
         {
+            super( confidence, isAlternative );
+            
             this.number = number;
         }
     }
@@ -150,8 +332,10 @@ public class SpeechRecognizer
     {
         public final String name;
 
-        public DialPersonResult(String name)
+        public DialPersonResult(String name, float confidence, boolean isAlternative)
         {
+            super( confidence, isAlternative );
+            
             this.name = name;
         }
     }
@@ -162,17 +346,33 @@ public class SpeechRecognizer
     {
         private static final String Tag = "TextListener";
         
-        String m_dialNumber;
-        String m_dialPerson;
+        private final IntentParser m_parser = new IntentParser();
+        private final IntentParser m_alternativeParser = new IntentParser();
+        
+        // Confidence is not known until final result
+        private float m_confidence = 1;
+        private DialTargetResult m_alternativeTarget;
         
-        boolean m_stopSaid;
-        boolean m_yesSaid;
-        boolean m_noSaid;
+        // Number or name last reported as heard
+        private String m_heardTarget;
+        
+        // Written from keyword spotter thread as well, read by waiting thread
+        volatile boolean m_stopSaid;
+        volatile boolean m_yesSaid;
+        volatile boolean m_noSaid;
     
-        void reset()
+        void setPhonebookNames( Collection<String> names )
+        {
+            m_parser.setNames( names );
+            m_alternativeParser.setNames( names );
+        }
+        
+        synchronized void reset()
         {
-            m_dialNumber = null; 
-            m_dialPerson = null; 
+            m_parser.reset();
+            m_confidence = 1;
+            m_alternativeTarget = null;
+            m_heardTarget = null;
             m_yesSaid = false; 
             m_noSaid = false; 
             m_stopSaid = false;             
@@ -180,74 +380,190 @@ public class SpeechRecognizer
         
         public void partRecognized(String text)
         {
-            processText( text.toLowerCase()  );
+            processText( text, false );
         }
     
         public void fullyRecognized(String text)
         {
-            processText( text.toLowerCase() );            
+            processText( text, true );
+            
+            // Utterance is over, no need to wait any longer
+            if ( m_recognitionLatch != null ) m_recognitionLatch.countDown();
         }
     
         public void errorOccured(String error)
         {
             Log.e( Tag, "Error: " + error );
+            
+            if ( m_recognitionLatch != null ) m_recognitionLatch.countDown();
+        }
+        
+        /**
+         * @return number or person user asked for, taken from best hypothesis
+         *         or, if it is not a dial target, from the most likely 
+         *         alternative that is. Null if nothing was recognized.
+         */
+        synchronized DialTargetResult getDialTarget()
+        {
+            final String number = m_parser.getNumber();
+            if ( number != null ) return new DialNumberResult( number, m_confidence, false );
+            
+            final String person = m_parser.getPerson();
+            if ( person != null ) return new DialPersonResult( person, m_confidence, false );
+            
+            return m_alternativeTarget;
+        }
+        
+        /**
+         * Remember the first alternative that is a dial target. Names are 
+         * only accepted if they are in the phonebook, so a near miss of the
+         * best hypothesis could still be dialed.
+         */
+        public synchronized void alternativesRecognized(List<RecognitionAlternative> alternatives)
+        {
+            if ( alternatives.isEmpty() ) return;
+            
+            m_confidence = alternatives.get( 0 ).getConfidence();
+            m_alternativeTarget = null;
+            
+            for ( int i = 1; i < alternatives.size() && m_alternativeTarget == null; i++ )
+            {
+                final RecognitionAlternative alternative = alternatives.get( i );
+                
+                m_alternativeParser.reset();
+                m_alternativeParser.parse( alternative.getText() );
+                
+                final String number = m_alternativeParser.getNumber();
+                final String person = m_alternativeParser.getPerson();
+                if ( number != null )
+                {
+                    m_alternativeTarget = new DialNumberResult( number, alternative.getConfidence(), true );
+                }
+                else if ( person != null )
+                {
+                    m_alternativeTarget = new DialPersonResult( person, alternative.getConfidence(), true );
+                }
+            }
+            
+            Log.d( Tag, "Alternatives: " + alternatives );
         }
         
-        private void processText( String text )
+        /**
+         * Keywords are spotted before the utterance is over, so waits end 
+         * right away. Only "stop" matters outside of confirmations.
+         */
+        public void keywordSpotted(String keyword)
         {
-            Log.d( Tag, "Processing recognized text \"" + text + "\"...");
+            final boolean isConfirmation = m_mode == RecognitionMode.CONFIRMATION;
+            
+            if ( "stop".equals( keyword ) )
+            {
+                m_stopSaid = true;
+            }
+            else if ( isConfirmation && "yes".equals( keyword ) )
+            {
+                m_yesSaid = true;
+            }
+            else if ( isConfirmation && "no".equals( keyword ) )
+            {
+                m_noSaid = true;
+            }
+            else
+            {
+                return;
+            }
+            
+            Log.i( Tag, "Keyword \"" + keyword + "\" spotted");
             
+            if ( m_recognitionLatch != null ) m_recognitionLatch.countDown();
+            
+            final BargeInListener listener = m_bargeInListener;
+            if ( listener != null ) listener.keywordSpotted( keyword );
+        }
+        
+        public void speechStarted()
+        {
+            final BargeInListener listener = m_bargeInListener;
+            if ( listener != null ) listener.speechStarted();
+        }
+        
+        /**
+         * Process recognized text. Partial call or dial requests do not end the
+         * wait because the rest of the name or number could still follow, final 
+         * result is delivered as soon as user stops talking.
+         */
+        private synchronized void processText( String text, boolean isFinal )
+        {
             if ( m_recognitionLatch != null )
             {
-                boolean isRecognized = false;
+                m_parser.parse( text );
+                
+                final IntentParser.Intent intent = m_parser.getIntent();
                 
-                Matcher matcher = CALL_PATTERN.matcher( text );
-                if ( matcher.matches() )
+                boolean isRecognized = false;
+                if ( isFinal && intent == IntentParser.Intent.CALL )
                 {
-                    m_dialPerson = text.substring( 5 );
-                    
-                    Log.i( Tag, "Text recognized as a call to \"" + m_dialPerson + "\"");
+                    Log.i( Tag, "Text recognized as a call to \"" + m_parser.getPerson() + "\"");
                     
                     isRecognized = true;
                 }
                 
-                matcher = DIAL_PATTERN.matcher( text );
-                if ( matcher.matches() )
+                if ( isFinal && intent == IntentParser.Intent.DIAL )
                 {
-                    m_dialNumber = text.substring( 5 );
-                    
-                    Log.i( Tag, "Text recognized as a dial of to \"" + m_dialNumber + "\"");
+                    Log.i( Tag, "Text recognized as a dial of \"" + m_parser.getNumber() + "\"");
                     
                     isRecognized = true;
                 }
                 
-                if ( text.contains("stop") )
+                if ( m_parser.isStopSaid() )
                 {
                     m_stopSaid = true;
                     
                     isRecognized = true;
                 }
                 
-                if ( "yes".equals( text ) )
+                if ( intent == IntentParser.Intent.YES )
                 {
-                    m_yesSaid = false;
+                    m_yesSaid = true;
                     
                     isRecognized = true;
                 }
                 
-                if ( text.contains("no") )
+                if ( m_parser.isNoSaid() )
                 {
                     m_noSaid = true;
                     
                     isRecognized = true;
                 }
                 
+                if ( m_mode == RecognitionMode.DIAL_TARGET ) reportHeardTarget();
+                
                 if ( isRecognized )
                 {
                     m_recognitionLatch.countDown();
                 }
             }
         }
+        
+        private void reportHeardTarget()
+        {
+            final DialTargetListener listener = m_dialTargetListener;
+            if ( listener == null ) return;
+            
+            final String number = m_parser.getNumber();
+            final String person = m_parser.getPerson();
+            
+            DialTargetResult target = null;
+            if ( number != null && number.length() > 0 ) target = new DialNumberResult( number, m_confidence, false );
+            else if ( person != null ) target = new DialPersonResult( person, m_confidence, false );
+            
+            final String heard = number != null ? number : person;
+            if ( target != null && !heard.equals( m_heardTarget ) )
+            {
+                m_heardTarget = heard;
+                listener.dialTargetHeard( target );
+            }
+        }
     }
 
 
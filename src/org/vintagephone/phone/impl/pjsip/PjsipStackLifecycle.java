@@ -32,6 +32,8 @@ import org.pjsip.pjsua.pjsua_config;
 import org.pjsip.pjsua.pjsua_logging_config;
 import org.pjsip.pjsua.pjsua_media_config;
 import org.pjsip.pjsua.pjsua_transport_config;
+import org.vintagephone.trace.Trace;
+import org.vintagephone.trace.TraceSubsystem;
 
 import android.util.Log;
 
@@ -52,6 +54,23 @@ class PjsipStackLifecycle
 
     private final PjsipManager m_manager;
     
+    // Kept to reconfigure logging, native init fills in the log callback
+    private pjsua_logging_config m_logConfig;
+    
+    private final Trace.LevelListener m_levelListener = new Trace.LevelListener()
+    {
+        public void levelChanged(TraceSubsystem subsystem, int level)
+        {
+            if ( subsystem == TraceSubsystem.PHONE && m_logConfig != null )
+            {
+                configureLogging( m_logConfig, level );
+                pjsua.reconfigure_logging( m_logConfig );
+                
+                Log.i( TAG, "PJSIP logging reconfigured for level " + level );
+            }
+        }
+    };
+    
     PjsipStackLifecycle(PjsipManager manager)
     {
         m_manager = manager;
@@ -86,9 +105,7 @@ class PjsipStackLifecycle
 
         pjsua_logging_config logCfg = new pjsua_logging_config();
         pjsua.logging_config_default(logCfg);
-        logCfg.setConsole_level( 3 );
-        logCfg.setLevel( 3 );
-        logCfg.setMsg_logging(pjsuaConstants.PJ_TRUE);
+        configureLogging( logCfg, Trace.getLevel( TraceSubsystem.PHONE ) );
 
         pjsua_media_config mediaCfg = new pjsua_media_config();
         pjsua.media_config_default(mediaCfg);
@@ -114,6 +131,9 @@ class PjsipStackLifecycle
         if (status == pjsuaConstants.PJ_SUCCESS) 
         {
             Log.i(TAG, "PJUSA initlaized." );
+            
+            m_logConfig = logCfg;
+            Trace.addLevelListener( m_levelListener );
         
             //
             // Add transports
@@ -209,6 +229,9 @@ class PjsipStackLifecycle
     {
         Log.i( TAG, "Stopping PJSIP stack");
         
+        Trace.removeLevelListener( m_levelListener );
+        m_logConfig = null;
+        
         pjsua.csipsimple_destroy();
         
         return true;
@@ -238,6 +261,24 @@ class PjsipStackLifecycle
     }
     
     
+    /**
+     * Map Android log level to PJSIP log level. SIP messages are only logged
+     * at debug level and below, formatting them is expensive during a call.
+     */
+    private static void configureLogging(pjsua_logging_config logCfg, int level)
+    {
+        final int pjsipLevel;
+        if ( level <= Log.VERBOSE ) pjsipLevel = 5;
+        else if ( level <= Log.DEBUG ) pjsipLevel = 4;
+        else if ( level <= Log.INFO ) pjsipLevel = 3;
+        else if ( level <= Log.WARN ) pjsipLevel = 2;
+        else pjsipLevel = 1;
+        
+        logCfg.setConsole_level( pjsipLevel );
+        logCfg.setLevel( pjsipLevel );
+        logCfg.setMsg_logging( level <= Log.DEBUG ? pjsuaConstants.PJ_TRUE : pjsuaConstants.PJ_FALSE );
+    }
+    
     private static short getCodecPriority(String codec, short defaultPriority)
     {
         if ( codec == null || codec.length() < 1 ) return 0;
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is used to collect distribution of a measured value (usually a
+ * latency) without locking, so it could be updated from audio and recognizer 
+ * threads and read from any other thread.
+ * <p>
+ * 	Values are counted in power of two buckets: bucket <i>n</i> holds values 
+ *  from 2<sup>n-1</sup> to 2<sup>n</sup>-1, so percentiles are only accurate 
+ *  to a factor of two. That is enough to see where time goes.
+ * </p>
+ */
+public final class Histogram
+{
+    private static final int BUCKET_COUNT = 40;
+    
+    private final String m_name;
+    private final String m_unit;
+    
+    private final AtomicLongArray m_buckets = new AtomicLongArray( BUCKET_COUNT );
+    private final AtomicLong m_count = new AtomicLong();
+    private final AtomicLong m_sum = new AtomicLong();
+    private final AtomicLong m_max = new AtomicLong();
+    
+    public Histogram( String name, String unit )
+    {
+        m_name = name;
+        m_unit = unit;
+    }
+    
+    public String getName()
+    {
+        return m_name;
+    }
+    
+    public void record( long value )
+    {
+        if ( value < 0 ) value = 0;
+        
+        m_buckets.incrementAndGet( bucketOf( value ) );
+        m_count.incrementAndGet();
+        m_sum.addAndGet( value );
+        
+        long max = m_max.get();
+        while ( value > max && !m_max.compareAndSet( max, value ) )
+        {
+            max = m_max.get();
+        }
+    }
+    
+    public long getCount()
+    {
+        return m_count.get();
+    }
+    
+    public long getMean()
+    {
+        final long count = m_count.get();
+        
+        return count > 0 ? m_sum.get() / count : 0;
+    }
+    
+    public long getMax()
+    {
+        return m_max.get();
+    }
+    
+    /**
+     * @return upper bound of values below given percentile (0..100)
+     */
+    public long getPercentile( double percentile )
+    {
+        final long count = m_count.get();
+        if ( count == 0 ) return 0;
+        
+        final long target = (long)Math.ceil( count * percentile / 100.0 );
+        
+        long seen = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            seen += m_buckets.get( i );
+            if ( seen >= target ) return Math.min( (1L << i) - 1, m_max.get() );
+        }
+        
+        return m_max.get();
+    }
+    
+    public void reset()
+    {
+        for ( int i = 0; i < BUCKET_COUNT; i++ ) m_buckets.set( i, 0 );
+        
+        m_count.set( 0 );
+        m_sum.set( 0 );
+        m_max.set( 0 );
+    }
+    
+    /**
+     * @return one line summary: count, mean, 50th, 90th and 99th percentile and maximum
+     */
+    public String toString()
+    {
+        return m_name + ": n=" + getCount() + " mean=" + getMean() + m_unit 
+               + " p50<=" + getPercentile( 50 ) + m_unit 
+               + " p90<=" + getPercentile( 90 ) + m_unit 
+               + " p99<=" + getPercentile( 99 ) + m_unit 
+               + " max=" + getMax() + m_unit;
+    }
+    
+    private static int bucketOf( long value )
+    {
+        return Math.min( 64 - Long.numberOfLeadingZeros( value ), BUCKET_COUNT - 1 );
+    }
+}
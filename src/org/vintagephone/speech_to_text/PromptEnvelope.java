@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text;
+
+/**
+ * This class describes loudness of a prompt played to the user: mean square
+ * of samples in every 10 ms frame. Recognizer uses it to tell echo of the 
+ * prompt picked up by microphone from the user talking over it.
+ */
+public final class PromptEnvelope
+{
+    public static final int FRAME_MILLIS = 10;
+    
+    private final float[] m_energies;
+    
+    public PromptEnvelope( float[] energies )
+    {
+        m_energies = energies;
+    }
+    
+    /**
+     * Compute envelope of interleaved 16-bit samples, channels are mixed down
+     */
+    public static PromptEnvelope fromSamples( short[] samples, int length, int sampleRate, int channels )
+    {
+        final int frameSize = Math.max( 1, sampleRate * FRAME_MILLIS / 1000 ) * channels;
+        final float[] energies = new float[ (length + frameSize - 1) / frameSize ];
+        
+        for ( int frame = 0; frame < energies.length; frame++ )
+        {
+            final int start = frame * frameSize;
+            final int end = Math.min( length, start + frameSize );
+            
+            double sum = 0;
+            for ( int i = start; i < end; i += channels )
+            {
+                int mixed = 0;
+                for ( int channel = 0; channel < channels && i + channel < end; channel++ )
+                {
+                    mixed += samples[ i + channel ];
+                }
+                mixed /= channels;
+                
+                sum += (double)mixed * mixed;
+            }
+            
+            energies[ frame ] = (float)(sum / ((end - start + channels - 1) / channels));
+        }
+        
+        return new PromptEnvelope( energies );
+    }
+    
+    public int getFrameCount()
+    {
+        return m_energies.length;
+    }
+    
+    public long getDurationMillis()
+    {
+        return m_energies.length * FRAME_MILLIS;
+    }
+    
+    /**
+     * @return highest energy of frames from first to last (inclusive), 0 
+     *         outside of the prompt
+     */
+    public float getMaxEnergy( int firstFrame, int lastFrame )
+    {
+        float result = 0;
+        
+        for ( int i = Math.max( 0, firstFrame ); i <= lastFrame && i < m_energies.length; i++ )
+        {
+            if ( m_energies[ i ] > result ) result = m_energies[ i ];
+        }
+        
+        return result;
+    }
+}
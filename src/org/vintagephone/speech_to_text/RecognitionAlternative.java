@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text;
+
+/**
+ * This class describes one of the sentences the user could have said, along
+ * with how sure recognizer is about it.
+ */
+public final class RecognitionAlternative
+{
+    private final String m_text;
+    private final float m_confidence;
+    
+    public RecognitionAlternative( String text, float confidence )
+    {
+        m_text = text;
+        m_confidence = confidence;
+    }
+    
+    public String getText()
+    {
+        return m_text;
+    }
+    
+    /**
+     * @return posterior probability of this sentence, from 0 to 1
+     */
+    public float getConfidence()
+    {
+        return m_confidence;
+    }
+    
+    public String toString()
+    {
+        return "\"" + m_text + "\" (" + m_confidence + ")";
+    }
+}
@@ -21,13 +21,33 @@
  */
 package org.vintagephone.speech_to_text;
 
+import java.util.List;
+
 
 public interface SpeechToTextListener 
 {
 
+	/**
+	 * Called from recognizer thread as soon as user starts talking (e.g. to 
+	 * interrupt a prompt), before anything is recognized.
+	 */
+	public void speechStarted();
+	
 	public void partRecognized( String text );
 	
+	/**
+	 * Called right before {@link #fullyRecognized(String)} with most likely 
+	 * sentences, best one first.
+	 */
+	public void alternativesRecognized( List<RecognitionAlternative> alternatives );
+	
 	public void fullyRecognized( String text );
 	
 	public void errorOccured( String error );
+	
+	/**
+	 * Called from keyword spotting thread as soon as user said "stop", "yes" 
+	 * or "no" on its own, whether listening or not.
+	 */
+	public void keywordSpotted( String keyword );
 }
@@ -21,14 +21,73 @@
  */
 package org.vintagephone.speech_to_text;
 
+import java.util.Collection;
+
 public interface SpeechToTextProvider 
 {
 	
 	public void initialize();
 	
+	/**
+	 * Open input audio device and keep it running between utterances, so that 
+	 * listening can start without delay. 
+	 */
+	public void startCapture();
+	
+	/**
+	 * Release input audio device (e.g. before it is needed for a phone call)
+	 */
+	public void stopCapture();
+	
+	/**
+	 * Set names that could be recognized in {@link RecognitionMode#DIAL_TARGET} 
+	 * mode. When called after {@link #initialize()} vocabulary is rebuilt in 
+	 * background and used as soon as it is ready.
+	 */
+	public void setVocabulary( Collection<String> names );
+	
+	/**
+	 * Set kind of sentence expected in the next utterance. Takes effect on 
+	 * the next call to {@link #startListening()}.
+	 */
+	public void setMode( RecognitionMode mode );
+	
+	/**
+	 * Spot "stop", "yes" and "no" in captured audio even when not listening, 
+	 * see {@link SpeechToTextListener#keywordSpotted(String)}. Only works 
+	 * while capture is running, and only once keyword grammar is compiled 
+	 * from the vocabulary; spotting stays off (and it is logged) until then.
+	 */
+	public void setKeywordSpottingEnabled( boolean isEnabled );
+	
+	/**
+	 * Set lowest acoustic score per 10 ms frame accepted for given keyword 
+	 * ("stop", "yes" or "no"). Every keyword has a default that rejects most
+	 * noise, keywords that end the call should stay stricter than "yes".
+	 */
+	public void setKeywordThreshold( String keyword, int threshold );
+	
+	/**
+	 * Prompt has started playing. Recognizer keeps listening while it plays,
+	 * but does not take its echo for speech.
+	 * 
+	 * @param envelope loudness of the prompt over time
+	 */
+	public void promptStarted( PromptEnvelope envelope );
+	
+	/**
+	 * Prompt has finished or has been interrupted
+	 */
+	public void promptStopped();
+	
 	public void startListening();
 	
 	public void stopListening( final boolean recognizeLast );
 	
 	public void setListener( SpeechToTextListener listener );
+	
+	/**
+	 * @return recognition timers and counters collected so far, one per line
+	 */
+	public String dumpStatistics();
 }
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+/**
+ * This class is used to read samples from input audio device
+ */
+class SphinxAudioRecordSource 
+    implements SphinxAudioSource
+{
+    private final AudioRecord m_audioRecord;
+    
+    SphinxAudioRecordSource()
+    {
+        m_audioRecord = new AudioRecord( MediaRecorder.AudioSource.DEFAULT, 
+                                         SphinxAudioTask.SAMPLE_RATE, // Sample rate
+                                         AudioFormat.CHANNEL_IN_MONO,
+                                         AudioFormat.ENCODING_PCM_16BIT, 
+                                         8192 ); // Min. buffer size
+    }
+    
+    public void start()
+    {
+        m_audioRecord.startRecording();
+    }
+    
+    public int read( short[] buffer, int offset, int length )
+    {
+        return m_audioRecord.read( buffer, offset, length );
+    }
+    
+    public void stop()
+    {
+        m_audioRecord.stop();
+    }
+    
+    public void release()
+    {
+        m_audioRecord.release();
+    }
+}
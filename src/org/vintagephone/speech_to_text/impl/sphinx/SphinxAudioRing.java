@@ -0,0 +1,379 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This class is a fixed-capacity ring of reusable audio blocks that is shared 
+ * by exactly one producer (audio thread) and one consumer (recognizer thread).
+ * <p>
+ * 	All blocks are allocated when the ring is created. Producer fills a block
+ *  obtained by {@link #acquire()} and hands it over with {@link #publish(SphinxAudioBlock)}.
+ *  Consumer borrows a block with {@link #take(boolean)} and must give it back 
+ *  with {@link #release(SphinxAudioBlock)} once samples are processed.
+ *  Consumer could hold several blocks and {@link #pin(SphinxAudioBlock)} a block
+ *  to hand it over to another thread that releases it once more; a block is 
+ *  given back to producer once it and all blocks before it are fully released.
+ * </p>
+ * <p>
+ * 	What happens when the ring is full depends on {@link SphinxOverflowPolicy}. 
+ *  Whenever samples are dropped, first block published after them is marked
+ *  with {@link SphinxAudioBlock#isDiscontinuous}.
+ * </p>
+ */
+final class SphinxAudioRing
+{
+    // Audio device buffer overruns if producer is held up longer than that
+    static final long BLOCK_TIMEOUT = 500; // ms
+    
+    private final SphinxAudioBlock[] m_blocks;
+    private final SphinxAudioBlock m_overflowBlock;
+    
+    private final Object m_dataLock = new Object();
+    
+    // Guards consumer position against producer dropping oldest block
+    private final Object m_headLock = new Object();
+    
+    // Producer and consumer positions (only ever incremented)
+    private volatile long m_published = 0;
+    private volatile long m_taken = 0;
+    private volatile long m_released = 0;
+    
+    // State variables
+    private volatile boolean m_isWokenUp = false;
+    private volatile SphinxOverflowPolicy m_policy = SphinxOverflowPolicy.DROP_NEWEST;
+    private boolean m_isGapPending = false; // only accessed by producer
+    
+    // Statistics
+    private volatile long m_overflowCount = 0;
+    private volatile long m_blockedCount = 0;
+    private volatile int  m_allocationCount = 0;
+    private volatile int  m_maxDepth = 0;
+    private volatile long m_maxLag = 0;
+    
+    SphinxAudioRing( int capacity, int blockSize )
+    {
+        m_blocks = new SphinxAudioBlock[ capacity ];
+        for ( int i = 0; i < capacity; i++ )
+        {
+            m_blocks[ i ] = allocateBlock( blockSize );
+        }
+        
+        m_overflowBlock = allocateBlock( blockSize );
+    }
+    
+    void setOverflowPolicy( SphinxOverflowPolicy policy )
+    {
+        m_policy = policy;
+    }
+    
+    SphinxOverflowPolicy getOverflowPolicy()
+    {
+        return m_policy;
+    }
+    
+    int getCapacity()
+    {
+        return m_blocks.length;
+    }
+    
+    int getBlockSize()
+    {
+        return m_overflowBlock.samples.length;
+    }
+    
+    /**
+     * @return number of blocks published but not yet released by consumer
+     */
+    int size()
+    {
+        return (int)(m_published - m_released);
+    }
+    
+    /**
+     * @return number of blocks published but not yet taken by consumer
+     */
+    int getWaitingCount()
+    {
+        return (int)(m_published - m_taken);
+    }
+    
+    /**
+     * @return largest number of blocks that were waiting for consumer at once
+     */
+    int getMaxDepth()
+    {
+        return m_maxDepth;
+    }
+    
+    /**
+     * @return number of blocks dropped because the ring was full
+     */
+    long getOverflowCount()
+    {
+        return m_overflowCount;
+    }
+    
+    /**
+     * @return number of times producer had to wait for a free block
+     */
+    long getBlockedCount()
+    {
+        return m_blockedCount;
+    }
+    
+    /**
+     * @return largest number of milliseconds from capture of a block to 
+     *         consumer taking it
+     */
+    long getMaxLag()
+    {
+        return m_maxLag;
+    }
+    
+    /**
+     * @return number of sample blocks allocated by this ring. Stays constant
+     *         once the ring is created.
+     */
+    int getAllocationCount()
+    {
+        return m_allocationCount;
+    }
+    
+    /**
+     * @return number of blocks successfully handed over to consumer so far
+     */
+    long getPublishedCount()
+    {
+        return m_published;
+    }
+    
+    // Producer side
+    
+    SphinxAudioBlock acquire()
+    {
+        final long published = m_published;
+        if ( published - m_released >= m_blocks.length && !makeRoom() )
+        {
+            return m_overflowBlock;
+        }
+        
+        final SphinxAudioBlock result = m_blocks[ (int)(published % m_blocks.length) ];
+        result.isDiscontinuous = false;
+        
+        return result;
+    }
+    
+    void publish( SphinxAudioBlock block )
+    {
+        if ( block == m_overflowBlock )
+        {
+            m_overflowCount += 1;
+            m_isGapPending = true;
+        }
+        else
+        {
+            if ( m_isGapPending ) block.isDiscontinuous = true;
+            m_isGapPending = false;
+            
+            m_published += 1;
+            
+            final int depth = size();
+            if ( depth > m_maxDepth ) m_maxDepth = depth;
+            
+            synchronized ( m_dataLock )
+            {
+                m_dataLock.notify();
+            }
+        }
+    }
+    
+    // Consumer side
+    
+    /**
+     * Borrow next block from the ring.
+     * 
+     * @param waitForData  true to wait until block is available
+     * @return next block or null if no data is available or consumer has been 
+     *         woken up using {@link #wakeUp()}
+     */
+    SphinxAudioBlock take( boolean waitForData ) 
+        throws InterruptedException
+    {
+        final SphinxAudioBlock result = borrow( waitForData );
+        if ( result != null )
+        {
+            final long lag = (System.nanoTime() - result.capturedAt) / 1000000;
+            if ( lag > m_maxLag ) m_maxLag = lag;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Make block taken by consumer wait for one more 
+     * {@link #release(SphinxAudioBlock)}, so it could be read by another
+     * thread meanwhile
+     */
+    void pin( SphinxAudioBlock block )
+    {
+        synchronized ( m_headLock )
+        {
+            block.pins += 1;
+        }
+    }
+    
+    void release( SphinxAudioBlock block )
+    {
+        synchronized ( m_headLock )
+        {
+            block.pins -= 1;
+            if ( block.pins > 0 ) return;
+            
+            // Blocks are reused in order, so a block released ahead of an 
+            // older pinned one is given back together with it
+            final long released = m_released;
+            while ( m_released < m_taken && m_blocks[ (int)(m_released % m_blocks.length) ].pins == 0 )
+            {
+                m_released += 1;
+            }
+            
+            if ( m_released > released && m_policy == SphinxOverflowPolicy.BLOCK ) m_headLock.notify();
+        }
+    }
+    
+    /**
+     * Make consumer waiting in {@link #take(boolean)} return immediately
+     */
+    void wakeUp()
+    {
+        synchronized ( m_dataLock )
+        {
+            m_isWokenUp = true;
+            m_dataLock.notify();
+        }
+    }
+    
+    private SphinxAudioBlock borrow( boolean waitForData ) 
+        throws InterruptedException
+    {
+        final long taken = m_taken;
+        if ( m_published == taken && waitForData )
+        {
+            synchronized ( m_dataLock )
+            {
+                while ( m_published == taken && !m_isWokenUp )
+                {
+                    m_dataLock.wait();
+                }
+                m_isWokenUp = false;
+            }
+        }
+        
+        synchronized ( m_headLock )
+        {
+            // Producer could have dropped oldest blocks meanwhile
+            if ( m_published > m_taken )
+            {
+                final SphinxAudioBlock result = m_blocks[ (int)(m_taken % m_blocks.length) ];
+                result.pins = 1;
+                m_taken += 1;
+                
+                return result;
+            }
+            else
+            {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * Free a block for producer of a full ring according to overflow policy
+     * 
+     * @return true if a block has been freed
+     */
+    private boolean makeRoom()
+    {
+        final SphinxOverflowPolicy policy = m_policy;
+        if ( policy == SphinxOverflowPolicy.DROP_NEWEST ) return false;
+        
+        synchronized ( m_headLock )
+        {
+            if ( policy == SphinxOverflowPolicy.BLOCK )
+            {
+                m_blockedCount += 1;
+                
+                final long deadline = System.nanoTime() + BLOCK_TIMEOUT * 1000000;
+                long remaining = BLOCK_TIMEOUT;
+                while ( m_published - m_released >= m_blocks.length && remaining > 0 )
+                {
+                    try
+                    {
+                        m_headLock.wait( remaining );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        break;
+                    }
+                    remaining = (deadline - System.nanoTime()) / 1000000;
+                }
+                
+                return m_published - m_released < m_blocks.length;
+            }
+            
+            // Every block is still held by consumer, nothing could be dropped
+            if ( m_taken == m_published ) return false;
+            
+            // Blocks held by consumer stay, the oldest waiting one is dropped by 
+            // moving it in front of them and skipping the freed slot
+            final SphinxAudioBlock dropped = m_blocks[ (int)(m_taken % m_blocks.length) ];
+            for ( long i = m_taken; i > m_released; i-- )
+            {
+                m_blocks[ (int)(i % m_blocks.length) ] = m_blocks[ (int)((i - 1) % m_blocks.length) ];
+            }
+            m_blocks[ (int)(m_released % m_blocks.length) ] = dropped;
+            
+            m_released += 1;
+            m_taken += 1;
+            m_overflowCount += 1;
+            
+            // Block right after the gap is either still waiting or not published yet
+            if ( m_taken < m_published )
+            {
+                m_blocks[ (int)(m_taken % m_blocks.length) ].isDiscontinuous = true;
+            }
+            else
+            {
+                m_isGapPending = true;
+            }
+            
+            return true;
+        }
+    }
+    
+    private SphinxAudioBlock allocateBlock( int blockSize )
+    {
+        m_allocationCount += 1;
+        
+        return new SphinxAudioBlock( blockSize );
+    }
+}
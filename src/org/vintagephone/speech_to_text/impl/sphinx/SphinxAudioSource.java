@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This interface is used to supply 16-bit mono PCM samples at 
+ * {@link SphinxAudioTask#SAMPLE_RATE} to {@link SphinxAudioTask}.
+ * <p>
+ * 	All methods are called from audio thread only.
+ * </p>
+ */
+interface SphinxAudioSource
+{
+    /**
+     * Start producing samples
+     */
+    void start();
+    
+    /**
+     * Read next samples, blocking until at least some are available.
+     * 
+     * @return number of samples read, 0 if nothing is available right now or 
+     *         a negative value if source failed and can not be read anymore
+     */
+    int read( short[] buffer, int offset, int length );
+    
+    /**
+     * Stop producing samples. Source could be started again later.
+     */
+    void stop();
+    
+    /**
+     * Free resources held by the source
+     */
+    void release();
+}
@@ -21,102 +21,392 @@
  */
 package org.vintagephone.speech_to_text.impl.sphinx;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import org.vintagephone.trace.Trace;
+import org.vintagephone.trace.TraceEvent;
 
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.util.Log;
 
 /**
- * This class is used to read audio data from input audio device
+ * This class is used to read audio data from an audio source (input audio 
+ * device unless told otherwise, see {@link SphinxAudioSource})
  * <p>
  * 	This implementation is based on PocketSphinxDemo by David Huggins-Daines <dhuggins@cs.cmu.edu>.
  * </p>
+ * <p>
+ * 	Audio device is opened once and kept running between utterances while 
+ *  capture is enabled. Samples are only handed over to recognizer while an 
+ *  utterance window is open, otherwise last few blocks are kept as pre-roll 
+ *  and replayed when next window is opened.
+ * </p>
+ * <p>
+ * 	Device is read in small chunks, so once window is closed only a partially
+ *  filled block has to be flushed to recognizer to finish the utterance.
+ * </p>
  * 
  * @author Basil Shikin.
  */
 class SphinxAudioTask 
 	implements Runnable 
 {
-    private static final int DEFAULT_BLOCK_SIZE = 1024;
+    static final int SAMPLE_RATE = 8000;
+    static final int DEFAULT_BLOCK_SIZE = 1024;
+    
+    private static final int DEFAULT_RING_CAPACITY = 64; // ~8 seconds of audio
+    private static final int READ_CHUNK_SIZE = 256;      // 32 ms
     private static final String Tag = "SphinxAudioThread";
     
     
     // Parent objects
-    private final BlockingQueue<short[]> m_audioQueue;
-    private final AudioRecord 		 m_audioRecord;
+    private final SphinxAudioRing m_audioRing;
+    private final SphinxAudioSource m_audioSource;
+    
+    // Pre-roll (only accessed from audio thread)
+    private final SphinxAudioBlock[] m_preRoll;
+    private int m_preRollNext = 0;
+    private int m_preRollCount = 0;
+    
+    // Block being filled (only accessed from audio thread)
+    private SphinxAudioBlock m_currentBlock = null;
+    
+    // Optional second consumer of all captured blocks
+    private volatile SphinxAudioRing m_tap = null;
+    
+    // Optional processing of all captured blocks
+    private volatile SphinxAudioFilter m_filter = null;
     
     // State variables
-    private int m_blockSize = DEFAULT_BLOCK_SIZE;
+    private final Object m_captureLock = new Object();
+    
     private volatile boolean m_isTerminated = false;
+    private volatile boolean m_isCapturing = false;
+    private volatile boolean m_isWindowOpen = false;
+    private boolean m_wasWindowOpen = false;
+    
+    private final Object m_flushLock = new Object();
+    private volatile boolean m_isFlushed = true;
     
-    SphinxAudioTask() 
+    SphinxAudioTask( SphinxAudioSource audioSource, int preRollBlocks ) 
     {
-        m_audioQueue = new LinkedBlockingQueue<short[]>();
-	
-        m_audioRecord = new AudioRecord( MediaRecorder.AudioSource.DEFAULT, 
-    					     8000, // Sample rate
-    					     AudioFormat.CHANNEL_IN_MONO,
-    					     AudioFormat.ENCODING_PCM_16BIT, 
-    					     8192 ); // Min. buffer size
+        m_audioSource = audioSource;
+        
+        m_audioRing = new SphinxAudioRing( DEFAULT_RING_CAPACITY, DEFAULT_BLOCK_SIZE );
+        
+        m_preRoll = new SphinxAudioBlock[ preRollBlocks ];
+        for ( int i = 0; i < preRollBlocks; i++ )
+        {
+            m_preRoll[ i ] = new SphinxAudioBlock( DEFAULT_BLOCK_SIZE );
+        }
     }
     
+    static int toBlocks( int millis )
+    {
+        final int samples = millis * (SAMPLE_RATE / 1000);
+        
+        return (samples + DEFAULT_BLOCK_SIZE - 1) / DEFAULT_BLOCK_SIZE;
+    }
     
     int getBlockSize() 
     {
-        return m_blockSize;
+        return m_audioRing.getBlockSize();
     }
     
-    void setBlockSize(int block_size) 
+    SphinxAudioRing getAudioRing()
     {
-        m_blockSize = block_size;
+        return m_audioRing;
     }
     
-    short[] readNext( boolean waitForData ) 
+    /**
+     * Borrow next block of samples. Returned block must be given back using 
+     * {@link #release(SphinxAudioBlock)} once it is processed.
+     */
+    SphinxAudioBlock readNext( boolean waitForData ) 
         throws InterruptedException
     {
-        if ( waitForData )
+        return m_audioRing.take( waitForData );
+    }
+    
+    void release( SphinxAudioBlock block )
+    {
+        m_audioRing.release( block );
+    }
+    
+    /**
+     * Keep block from being reused until it is released once more, from any 
+     * thread
+     */
+    void pin( SphinxAudioBlock block )
+    {
+        m_audioRing.pin( block );
+    }
+    
+    /**
+     * Copy every captured block into given ring, whether window is open or not.
+     * Blocks are dropped if the ring is full.
+     * 
+     * @param tap ring to copy blocks to or null to stop copying
+     */
+    void setTap( SphinxAudioRing tap )
+    {
+        m_tap = tap;
+    }
+    
+    /**
+     * Process every captured block with given filter before it is handed 
+     * over to anyone. Must be called before capture is started.
+     * 
+     * @param filter filter to use or null to pass samples as captured
+     */
+    void setFilter( SphinxAudioFilter filter )
+    {
+        m_filter = filter;
+    }
+    
+    /**
+     * Start reading from input audio device. Device stays open until 
+     * {@link #stopCapture()} is called.
+     */
+    void startCapture()
+    {
+        synchronized ( m_captureLock )
         {
-            return m_audioQueue.take();
+            m_isCapturing = true;
+            m_captureLock.notify();
         }
-        else
+    }
+    
+    void stopCapture()
+    {
+        m_isCapturing = false;
+    }
+    
+    boolean isCapturing()
+    {
+        return m_isCapturing;
+    }
+    
+    /**
+     * Start handing samples over to recognizer, starting with the pre-roll
+     */
+    void openWindow()
+    {
+        m_isFlushed = false;
+        m_isWindowOpen = true;
+    }
+    
+    /**
+     * Stop handing samples over to recognizer. Partially filled block is 
+     * published shortly after, see {@link #isFlushed()}.
+     */
+    void closeWindow()
+    {
+        m_isWindowOpen = false;
+        
+        if ( !m_isCapturing ) markFlushed();
+    }
+    
+    /**
+     * @return true if all samples captured within last window were published
+     */
+    boolean isFlushed()
+    {
+        return m_isFlushed;
+    }
+    
+    /**
+     * Wait until last block of the window is published.
+     * 
+     * @return true if window has been flushed
+     */
+    boolean awaitFlush( long timeoutMillis )
+        throws InterruptedException
+    {
+        synchronized ( m_flushLock )
         {
-            return m_audioQueue.poll();
+            if ( !m_isFlushed ) m_flushLock.wait( timeoutMillis );
+            
+            return m_isFlushed;
         }
     }
     
     void stop() 
     {
-        m_isTerminated = true;        
+        synchronized ( m_captureLock )
+        {
+            m_isTerminated = true;
+            m_captureLock.notify();
+        }
     }
     
     public void run() 
     {
-        m_audioRecord.startRecording();
-        while ( !m_isTerminated ) 
+        try
+        {
+            while ( !m_isTerminated )
+            {
+                synchronized ( m_captureLock )
+                {
+                    while ( !m_isCapturing && !m_isTerminated )
+                    {
+                        m_captureLock.wait();
+                    }
+                }
+                if ( m_isTerminated ) break;
+                
+                Log.i( Tag, "Starting audio capture...");
+                
+                m_audioSource.start();
+                
+                // Previous capture could have been long ago
+                final SphinxAudioFilter filter = m_filter;
+                if ( filter != null ) filter.reset();
+                
+                while ( m_isCapturing && !m_isTerminated ) 
+                {
+                    final int read = readChunk();
+                    if ( read < 0 )
+                    {
+                        Log.e( Tag, "Audio source failed (" + read + "), capture stopped");
+                        
+                        m_isCapturing = false;
+                        break;
+                    }
+                }
+                m_audioSource.stop();
+                
+                if ( m_currentBlock != null ) completeBlock( m_wasWindowOpen );
+                markFlushed();
+                
+                m_preRollCount = 0;
+                m_wasWindowOpen = false;
+                
+                Log.i( Tag, "Audio capture stopped");
+            }
+        }
+        catch ( InterruptedException e )
         {
-            final int read = readBlock();
-            if ( read <= 0) break;
+            Log.e( Tag, "Interrupted waiting for capture to start", e );
         }
         
-        m_audioRecord.stop();
-        m_audioRecord.release();
+        m_audioSource.release();
     }
 
-    private int readBlock()
+    private int readChunk()
     {
-        short[] buffer = new short[this.m_blockSize];
-        final int read = this.m_audioRecord.read(buffer, 0, buffer.length);
+        final boolean isWindowOpen = m_isWindowOpen;
+        if ( isWindowOpen != m_wasWindowOpen )
+        {
+            // Block started before the switch belongs to the old destination
+            if ( m_currentBlock != null ) completeBlock( m_wasWindowOpen );
+            
+            if ( isWindowOpen )
+            {
+                publishPreRoll();
+            }
+            else
+            {
+                markFlushed();
+            }
+            
+            m_wasWindowOpen = isWindowOpen;
+        }
+        
+        if ( m_currentBlock == null )
+        {
+            m_currentBlock = isWindowOpen ? m_audioRing.acquire() : nextPreRollBlock();
+            m_currentBlock.length = 0;
+        }
+        
+        final SphinxAudioBlock block = m_currentBlock;
+        final int toRead = Math.min( READ_CHUNK_SIZE, block.samples.length - block.length );
+        final int read = m_audioSource.read(block.samples, block.length, toRead);
 
-        Log.d(Tag, "Read " + read + " samples");
+        Trace.event( TraceEvent.AUDIO_READ, read, block.length );
 
         if (read > 0)
         {
-            m_audioQueue.add(buffer);
+            block.length += read;
+            block.capturedAt = System.nanoTime();
+            
+            if ( block.length == block.samples.length )
+            {
+                completeBlock( isWindowOpen );
+            }
         }
 
         return read;
     }
+    
+    /**
+     * Hand current block over to recognizer or keep it as pre-roll
+     */
+    private void completeBlock( boolean isWindowOpen )
+    {
+        final SphinxAudioBlock block = m_currentBlock;
+        m_currentBlock = null;
+        
+        if ( block.length == 0 ) return;
+        
+        final SphinxAudioFilter filter = m_filter;
+        if ( filter != null ) filter.process( block.samples, block.length );
+        
+        final SphinxAudioRing tap = m_tap;
+        if ( tap != null )
+        {
+            final SphinxAudioBlock copy = tap.acquire();
+            System.arraycopy( block.samples, 0, copy.samples, 0, block.length );
+            copy.length = block.length;
+            copy.capturedAt = block.capturedAt;
+            
+            tap.publish( copy );
+        }
+        
+        if ( isWindowOpen )
+        {
+            m_audioRing.publish( block );
+        }
+        else if ( m_preRoll.length > 0 )
+        {
+            m_preRollNext = (m_preRollNext + 1) % m_preRoll.length;
+            m_preRollCount = Math.min( m_preRollCount + 1, m_preRoll.length );
+        }
+    }
+    
+    private void markFlushed()
+    {
+        synchronized ( m_flushLock )
+        {
+            m_isFlushed = true;
+            m_flushLock.notifyAll();
+        }
+    }
+    
+    private SphinxAudioBlock nextPreRollBlock()
+    {
+        if ( m_preRoll.length > 0 )
+        {
+            return m_preRoll[ m_preRollNext ];
+        }
+        else
+        {
+            // No pre-roll requested, samples outside of window are discarded
+            return m_audioRing.acquire();
+        }
+    }
+    
+    private void publishPreRoll()
+    {
+        for ( int i = m_preRollCount; i > 0; i-- )
+        {
+            final SphinxAudioBlock source = m_preRoll[ (m_preRollNext - i + m_preRoll.length) % m_preRoll.length ];
+            final SphinxAudioBlock target = m_audioRing.acquire();
+            
+            System.arraycopy( source.samples, 0, target.samples, 0, source.length );
+            target.length = source.length;
+            target.capturedAt = source.capturedAt;
+            
+            m_audioRing.publish( target );
+        }
+        
+        m_preRollCount = 0;
+    }
 }
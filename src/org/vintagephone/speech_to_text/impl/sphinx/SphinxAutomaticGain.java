@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This class is used to bring quiet handset speech up to the level acoustic
+ * model was trained on.
+ * <p>
+ * 	Gain is only adapted on frames loud enough to be speech, so pauses do not
+ *  pump up the noise. It is lowered quickly and raised slowly, and is never 
+ *  allowed to push a frame into clipping.
+ * </p>
+ */
+final class SphinxAutomaticGain
+    extends SphinxGainFilter
+{
+    private static final float TARGET_LEVEL = 2500;   // mean absolute value of speech, ~-20 dBFS
+    private static final float MIN_SPEECH_LEVEL = 60; // frames below are not adapted to
+    private static final float MIN_GAIN = 0.5f;
+    private static final float MAX_GAIN = 8.0f;
+    private static final float ATTACK = 0.5f;         // share of the way down per frame
+    private static final float DECAY = 0.02f;         // share of the way up per frame
+    private static final int MAX_PEAK = 32000;
+    
+    private float m_targetGain = 1;
+    
+    float getFrameGain( float level, int peak )
+    {
+        if ( level >= MIN_SPEECH_LEVEL )
+        {
+            final float desired = Math.max( MIN_GAIN, Math.min( MAX_GAIN, TARGET_LEVEL / level ) );
+            
+            m_targetGain += (desired - m_targetGain) * (desired < m_targetGain ? ATTACK : DECAY);
+        }
+        
+        float gain = m_targetGain;
+        if ( peak * gain > MAX_PEAK )
+        {
+            gain = MAX_PEAK / (float)peak;
+            m_targetGain = gain;
+        }
+        
+        return gain;
+    }
+    
+    public void reset()
+    {
+        super.reset();
+        
+        m_targetGain = 1;
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import android.util.Log;
+import edu.cmu.pocketsphinx.Decoder;
+
+/**
+ * This class is used to keep cepstral mean estimate of the microphone channel
+ * between utterances and between service restarts.
+ * <p>
+ * 	Every decoder normalizes features with its own running mean, which starts
+ *  from a generic value and needs about a second of speech to settle. Each 
+ *  recognition mode has its own decoder, so the estimate learned by the last
+ *  decoder that ran is handed over to the next one before it starts, and it 
+ *  is stored in a file so that decoders created later start from it too.
+ * </p>
+ * <p>
+ * 	Estimate is kept in the format of <code>-cmninit</code> argument (comma 
+ *  separated means).
+ * </p>
+ * <p>
+ * 	File is written by a thread of its own, so that the recognizer thread
+ *  never waits for the SD card.
+ * </p>
+ */
+final class SphinxCmnStore
+    implements Runnable
+{
+    private static final String Tag = "SphinxCmnStore";
+    
+    private static final long SAVE_INTERVAL = 30000; // ms
+    
+    private final File m_file;
+    
+    private volatile String m_cmn = null;
+    
+    // Only accessed from recognizer thread
+    private long m_savedAt = 0;
+    
+    // Estimate waiting to be written (guarded by m_lock)
+    private final Object m_lock = new Object();
+    private String m_pendingCmn = null;
+    
+    // Only accessed from saving thread, or before it is started
+    private String m_savedCmn = null;
+    
+    private volatile boolean m_isTerminated = false;
+    
+    SphinxCmnStore( File file )
+    {
+        m_file = file;
+    }
+    
+    /**
+     * Read estimate saved by previous run, if any
+     */
+    void load()
+    {
+        if ( !m_file.exists() ) return;
+        
+        try
+        {
+            final BufferedReader reader = new BufferedReader( new FileReader( m_file ) );
+            try
+            {
+                final String line = reader.readLine();
+                if ( line != null && isValid( line.trim() ) )
+                {
+                    m_cmn = line.trim();
+                    m_savedCmn = m_cmn;
+                    
+                    Log.i( Tag, "Loaded cepstral mean " + m_cmn );
+                }
+                else
+                {
+                    Log.w( Tag, "Ignoring malformed cepstral mean in " + m_file );
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            Log.w( Tag, "Unable to load cepstral mean from " + m_file, e );
+        }
+    }
+    
+    /**
+     * @return last known estimate or null if nothing was learned yet
+     */
+    String get()
+    {
+        return m_cmn;
+    }
+    
+    /**
+     * Start given decoder from last known estimate. Must be called before
+     * utterance is started.
+     */
+    void seed( Decoder decoder )
+    {
+        final String cmn = m_cmn;
+        if ( cmn != null ) decoder.setCmn( cmn );
+    }
+    
+    /**
+     * Take estimate from decoder that has just finished an utterance and 
+     * have it saved if enough time has passed since last save.
+     */
+    void update( Decoder decoder )
+    {
+        final String cmn = decoder.getCmn();
+        if ( cmn == null || !isValid( cmn ) ) return;
+        
+        m_cmn = cmn;
+        
+        final long now = System.nanoTime() / 1000000;
+        if ( now - m_savedAt >= SAVE_INTERVAL )
+        {
+            requestSave( cmn );
+            m_savedAt = now;
+        }
+    }
+    
+    /**
+     * Have last known estimate saved now, whenever it was saved last
+     */
+    void flush()
+    {
+        final String cmn = m_cmn;
+        if ( cmn != null ) requestSave( cmn );
+    }
+    
+    void stop()
+    {
+        synchronized ( m_lock )
+        {
+            m_isTerminated = true;
+            m_lock.notify();
+        }
+    }
+    
+    public void run()
+    {
+        while ( !m_isTerminated )
+        {
+            try
+            {
+                final String cmn;
+                synchronized ( m_lock )
+                {
+                    while ( m_pendingCmn == null && !m_isTerminated )
+                    {
+                        m_lock.wait();
+                    }
+                    
+                    cmn = m_pendingCmn;
+                    m_pendingCmn = null;
+                }
+                
+                if ( cmn != null && !cmn.equals( m_savedCmn ) ) save( cmn );
+            }
+            catch ( InterruptedException e )
+            {
+                Log.d( Tag, "Interrupted waiting for cepstral mean to save");
+            }
+        }
+    }
+    
+    private void requestSave( String cmn )
+    {
+        synchronized ( m_lock )
+        {
+            m_pendingCmn = cmn;
+            m_lock.notify();
+        }
+    }
+    
+    private void save( String cmn )
+    {
+        m_file.getParentFile().mkdirs();
+        
+        try
+        {
+            final Writer writer = new FileWriter( m_file );
+            try
+            {
+                writer.write( cmn );
+                writer.write( '\n' );
+            }
+            finally
+            {
+                writer.close();
+            }
+            
+            m_savedCmn = cmn;
+        }
+        catch ( IOException e )
+        {
+            Log.w( Tag, "Unable to save cepstral mean to " + m_file, e );
+        }
+    }
+    
+    /**
+     * @return true if given text is a list of numbers with first one (energy) 
+     *         in sane range
+     */
+    private static boolean isValid( String cmn )
+    {
+        if ( cmn.length() == 0 ) return false;
+        
+        try
+        {
+            final String[] values = cmn.split( "," );
+            for ( String value : values )
+            {
+                final float mean = Float.parseFloat( value );
+                if ( Float.isNaN( mean ) || Float.isInfinite( mean ) ) return false;
+            }
+            
+            final float energy = Float.parseFloat( values[ 0 ] );
+            return energy > 0 && energy < 30;
+        }
+        catch ( NumberFormatException e )
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.File;
+
+import edu.cmu.pocketsphinx.Config;
+
+/**
+ * This class is used to create decoder configurations for different 
+ * recognition modes.
+ */
+final class SphinxConfiguration
+{
+    static final String DEFAULT_ROOT = "/sdcard/Android/data/vp";
+    
+    // Base of decoder scores and scale applied to them to get posteriors
+    static final double LOG_BASE = 1.0001;
+    static final double POSTERIOR_SCALE = 20.0;
+    
+    private static final String DEFAULT_LOG_PATH = "/sdcard/Android/data/edu.cmu.pocketsphinx/pocketsphinx.log";
+    
+    private final String m_root;
+    private boolean m_isMemoryMapped = false;
+    private String m_deviceName = "default";
+    private String m_initialCmn = null;
+    
+    SphinxConfiguration( String root )
+    {
+        m_root = root;
+    }
+    
+    /**
+     * Memory map model files instead of reading them into memory, so that 
+     * decoders sharing the acoustic model share its pages.
+     */
+    void setMemoryMapped( boolean isMemoryMapped )
+    {
+        m_isMemoryMapped = isMemoryMapped;
+    }
+    
+    /**
+     * Set name of the device microphone channel estimates are kept for
+     */
+    void setDeviceName( String deviceName )
+    {
+        m_deviceName = deviceName;
+    }
+    
+    /**
+     * Set cepstral mean decoders created from now on start with (see 
+     * {@link SphinxCmnStore}), null to use the default of acoustic model
+     */
+    void setInitialCmn( String initialCmn )
+    {
+        m_initialCmn = initialCmn;
+    }
+    
+    String getRoot()
+    {
+        return m_root;
+    }
+    
+    /**
+     * @return path of pocketsphinx log file, kept next to models unless 
+     *         default root is used
+     */
+    String getLogPath()
+    {
+        return DEFAULT_ROOT.equals( m_root ) ? DEFAULT_LOG_PATH : m_root + "/pocketsphinx.log";
+    }
+    
+    String getAcousticModelPath()
+    {
+        return m_root + "/hmm/hub4wsj_sc_8k-b";
+    }
+    
+    String getDictionaryPath()
+    {
+        return m_root + "/lm/2996.dic";
+    }
+    
+    String getLanguageModelPath()
+    {
+        return m_root + "/lm/2996.dmp";
+    }
+    
+    /**
+     * @return large dictionary used to look up pronunciations of phonebook names
+     */
+    String getMasterDictionaryPath()
+    {
+        return m_root + "/lm/cmu07a.dic";
+    }
+    
+    /**
+     * @return user maintained pronunciations of names missing from other dictionaries
+     */
+    String getUserDictionaryPath()
+    {
+        return m_root + "/book/names.dic";
+    }
+    
+    /**
+     * @return directory decoded utterances are saved to
+     */
+    File getRecordingDirectory()
+    {
+        return new File( m_root, "raw" );
+    }
+    
+    /**
+     * @return file cepstral mean of this device is kept in
+     */
+    File getCmnFile()
+    {
+        return new File( m_root, "cmn/" + m_deviceName.replaceAll( "[^A-Za-z0-9_.-]", "_" ) + ".txt" );
+    }
+    
+    File getVocabularyCacheDir()
+    {
+        return new File( m_root, "lm/cache" );
+    }
+    
+    /**
+     * @return configuration for decoding free speech with general language model
+     */
+    Config createLanguageModelConfig()
+    {
+        final Config sphinxConfig = createBaseConfig();
+        sphinxConfig.setString("-lm", getLanguageModelPath());
+        sphinxConfig.setInt("-maxhmmpf", 2000);
+        sphinxConfig.setInt("-maxwpf", 10);
+        
+        return sphinxConfig;
+    }
+    
+    /**
+     * @return configuration for decoding sentences allowed by given JSGF grammar
+     */
+    Config createGrammarConfig( String grammarPath, String dictionaryPath )
+    {
+        final Config sphinxConfig = createBaseConfig();
+        sphinxConfig.setString("-dict", dictionaryPath);
+        sphinxConfig.setString("-jsgf", grammarPath);
+        
+        // Grammar search space is tiny, no need for aggressive pruning
+        sphinxConfig.setInt("-maxhmmpf", 1000);
+        
+        return sphinxConfig;
+    }
+    
+    /**
+     * @return configuration of always running keyword spotter: small grammar,
+     *         tight beams and every other frame scored to keep CPU use low
+     */
+    Config createKeywordConfig( String grammarPath, String dictionaryPath )
+    {
+        final Config sphinxConfig = createBaseConfig();
+        sphinxConfig.setString("-dict", dictionaryPath);
+        sphinxConfig.setString("-jsgf", grammarPath);
+        
+        sphinxConfig.setInt("-maxhmmpf", 300);
+        sphinxConfig.setFloat("-beam", 1e-30);
+        sphinxConfig.setFloat("-wbeam", 1e-20);
+        sphinxConfig.setInt("-ds", 2);
+        sphinxConfig.setBoolean("-bestpath", false);
+        
+        return sphinxConfig;
+    }
+    
+    private Config createBaseConfig()
+    {
+        final Config sphinxConfig = new Config();
+        sphinxConfig.setString("-hmm", getAcousticModelPath());
+        sphinxConfig.setString("-dict", getDictionaryPath());
+
+        sphinxConfig.setFloat("-samprate", 8000.0);
+        sphinxConfig.setInt("-pl_window", 2);
+        sphinxConfig.setBoolean("-backtrace", true);
+        
+        // Lattice of finished utterance is needed for N-best and posteriors
+        sphinxConfig.setBoolean("-bestpath", true);
+        sphinxConfig.setFloat("-logbase", LOG_BASE);
+        sphinxConfig.setFloat("-ascale", POSTERIOR_SCALE);
+        sphinxConfig.setBoolean("-mmap", m_isMemoryMapped);
+        if ( m_initialCmn != null ) sphinxConfig.setString("-cmninit", m_initialCmn);
+        
+        return sphinxConfig;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This class is used to remove DC offset of the microphone capsule.
+ * <p>
+ * 	It is a one pole high-pass filter <code>y[n] = x[n] - x[n-1] + R * y[n-1]</code>
+ *  with <code>R = 1 - 1/256</code> (corner at about 5 Hz), computed in 
+ *  integer arithmetic with 8 fractional bits of output state.
+ * </p>
+ */
+final class SphinxDcBlocker
+    implements SphinxAudioFilter
+{
+    private static final int POLE_SHIFT = 8;
+    private static final int FRACTION_BITS = 8;
+    
+    private int m_lastInput = 0;
+    private int m_lastOutput = 0; // with FRACTION_BITS fractional bits
+    private boolean m_isPrimed = false;
+    
+    public void process( short[] samples, int length )
+    {
+        if ( length == 0 ) return;
+        
+        // Start from the first sample, so that offset does not produce a step
+        if ( !m_isPrimed )
+        {
+            m_lastInput = samples[ 0 ];
+            m_isPrimed = true;
+        }
+        
+        int lastInput = m_lastInput;
+        int lastOutput = m_lastOutput;
+        for ( int i = 0; i < length; i++ )
+        {
+            final int input = samples[ i ];
+            
+            lastOutput = ((input - lastInput) << FRACTION_BITS) + lastOutput - (lastOutput >> POLE_SHIFT);
+            lastInput = input;
+            
+            samples[ i ] = clip( lastOutput >> FRACTION_BITS );
+        }
+        
+        m_lastInput = lastInput;
+        m_lastOutput = lastOutput;
+    }
+    
+    public void reset()
+    {
+        m_lastInput = 0;
+        m_lastOutput = 0;
+        m_isPrimed = false;
+    }
+    
+    static short clip( int sample )
+    {
+        if ( sample > Short.MAX_VALUE ) return Short.MAX_VALUE;
+        if ( sample < Short.MIN_VALUE ) return Short.MIN_VALUE;
+        
+        return (short)sample;
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import org.vintagephone.speech_to_text.Histogram;
+
+import android.util.Log;
+import edu.cmu.pocketsphinx.Decoder;
+
+/**
+ * This class is used to run a second decoder on its own thread over the same
+ * audio blocks the recognizer thread decodes.
+ * <p>
+ * 	Commands are queued and executed in order, so the second decoder could 
+ *  lag behind the recognizer thread. Blocks are not copied: a block taken from
+ *  the audio ring is pinned there when it is queued and released by this 
+ *  worker once decoded, so lag is bounded by the capacity of the ring.
+ *  Any other block is copied into a buffer owned by the queue slot.
+ * </p>
+ * <p>
+ * 	Decoder belongs to this worker from {@link #start(String)} until the 
+ *  utterance is ended and {@link #awaitIdle()} returns.
+ * </p>
+ */
+final class SphinxDecoderWorker
+    implements Runnable
+{
+    private static final String Tag = "SphinxDecoderWorker";
+    
+    private static final int START = 1;
+    private static final int DECODE = 2;
+    private static final int END = 3;
+    
+    // Room for start and end of two utterances besides a full ring of blocks
+    private static final int QUEUE_SLACK = 4;
+    
+    private final Decoder m_decoder;
+    private final SphinxAudioTask m_audioTask;
+    private final Histogram m_latency;
+    
+    // Queued commands and their arguments, oldest first (guarded by m_lock)
+    private final Object m_lock = new Object();
+    private final int[] m_commands;
+    private final SphinxAudioBlock[] m_blocks;
+    private final boolean[] m_isRingBlock;
+    private final SphinxAudioBlock[] m_copies;
+    private final String[] m_cmns;
+    private final long[] m_endRequestedAt;
+    private int m_head = 0;
+    private int m_count = 0;
+    
+    private volatile boolean m_isTerminated = false;
+    
+    /**
+     * @param decoder decoder to run
+     * @param audioTask task blocks to decode are taken from
+     * @param latency histogram to record milliseconds from end of audio to
+     *        hypothesis of the second decoder in
+     */
+    SphinxDecoderWorker( Decoder decoder, SphinxAudioTask audioTask, Histogram latency )
+    {
+        m_decoder = decoder;
+        m_audioTask = audioTask;
+        m_latency = latency;
+        
+        final int capacity = audioTask.getAudioRing().getCapacity() + QUEUE_SLACK;
+        m_commands = new int[ capacity ];
+        m_blocks = new SphinxAudioBlock[ capacity ];
+        m_isRingBlock = new boolean[ capacity ];
+        m_copies = new SphinxAudioBlock[ capacity ];
+        m_cmns = new String[ capacity ];
+        m_endRequestedAt = new long[ capacity ];
+    }
+    
+    /**
+     * Queue start of utterance. Previous utterance is ended first.
+     * 
+     * @param cmn cepstral mean to start from or null to keep the current one
+     */
+    void start( String cmn )
+        throws InterruptedException
+    {
+        synchronized ( m_lock )
+        {
+            final int slot = enqueueLocked( START );
+            m_cmns[ slot ] = cmn;
+        }
+    }
+    
+    /**
+     * Queue decoding of given block.
+     * 
+     * @param isRingBlock true if block was taken from the audio ring. It is 
+     *        pinned there until decoded, so caller could release it right away.
+     *        Any other block is copied, so caller could reuse it right away.
+     */
+    void decode( SphinxAudioBlock block, boolean isRingBlock )
+        throws InterruptedException
+    {
+        synchronized ( m_lock )
+        {
+            final int slot = enqueueLocked( DECODE );
+            m_isRingBlock[ slot ] = isRingBlock;
+            
+            if ( isRingBlock )
+            {
+                m_audioTask.pin( block );
+                m_blocks[ slot ] = block;
+            }
+            else
+            {
+                // Allocated once per slot, only blocks held before onset are copied
+                if ( m_copies[ slot ] == null ) m_copies[ slot ] = new SphinxAudioBlock( block.samples.length );
+                
+                final SphinxAudioBlock copy = m_copies[ slot ];
+                System.arraycopy( block.samples, 0, copy.samples, 0, block.length );
+                copy.length = block.length;
+                m_blocks[ slot ] = copy;
+            }
+        }
+    }
+    
+    /**
+     * Queue end of utterance and computing of its hypothesis
+     * 
+     * @param requestedAt System.nanoTime() end of audio was requested at or 0
+     *        to not record latency of this utterance
+     */
+    void end( long requestedAt )
+        throws InterruptedException
+    {
+        synchronized ( m_lock )
+        {
+            final int slot = enqueueLocked( END );
+            m_endRequestedAt[ slot ] = requestedAt;
+        }
+    }
+    
+    /**
+     * Wait until every queued command is done. Decoder could be used from 
+     * calling thread until next command is queued.
+     */
+    void awaitIdle()
+        throws InterruptedException
+    {
+        synchronized ( m_lock )
+        {
+            while ( m_count > 0 && !m_isTerminated )
+            {
+                m_lock.wait();
+            }
+        }
+    }
+    
+    void stop()
+    {
+        synchronized ( m_lock )
+        {
+            m_isTerminated = true;
+            m_lock.notifyAll();
+        }
+    }
+    
+    public void run()
+    {
+        while ( !m_isTerminated )
+        {
+            try
+            {
+                final int command;
+                final SphinxAudioBlock block;
+                final boolean isRingBlock;
+                final String cmn;
+                final long endRequestedAt;
+                synchronized ( m_lock )
+                {
+                    while ( m_count == 0 && !m_isTerminated )
+                    {
+                        m_lock.wait();
+                    }
+                    if ( m_isTerminated ) break;
+                    
+                    // Slot stays taken until the command is done, its copy is read meanwhile
+                    command = m_commands[ m_head ];
+                    block = m_blocks[ m_head ];
+                    isRingBlock = m_isRingBlock[ m_head ];
+                    cmn = m_cmns[ m_head ];
+                    endRequestedAt = m_endRequestedAt[ m_head ];
+                }
+                
+                switch ( command )
+                {
+                    case START:
+                        if ( cmn != null ) m_decoder.setCmn( cmn );
+                        m_decoder.startUtt();
+                        break;
+                        
+                    case DECODE:
+                        m_decoder.processRaw( block.samples, block.length, false, false );
+                        if ( isRingBlock ) m_audioTask.release( block );
+                        break;
+                        
+                    case END:
+                        m_decoder.endUtt();
+                        m_decoder.getHyp();
+                        
+                        if ( endRequestedAt > 0 ) m_latency.record( (System.nanoTime() - endRequestedAt) / 1000000 );
+                        break;
+                }
+                
+                synchronized ( m_lock )
+                {
+                    m_blocks[ m_head ] = null;
+                    m_cmns[ m_head ] = null;
+                    m_head = (m_head + 1) % m_commands.length;
+                    m_count -= 1;
+                    m_lock.notifyAll();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Log.d( Tag, "Interrupted waiting for command");
+            }
+        }
+        
+        releaseQueuedBlocks();
+    }
+    
+    /**
+     * Reserve next slot of the queue, waiting while it is full
+     * 
+     * @return index of the slot to store arguments in
+     */
+    private int enqueueLocked( int command )
+        throws InterruptedException
+    {
+        while ( m_count == m_commands.length && !m_isTerminated )
+        {
+            m_lock.wait();
+        }
+        if ( m_isTerminated ) throw new InterruptedException( "Decoder worker is stopped" );
+        
+        final int slot = (m_head + m_count) % m_commands.length;
+        m_commands[ slot ] = command;
+        m_count += 1;
+        m_lock.notifyAll();
+        
+        return slot;
+    }
+    
+    /**
+     * Give blocks still queued back to the audio ring
+     */
+    private void releaseQueuedBlocks()
+    {
+        synchronized ( m_lock )
+        {
+            for ( ; m_count > 0; m_count-- )
+            {
+                if ( m_blocks[ m_head ] != null && m_isRingBlock[ m_head ] ) m_audioTask.release( m_blocks[ m_head ] );
+                
+                m_blocks[ m_head ] = null;
+                m_head = (m_head + 1) % m_commands.length;
+            }
+            m_lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import org.vintagephone.speech_to_text.PromptEnvelope;
+
+/**
+ * This class is used to tell endpointers which prompt is being played and 
+ * when it has started, so that its echo is not mistaken for the user talking.
+ * <p>
+ * 	Time of playback start is only known approximately and output latency 
+ *  varies between devices, so loudness expected at a given moment is the 
+ *  maximum of the prompt envelope over a window preceding that moment.
+ * </p>
+ */
+final class SphinxEchoReference
+{
+    private static final int LATENCY_FRAMES = 30; // 300 ms
+    private static final int LEAD_FRAMES = 5;     // 50 ms
+    
+    private static final class Prompt
+    {
+        final PromptEnvelope envelope;
+        final long startedAt;
+        
+        Prompt( PromptEnvelope envelope, long startedAt )
+        {
+            this.envelope = envelope;
+            this.startedAt = startedAt;
+        }
+    }
+    
+    private volatile Prompt m_prompt;
+    
+    /**
+     * Prompt has just started playing
+     */
+    void start( PromptEnvelope envelope )
+    {
+        m_prompt = new Prompt( envelope, System.nanoTime() );
+    }
+    
+    /**
+     * Prompt has finished or has been interrupted
+     */
+    void stop()
+    {
+        m_prompt = null;
+    }
+    
+    boolean isActive()
+    {
+        return m_prompt != null;
+    }
+    
+    /**
+     * @return prompt energy expected in microphone signal at given 
+     *         {@link System#nanoTime()}, -1 if no prompt is playing
+     */
+    float getPromptEnergy( long time )
+    {
+        final Prompt prompt = m_prompt;
+        if ( prompt == null ) return -1;
+        
+        final int frame = (int)((time - prompt.startedAt) / (PromptEnvelope.FRAME_MILLIS * 1000000L));
+        
+        return prompt.envelope.getMaxEnergy( frame - LATENCY_FRAMES, frame + LEAD_FRAMES );
+    }
+}
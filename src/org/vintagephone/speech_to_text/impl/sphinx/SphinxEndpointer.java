@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This class is used to detect start and end of speech in the audio stream 
+ * using short-term signal energy.
+ * <p>
+ * 	Energy of every 10 ms frame is compared against an adaptive estimate of the 
+ *  background noise. Speech is considered started after a few consecutive loud 
+ *  frames and ended once enough consecutive quiet frames follow it.
+ * </p>
+ * <p>
+ * 	While a prompt is playing (see {@link SphinxEchoReference}) frames also 
+ *  have to be louder than the expected echo of the prompt. Ratio between echo
+ *  picked up by microphone and prompt loudness is learned from frames that
+ *  were not taken for speech, capped and kept between prompts.
+ * </p>
+ */
+final class SphinxEndpointer
+{
+    static final int FRAME_SIZE = SphinxAudioTask.SAMPLE_RATE / 100; // 10 ms
+    
+    static final int DEFAULT_ONSET_MILLIS = 100;
+    static final int DEFAULT_TRAILING_SILENCE_MILLIS = 500;
+    
+    private static final float ONSET_RATIO = 8.0f;               // ~9 dB above noise
+    private static final float MIN_SPEECH_ENERGY = 200.0f * 200.0f; // Mean square of quiet speech
+    private static final float NOISE_ADAPTATION = 0.05f;
+    
+    private static final float ECHO_MARGIN = 4.0f;          // ~6 dB above expected echo
+    private static final float MIN_PROMPT_ENERGY = 100.0f * 100.0f;
+    private static final float ECHO_GAIN_RISE = 0.1f;
+    private static final float ECHO_GAIN_FALL = 0.02f;
+    private static final float MAX_ECHO_GAIN = 1.0f;        // Echo is never louder than the prompt
+    
+    enum Event
+    {
+        NONE,
+        SPEECH_STARTED,
+        SPEECH_ENDED
+    }
+    
+    // Settings
+    private int m_onsetFrames = DEFAULT_ONSET_MILLIS / 10;
+    private int m_trailingFrames = DEFAULT_TRAILING_SILENCE_MILLIS / 10;
+    private SphinxEchoReference m_echoReference;
+    
+    // State variables
+    private float m_noiseEnergy = -1;
+    private boolean m_inSpeech = false;
+    private boolean m_isEnded = false;
+    private int m_speechFrames = 0;
+    private int m_silenceFrames = 0;
+    private float m_echoGain = -1;
+    
+    // Partial frame carried over from previous block
+    private float m_frameSum = 0;
+    private int m_frameSamples = 0;
+    
+    void setOnsetMillis( int onsetMillis )
+    {
+        m_onsetFrames = Math.max( 1, onsetMillis / 10 );
+    }
+    
+    void setTrailingSilenceMillis( int trailingSilenceMillis )
+    {
+        m_trailingFrames = Math.max( 1, trailingSilenceMillis / 10 );
+    }
+    
+    /**
+     * Ignore echo of prompts described by given reference
+     */
+    void setEchoReference( SphinxEchoReference echoReference )
+    {
+        m_echoReference = echoReference;
+    }
+    
+    boolean isInSpeech()
+    {
+        return m_inSpeech;
+    }
+    
+    /**
+     * Prepare for next utterance. Noise estimate is kept from the previous one.
+     */
+    void reset()
+    {
+        m_inSpeech = false;
+        m_isEnded = false;
+        m_speechFrames = 0;
+        m_silenceFrames = 0;
+        m_frameSum = 0;
+        m_frameSamples = 0;
+    }
+    
+    /**
+     * Analyze next block of samples.
+     * 
+     * @param capturedAt {@link System#nanoTime()} when last sample was captured
+     * 
+     * @return speech start or end event detected in this block, if any
+     */
+    Event process( short[] samples, int length, long capturedAt )
+    {
+        Event result = Event.NONE;
+        
+        for ( int i = 0; i < length; i++ )
+        {
+            final float sample = samples[ i ];
+            m_frameSum += sample * sample;
+            m_frameSamples += 1;
+            
+            if ( m_frameSamples == FRAME_SIZE )
+            {
+                final long frameTime = capturedAt - (length - 1 - i) * (1000000000L / SphinxAudioTask.SAMPLE_RATE);
+                final Event event = processFrame( m_frameSum / FRAME_SIZE, getPromptEnergy( frameTime ) );
+                if ( event != Event.NONE ) result = event;
+                
+                m_frameSum = 0;
+                m_frameSamples = 0;
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return energy of prompt played in this frame, 0 if it is too quiet to 
+     *         echo and -1 if no prompt is playing
+     */
+    private float getPromptEnergy( long frameTime )
+    {
+        final SphinxEchoReference echoReference = m_echoReference;
+        if ( echoReference == null ) return -1;
+        
+        final float promptEnergy = echoReference.getPromptEnergy( frameTime );
+        if ( promptEnergy < 0 ) return -1;
+        if ( promptEnergy < MIN_PROMPT_ENERGY ) return 0;
+        
+        return promptEnergy;
+    }
+    
+    /**
+     * Move echo gain towards given ratio of frame energy to prompt energy
+     */
+    private void learnEchoGain( float ratio )
+    {
+        if ( m_echoGain < 0 )
+        {
+            m_echoGain = ratio;
+        }
+        else
+        {
+            m_echoGain += (ratio - m_echoGain) * (ratio > m_echoGain ? ECHO_GAIN_RISE : ECHO_GAIN_FALL);
+        }
+        
+        m_echoGain = Math.min( m_echoGain, MAX_ECHO_GAIN );
+    }
+    
+    private Event processFrame( float energy, float promptEnergy )
+    {
+        if ( m_isEnded ) return Event.NONE;
+        
+        if ( m_noiseEnergy < 0 ) m_noiseEnergy = energy;
+        
+        // Echo path is first guessed from the first prompt frame, user hardly ever talks right then
+        if ( promptEnergy > 0 && m_echoGain < 0 ) learnEchoGain( energy / promptEnergy );
+        
+        final float expectedEcho = promptEnergy > 0 ? promptEnergy * m_echoGain : promptEnergy;
+        final boolean isLoud = energy > MIN_SPEECH_ENERGY && energy > m_noiseEnergy * ONSET_RATIO 
+                               && energy > expectedEcho * ECHO_MARGIN;
+        
+        if ( !m_inSpeech )
+        {
+            if ( isLoud )
+            {
+                m_speechFrames += 1;
+                if ( m_speechFrames >= m_onsetFrames )
+                {
+                    m_inSpeech = true;
+                    m_silenceFrames = 0;
+                    
+                    return Event.SPEECH_STARTED;
+                }
+            }
+            else
+            {
+                m_speechFrames = 0;
+                
+                // Learn echo path only from frames not taken for speech
+                if ( promptEnergy > 0 ) learnEchoGain( energy / promptEnergy );
+                
+                // Follow the noise down quickly and up slowly, unless it is prompt echo
+                if ( expectedEcho > 0 )
+                {
+                    // Keep noise estimate
+                }
+                else if ( energy < m_noiseEnergy )
+                {
+                    m_noiseEnergy = energy;
+                }
+                else
+                {
+                    m_noiseEnergy += (energy - m_noiseEnergy) * NOISE_ADAPTATION;
+                }
+            }
+        }
+        else
+        {
+            if ( isLoud )
+            {
+                m_silenceFrames = 0;
+            }
+            else
+            {
+                m_silenceFrames += 1;
+                if ( m_silenceFrames >= m_trailingFrames )
+                {
+                    m_inSpeech = false;
+                    m_isEnded = true;
+                    
+                    return Event.SPEECH_ENDED;
+                }
+            }
+        }
+        
+        return Event.NONE;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This class is used to run several filters one after another
+ */
+final class SphinxFilterChain
+    implements SphinxAudioFilter
+{
+    private SphinxAudioFilter[] m_filters = new SphinxAudioFilter[ 0 ];
+    
+    /**
+     * Add filter to the end of the chain. Must be called before the chain 
+     * is in use.
+     */
+    SphinxFilterChain add( SphinxAudioFilter filter )
+    {
+        final SphinxAudioFilter[] filters = new SphinxAudioFilter[ m_filters.length + 1 ];
+        System.arraycopy( m_filters, 0, filters, 0, m_filters.length );
+        filters[ m_filters.length ] = filter;
+        
+        m_filters = filters;
+        
+        return this;
+    }
+    
+    public void process( short[] samples, int length )
+    {
+        for ( int i = 0; i < m_filters.length; i++ )
+        {
+            m_filters[ i ].process( samples, length );
+        }
+    }
+    
+    public void reset()
+    {
+        for ( int i = 0; i < m_filters.length; i++ )
+        {
+            m_filters[ i ].reset();
+        }
+    }
+}
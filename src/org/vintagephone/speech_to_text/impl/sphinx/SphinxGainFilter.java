@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This class is a base of filters that scale samples by a gain chosen per 
+ * 10 ms frame. Gain is ramped linearly across each frame, so that changing it
+ * does not produce clicks.
+ */
+abstract class SphinxGainFilter
+    implements SphinxAudioFilter
+{
+    static final int FRAME_SIZE = SphinxAudioTask.SAMPLE_RATE / 100;
+    
+    private float m_gain = 1;
+    
+    public void process( short[] samples, int length )
+    {
+        for ( int start = 0; start < length; start += FRAME_SIZE )
+        {
+            final int end = Math.min( start + FRAME_SIZE, length );
+            
+            long sum = 0;
+            int peak = 0;
+            for ( int i = start; i < end; i++ )
+            {
+                final int magnitude = Math.abs( samples[ i ] );
+                
+                sum += magnitude;
+                if ( magnitude > peak ) peak = magnitude;
+            }
+            
+            final float level = sum / (float)(end - start);
+            final float gain = getFrameGain( level, peak );
+            
+            applyGain( samples, start, end, m_gain, gain );
+            m_gain = gain;
+        }
+    }
+    
+    public void reset()
+    {
+        m_gain = 1;
+    }
+    
+    /**
+     * @return gain current frame should end with
+     * 
+     * @param level mean absolute sample value of the frame before gain
+     * @param peak largest absolute sample value of the frame before gain
+     */
+    abstract float getFrameGain( float level, int peak );
+    
+    float getGain()
+    {
+        return m_gain;
+    }
+    
+    private static void applyGain( short[] samples, int start, int end, float startGain, float endGain )
+    {
+        if ( startGain == 1 && endGain == 1 ) return;
+        
+        final float step = (endGain - startGain) / (end - start);
+        
+        float gain = startGain;
+        for ( int i = start; i < end; i++ )
+        {
+            gain += step;
+            samples[ i ] = SphinxDcBlocker.clip( (int)(samples[ i ] * gain) );
+        }
+    }
+}
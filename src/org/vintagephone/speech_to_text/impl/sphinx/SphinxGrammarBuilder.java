@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.vintagephone.speech_to_text.RecognitionMode;
+
+import android.util.Log;
+
+/**
+ * This class is used to generate JSGF grammars for operator commands.
+ */
+final class SphinxGrammarBuilder
+{
+    private static final String Tag = "SphinxGrammarBuilder";
+    
+    static final String[] DIGIT_WORDS = { "zero", "oh", "one", "two", "three", "four", 
+                                          "five", "six", "seven", "eight", "nine", "plus" };
+    
+    static final String[] REPEAT_WORDS = { "double", "triple" };
+    
+    static final String[] COMMAND_WORDS = { "call", "dial", "stop", "yes", "no" };
+    
+    static final String[] KEYWORDS = { "stop", "yes", "no" };
+    
+    static final String KEYWORD_GRAMMAR_FILE = "keywords.gram";
+    
+    private final Set<String> m_dictionaryWords;
+    
+    SphinxGrammarBuilder( Set<String> dictionaryWords )
+    {
+        m_dictionaryWords = dictionaryWords;
+    }
+    
+    /**
+     * Write grammar for given mode into the directory.
+     * 
+     * @return grammar file or null if mode does not use a grammar
+     */
+    File writeGrammar( File grammarDir, RecognitionMode mode, Collection<String> names )
+        throws IOException
+    {
+        switch ( mode )
+        {
+            case DIAL_TARGET:  return write( new File( grammarDir, getGrammarFileName( mode ) ), buildDialGrammar( names ) );
+            case CONFIRMATION: return write( new File( grammarDir, getGrammarFileName( mode ) ), buildConfirmationGrammar() );
+            default:           return null;
+        }
+    }
+    
+    /**
+     * Write keyword spotting grammar into the directory, see {@link #buildKeywordGrammar(Collection)}
+     */
+    File writeKeywordGrammar( File grammarDir, Collection<String> names )
+        throws IOException
+    {
+        return write( new File( grammarDir, KEYWORD_GRAMMAR_FILE ), buildKeywordGrammar( names ) );
+    }
+    
+    /**
+     * @return name of grammar file for given mode or null if mode does not use a grammar
+     */
+    static String getGrammarFileName( RecognitionMode mode )
+    {
+        switch ( mode )
+        {
+            case DIAL_TARGET:  return "dial.gram";
+            case CONFIRMATION: return "confirm.gram";
+            default:           return null;
+        }
+    }
+    
+    String buildDialGrammar( Collection<String> names )
+    {
+        final StringBuilder result = new StringBuilder();
+        result.append( "#JSGF V1.0;\n\n" );
+        result.append( "grammar dial;\n\n" );
+        
+        final StringBuilder nameRule = new StringBuilder();
+        for ( String name : names )
+        {
+            final String normalizedName = normalizeName( name );
+            if ( isInDictionary( normalizedName ) )
+            {
+                if ( nameRule.length() > 0 ) nameRule.append( " | " );
+                nameRule.append( normalizedName );
+            }
+            else
+            {
+                Log.w( Tag, "Name \"" + normalizedName + "\" is not in dictionary, it will not be recognized" );
+            }
+        }
+        
+        final StringBuilder digitRule = new StringBuilder();
+        for ( String digit : DIGIT_WORDS )
+        {
+            if ( m_dictionaryWords.contains( digit ) )
+            {
+                if ( digitRule.length() > 0 ) digitRule.append( " | " );
+                digitRule.append( digit );
+            }
+        }
+        
+        if ( nameRule.length() > 0 )
+        {
+            result.append( "public <command> = <call> | <dial> | stop;\n\n" );
+            result.append( "<call> = call <name>;\n" );
+            result.append( "<name> = " ).append( nameRule ).append( ";\n" );
+        }
+        else
+        {
+            result.append( "public <command> = <dial> | stop;\n\n" );
+        }
+        final StringBuilder repeatRule = new StringBuilder();
+        for ( String repeat : REPEAT_WORDS )
+        {
+            if ( m_dictionaryWords.contains( repeat ) )
+            {
+                if ( repeatRule.length() > 0 ) repeatRule.append( " | " );
+                repeatRule.append( repeat );
+            }
+        }
+        
+        if ( repeatRule.length() > 0 )
+        {
+            // "double five" and "triple oh" as people read numbers out
+            result.append( "<dial> = dial <digits>+;\n" );
+            result.append( "<digits> = [" ).append( repeatRule ).append( "] <digit>;\n" );
+        }
+        else
+        {
+            result.append( "<dial> = dial <digit>+;\n" );
+        }
+        result.append( "<digit> = " ).append( digitRule ).append( ";\n" );
+        
+        return result.toString();
+    }
+    
+    String buildConfirmationGrammar()
+    {
+        return "#JSGF V1.0;\n\n" +
+               "grammar confirm;\n\n" +
+               "public <answer> = yes | no | stop;\n";
+    }
+    
+    /**
+     * Build grammar for keyword spotting. Besides keywords it accepts any 
+     * sequence of other words the operator knows (digits, commands and names),
+     * so that e.g. "oh" or "nobody" is decoded as itself instead of being 
+     * forced into "no".
+     */
+    String buildKeywordGrammar( Collection<String> names )
+    {
+        final Set<String> decoys = new TreeSet<String>();
+        Collections.addAll( decoys, DIGIT_WORDS );
+        Collections.addAll( decoys, REPEAT_WORDS );
+        Collections.addAll( decoys, COMMAND_WORDS );
+        for ( String name : names )
+        {
+            Collections.addAll( decoys, normalizeName( name ).split( " " ) );
+        }
+        for ( String keyword : KEYWORDS )
+        {
+            decoys.remove( keyword );
+        }
+        
+        final StringBuilder decoyRule = new StringBuilder();
+        for ( String decoy : decoys )
+        {
+            if ( m_dictionaryWords.contains( decoy ) )
+            {
+                if ( decoyRule.length() > 0 ) decoyRule.append( " | " );
+                decoyRule.append( decoy );
+            }
+        }
+        
+        final StringBuilder result = new StringBuilder();
+        result.append( "#JSGF V1.0;\n\n" );
+        result.append( "grammar keywords;\n\n" );
+        
+        if ( decoyRule.length() > 0 )
+        {
+            result.append( "public <utterance> = <keyword> | <decoy>+;\n\n" );
+            result.append( "<decoy> = " ).append( decoyRule ).append( ";\n" );
+        }
+        else
+        {
+            result.append( "public <utterance> = <keyword>;\n\n" );
+        }
+        result.append( "<keyword> = stop | yes | no;\n" );
+        
+        return result.toString();
+    }
+    
+    /**
+     * @return name in lower case with words separated by single spaces
+     */
+    static String normalizeName( String name )
+    {
+        return name.toLowerCase().trim().replaceAll( "\\s+", " " );
+    }
+    
+    private boolean isInDictionary( String name )
+    {
+        if ( name.length() == 0 ) return false;
+        
+        for ( String word : name.split( " " ) )
+        {
+            if ( !m_dictionaryWords.contains( word ) ) return false;
+        }
+        
+        return true;
+    }
+    
+    private static File write( File file, String grammar )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        
+        final Writer writer = new FileWriter( file );
+        try
+        {
+            writer.write( grammar );
+        }
+        finally
+        {
+            writer.close();
+        }
+        
+        return file;
+    }
+}
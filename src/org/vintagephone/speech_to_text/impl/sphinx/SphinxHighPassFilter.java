@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This class is used to cut off low frequency rumble (handling noise, mains
+ * hum) below the telephone band.
+ * <p>
+ * 	It is a second order Butterworth high-pass biquad in direct form I.
+ * </p>
+ */
+final class SphinxHighPassFilter
+    implements SphinxAudioFilter
+{
+    static final int DEFAULT_CUTOFF = 120; // Hz
+    
+    private final float m_b0;
+    private final float m_b1;
+    private final float m_b2;
+    private final float m_a1;
+    private final float m_a2;
+    
+    private float m_x1, m_x2, m_y1, m_y2;
+    
+    SphinxHighPassFilter( int cutoff, int sampleRate )
+    {
+        final double omega = 2 * Math.PI * cutoff / sampleRate;
+        final double alpha = Math.sin( omega ) / Math.sqrt( 2 ); // Q = 1/sqrt(2)
+        final double cos = Math.cos( omega );
+        final double a0 = 1 + alpha;
+        
+        m_b0 = (float)((1 + cos) / 2 / a0);
+        m_b1 = (float)(-(1 + cos) / a0);
+        m_b2 = m_b0;
+        m_a1 = (float)(-2 * cos / a0);
+        m_a2 = (float)((1 - alpha) / a0);
+    }
+    
+    public void process( short[] samples, int length )
+    {
+        float x1 = m_x1, x2 = m_x2, y1 = m_y1, y2 = m_y2;
+        
+        for ( int i = 0; i < length; i++ )
+        {
+            final float x = samples[ i ];
+            final float y = m_b0 * x + m_b1 * x1 + m_b2 * x2 - m_a1 * y1 - m_a2 * y2;
+            
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+            
+            samples[ i ] = SphinxDcBlocker.clip( Math.round( y ) );
+        }
+        
+        m_x1 = x1; m_x2 = x2; m_y1 = y1; m_y2 = y2;
+    }
+    
+    public void reset()
+    {
+        m_x1 = m_x2 = m_y1 = m_y2 = 0;
+    }
+}
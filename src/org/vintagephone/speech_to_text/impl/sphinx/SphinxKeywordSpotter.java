@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.vintagephone.speech_to_text.SpeechToTextListener;
+
+import android.util.Log;
+import edu.cmu.pocketsphinx.Decoder;
+import edu.cmu.pocketsphinx.Hypothesis;
+
+/**
+ * This class is used to spot "stop", "yes" and "no" in captured audio while
+ * capture is running, whether recognizer is listening or not.
+ * <p>
+ * 	Audio thread copies every block into spotter's own ring (see 
+ *  {@link SphinxAudioTask#setTap(SphinxAudioRing)}). Spotter runs its own 
+ *  endpointer and only decodes while somebody is talking, using a small 
+ *  grammar with tight beams, so it costs a fraction of the main decoder. 
+ *  Short segments decoded as a single keyword are reported as soon as the 
+ *  speaker pauses.
+ * </p>
+ * <p>
+ * 	Every keyword has a threshold for acoustic score per frame, segments 
+ *  scoring below it are rejected. Scores of accepted and rejected segments 
+ *  are logged, so thresholds could be tuned on a device.
+ * </p>
+ */
+class SphinxKeywordSpotter 
+    implements Runnable
+{
+    // Lowest acoustic score per 10 ms frame accepted by default. "stop" and 
+    // "no" cut the prompt or cancel the call, so they need a better match 
+    // than "yes", which only confirms what the user was about to get anyway.
+    static final int DEFAULT_STOP_THRESHOLD = -4000;
+    static final int DEFAULT_NO_THRESHOLD = -4000;
+    static final int DEFAULT_YES_THRESHOLD = -6000;
+    
+    private static final String Tag = "SphinxKeywordSpotter";
+    
+    private static final int RING_CAPACITY = 16;
+    private static final int TRAILING_SILENCE_MILLIS = 250;
+    private static final int MAX_KEYWORD_SAMPLES = 3 * SphinxAudioTask.SAMPLE_RATE / 2; // 1.5 seconds
+    
+    private final SphinxConfiguration m_configuration;
+    private final SphinxAudioRing m_audioRing;
+    private final SphinxEndpointer m_endpointer = new SphinxEndpointer();
+    private final Map<String, Integer> m_thresholds = new ConcurrentHashMap<String, Integer>();
+    
+    private volatile SpeechToTextListener m_listener;
+    private volatile boolean m_isTerminated = false;
+    private volatile boolean m_hasGrammar = false;
+    
+    // Decoder to switch to once current segment is over
+    private final Object m_decoderLock = new Object();
+    private Decoder m_pendingDecoder;
+    
+    // Decoding state (only accessed from spotter thread)
+    private Decoder m_decoder;
+    private final SphinxAudioBlock m_previousBlock;
+    private boolean m_isInSegment = false;
+    private boolean m_isTooLong = false;
+    private int m_segmentSamples = 0;
+    
+    SphinxKeywordSpotter( SphinxConfiguration configuration, int blockSize )
+    {
+        m_configuration = configuration;
+        m_audioRing = new SphinxAudioRing( RING_CAPACITY, blockSize );
+        m_previousBlock = new SphinxAudioBlock( blockSize );
+        
+        m_endpointer.setTrailingSilenceMillis( TRAILING_SILENCE_MILLIS );
+        
+        m_thresholds.put( "stop", DEFAULT_STOP_THRESHOLD );
+        m_thresholds.put( "no", DEFAULT_NO_THRESHOLD );
+        m_thresholds.put( "yes", DEFAULT_YES_THRESHOLD );
+    }
+    
+    SphinxAudioRing getAudioRing()
+    {
+        return m_audioRing;
+    }
+    
+    /**
+     * Ignore echo of prompts described by given reference
+     */
+    void setEchoReference( SphinxEchoReference echoReference )
+    {
+        m_endpointer.setEchoReference( echoReference );
+    }
+    
+    void setListener( SpeechToTextListener listener )
+    {
+        m_listener = listener;
+    }
+    
+    /**
+     * Set lowest acoustic score per 10 ms frame accepted for given keyword, 
+     * replacing its default
+     */
+    void setThreshold( String keyword, int threshold )
+    {
+        m_thresholds.put( keyword, threshold );
+    }
+    
+    /**
+     * Use given grammar from now on. Decoder is created on calling thread and 
+     * swapped in by spotter thread between segments.
+     */
+    void setGrammar( File grammar, File dictionary )
+    {
+        try
+        {
+            final Decoder decoder = new Decoder( m_configuration.createKeywordConfig( grammar.getAbsolutePath(), dictionary.getAbsolutePath() ) );
+            
+            synchronized ( m_decoderLock )
+            {
+                if ( m_pendingDecoder != null ) m_pendingDecoder.delete();
+                m_pendingDecoder = decoder;
+            }
+            m_hasGrammar = true;
+            
+            Log.i( Tag, "Keyword grammar loaded from " + grammar );
+        }
+        catch ( Exception e )
+        {
+            Log.e( Tag, "Unable to load keyword grammar " + grammar, e );
+        }
+    }
+    
+    /**
+     * @return true once a keyword grammar has been loaded. Spotter drops 
+     *         every block until then.
+     */
+    boolean hasGrammar()
+    {
+        return m_hasGrammar;
+    }
+    
+    void stop()
+    {
+        m_isTerminated = true;
+        m_audioRing.wakeUp();
+    }
+    
+    public void run()
+    {
+        while ( !m_isTerminated )
+        {
+            try
+            {
+                final SphinxAudioBlock block = m_audioRing.take( true );
+                if ( block == null ) continue;
+                
+                if ( !m_isInSegment ) updateDecoder();
+                
+                if ( m_decoder != null ) process( block );
+                
+                m_audioRing.release( block );
+            }
+            catch ( InterruptedException e )
+            {
+                Log.d( Tag, "Interrupted waiting for audio");
+            }
+        }
+        
+        if ( m_decoder != null ) m_decoder.delete();
+    }
+    
+    private void process( SphinxAudioBlock block )
+    {
+        final SphinxEndpointer.Event event = m_endpointer.process( block.samples, block.length, block.capturedAt );
+        
+        if ( !m_isInSegment )
+        {
+            if ( event == SphinxEndpointer.Event.SPEECH_STARTED )
+            {
+                // Onset was detected late in this block, so previous block is decoded too
+                m_decoder.startUtt();
+                m_isInSegment = true;
+                m_isTooLong = false;
+                m_segmentSamples = 0;
+                
+                decode( m_previousBlock );
+                decode( block );
+            }
+            else
+            {
+                System.arraycopy( block.samples, 0, m_previousBlock.samples, 0, block.length );
+                m_previousBlock.length = block.length;
+            }
+        }
+        else
+        {
+            if ( !m_isTooLong )
+            {
+                decode( block );
+                
+                if ( m_segmentSamples > MAX_KEYWORD_SAMPLES )
+                {
+                    // Keywords are short, long sentences are left to the main decoder
+                    m_decoder.endUtt();
+                    m_isTooLong = true;
+                }
+            }
+            
+            if ( event == SphinxEndpointer.Event.SPEECH_ENDED )
+            {
+                if ( !m_isTooLong ) finishSegment();
+                
+                m_isInSegment = false;
+                m_previousBlock.length = 0;
+                m_endpointer.reset();
+            }
+        }
+    }
+    
+    private void decode( SphinxAudioBlock block )
+    {
+        if ( block.length == 0 ) return;
+        
+        m_decoder.processRaw( block.samples, block.length, false, false );
+        m_segmentSamples += block.length;
+    }
+    
+    private void finishSegment()
+    {
+        m_decoder.endUtt();
+        
+        final Hypothesis hypothesis = m_decoder.getHyp();
+        if ( hypothesis == null || hypothesis.getHypstr() == null ) return;
+        
+        final String text = hypothesis.getHypstr().trim();
+        final Integer threshold = m_thresholds.get( text );
+        if ( threshold == null ) return;
+        
+        final int frames = Math.max( 1, m_segmentSamples / SphinxEndpointer.FRAME_SIZE );
+        final int score = hypothesis.getBest_score() / frames;
+        
+        if ( score >= threshold )
+        {
+            Log.i( Tag, "Keyword \"" + text + "\" spotted (score " + score + " per frame, " + frames + " frames)");
+            
+            final SpeechToTextListener listener = m_listener;
+            if ( listener != null ) listener.keywordSpotted( text );
+        }
+        else
+        {
+            Log.i( Tag, "Keyword \"" + text + "\" rejected (score " + score + " per frame, threshold " + threshold + ")");
+        }
+    }
+    
+    private void updateDecoder()
+    {
+        final Decoder decoder;
+        synchronized ( m_decoderLock )
+        {
+            decoder = m_pendingDecoder;
+            m_pendingDecoder = null;
+        }
+        if ( decoder == null ) return;
+        
+        if ( m_decoder != null ) m_decoder.delete();
+        m_decoder = decoder;
+    }
+}
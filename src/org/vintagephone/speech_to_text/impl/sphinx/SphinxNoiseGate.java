@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This class is used to attenuate background noise between words, so that 
+ * decoder does not spend its beam on hiss and hum.
+ * <p>
+ * 	Noise floor is tracked as a slowly rising minimum of frame levels. Gate
+ *  opens as soon as a frame is well above the floor and closes again after a
+ *  short hold. Closed gate attenuates rather than mutes: digital silence 
+ *  makes cepstral features of the gaps meaningless.
+ * </p>
+ */
+final class SphinxNoiseGate
+    extends SphinxGainFilter
+{
+    private static final float OPEN_RATIO = 2.5f;         // ~8 dB above noise floor
+    private static final float CLOSED_GAIN = 0.25f;       // -12 dB
+    private static final float RELEASE = 0.15f;           // share of the way to closed gain per frame
+    private static final int HOLD_FRAMES = 20;            // 200 ms
+    private static final float FLOOR_RISE = 1.005f;       // per frame, doubles in ~1.4 s
+    private static final float FLOOR_FALL = 0.2f;
+    private static final float MIN_FLOOR = 2;
+    
+    private float m_noiseFloor = -1;
+    private int m_holdFrames = 0;
+    
+    float getFrameGain( float level, int peak )
+    {
+        if ( m_noiseFloor < 0 )
+        {
+            m_noiseFloor = Math.max( level, MIN_FLOOR );
+        }
+        else if ( level < m_noiseFloor )
+        {
+            m_noiseFloor += (level - m_noiseFloor) * FLOOR_FALL;
+        }
+        else
+        {
+            m_noiseFloor *= FLOOR_RISE;
+        }
+        if ( m_noiseFloor < MIN_FLOOR ) m_noiseFloor = MIN_FLOOR;
+        
+        if ( level > m_noiseFloor * OPEN_RATIO )
+        {
+            m_holdFrames = HOLD_FRAMES;
+        }
+        else if ( m_holdFrames > 0 )
+        {
+            m_holdFrames -= 1;
+        }
+        
+        if ( m_holdFrames > 0 )
+        {
+            // Open right away, so that onsets are not cut
+            return 1;
+        }
+        else
+        {
+            return getGain() + (CLOSED_GAIN - getGain()) * RELEASE;
+        }
+    }
+    
+    public void reset()
+    {
+        super.reset();
+        
+        m_noiseFloor = -1;
+        m_holdFrames = 0;
+    }
+    
+    float getNoiseFloor()
+    {
+        return m_noiseFloor;
+    }
+}
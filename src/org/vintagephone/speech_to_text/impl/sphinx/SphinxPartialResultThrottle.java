@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import edu.cmu.pocketsphinx.Decoder;
+
+/**
+ * This class is used to decide when partial hypothesis is worth extracting 
+ * from decoder.
+ * <p>
+ * 	Extracting a hypothesis backtraces through the search and creates a 
+ *  couple of objects, while partial results are only useful a few times a 
+ *  second. Hypothesis is extracted once per interval of decoded audio, and 
+ *  only if some word has ended since the last one was extracted (best path
+ *  can not change otherwise).
+ * </p>
+ */
+final class SphinxPartialResultThrottle
+{
+    static final int DEFAULT_INTERVAL = 250; // ms of audio
+    
+    private volatile int m_intervalSamples = toSamples( DEFAULT_INTERVAL );
+    
+    // Only accessed from decoding thread
+    private int m_pendingSamples = 0;
+    private int m_lastWordExits = -1;
+    
+    // Statistics
+    private volatile long m_extracted = 0;
+    private volatile long m_throttled = 0;
+    private volatile long m_unchanged = 0;
+    
+    /**
+     * @param intervalMillis least amount of decoded audio between two partial
+     *        hypotheses, 0 to consider every block
+     */
+    void setInterval( int intervalMillis )
+    {
+        m_intervalSamples = toSamples( intervalMillis );
+    }
+    
+    /**
+     * Forget about previous utterance
+     */
+    void reset()
+    {
+        m_pendingSamples = 0;
+        m_lastWordExits = -1;
+    }
+    
+    /**
+     * @param decoder decoder that has just decoded given number of samples
+     * @return true if partial hypothesis should be extracted now
+     */
+    boolean shouldExtract( Decoder decoder, int samples )
+    {
+        m_pendingSamples += samples;
+        if ( m_pendingSamples < m_intervalSamples )
+        {
+            m_throttled += 1;
+            return false;
+        }
+        m_pendingSamples = 0;
+        
+        // Unknown search type reports -1 and is always extracted
+        final int wordExits = decoder.getWordExits();
+        if ( wordExits >= 0 && wordExits == m_lastWordExits )
+        {
+            m_unchanged += 1;
+            return false;
+        }
+        m_lastWordExits = wordExits;
+        
+        m_extracted += 1;
+        return true;
+    }
+    
+    /**
+     * Append statistics collected since start to given buffer
+     * 
+     * @param extractMicros average time of one extraction
+     */
+    void dump( StringBuilder result, long extractMicros )
+    {
+        final long skipped = m_throttled + m_unchanged;
+        
+        result.append( "partial results: extracted=" ).append( m_extracted )
+              .append( " throttled=" ).append( m_throttled )
+              .append( " unchanged=" ).append( m_unchanged )
+              .append( " saved~" ).append( skipped * extractMicros / 1000 ).append( "ms\n" );
+    }
+    
+    private static int toSamples( int millis )
+    {
+        return millis * (SphinxAudioTask.SAMPLE_RATE / 1000);
+    }
+}
@@ -0,0 +1,518 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vintagephone.speech_to_text.RecognitionMode;
+
+import android.util.Log;
+
+/**
+ * This class is used to save decoded utterances to storage for later tuning
+ * of the recognizer, without slowing the recognizer down.
+ * <p>
+ * 	Recognizer thread copies every decoded block into a ring of its own and 
+ *  queues the number of blocks copied once the utterance ends. Samples are 
+ *  written to a temporary file by the sink thread, which either keeps the 
+ *  file or deletes it once all blocks of the utterance are written. If 
+ *  storage can not keep up and the ring fills, the rest of the utterance is
+ *  dropped instead of stalling the recognizer, and the partial recording is
+ *  thrown away.
+ * </p>
+ * <p>
+ * 	Utterances are saved as <code>id.raw</code> (16-bit little-endian mono 
+ *  PCM, same as the test corpus uses) or, in compact mode, as 
+ *  <code>id.wav</code> with 8-bit mu-law samples. Hypothesis is saved next to
+ *  it as <code>id.txt</code>. Ids start with the time the utterance ended, so
+ *  once the directory grows over its quota the oldest recordings are removed.
+ * </p>
+ */
+final class SphinxRecordingSink
+    implements Runnable
+{
+    static final long DEFAULT_QUOTA = 20 * 1024 * 1024; // bytes
+    static final float MISRECOGNIZED_CONFIDENCE = 0.6f;
+    
+    private static final String Tag = "SphinxRecordingSink";
+    
+    private static final int RING_CAPACITY = 64; // ~8 seconds of audio
+    private static final String TEMP_FILE = "recording.tmp";
+    private static final int WAV_HEADER_SIZE = 58;
+    private static final short WAVE_FORMAT_MULAW = 7;
+    
+    // Parent objects
+    private final File m_directory;
+    private final SphinxAudioRing m_audioRing;
+    private final ConcurrentLinkedQueue<Ending> m_endings = new ConcurrentLinkedQueue<Ending>();
+    
+    // Settings (changed from any thread, take effect from next utterance)
+    private volatile boolean m_isEnabled = true;
+    private volatile boolean m_isMisrecognizedOnly = false;
+    private volatile boolean m_isCompact = false;
+    private volatile long m_quota = DEFAULT_QUOTA;
+    
+    // Producer state (only accessed from recognizer thread)
+    private boolean m_isDropping = false;
+    private boolean m_hasAudio = false;
+    private int m_publishedBlocks = 0;
+    
+    // Writer state (only accessed from sink thread)
+    private final byte[] m_buffer;
+    private final SimpleDateFormat m_idFormat = new SimpleDateFormat( "yyyyMMdd-HHmmss-SSS", Locale.US );
+    private OutputStream m_output = null;
+    private boolean m_isOutputCompact = false;
+    private boolean m_isFailed = false;
+    private int m_writtenBlocks = 0;
+    private long m_writtenSamples = 0;
+    
+    private volatile boolean m_isTerminated = false;
+    
+    // Statistics
+    private final AtomicLong m_saved = new AtomicLong();
+    private final AtomicLong m_skipped = new AtomicLong();
+    private final AtomicLong m_dropped = new AtomicLong();
+    private final AtomicLong m_droppedBlocks = new AtomicLong();
+    private final AtomicLong m_failed = new AtomicLong();
+    private final AtomicLong m_evicted = new AtomicLong();
+    
+    /**
+     * End of utterance, complete once given number of blocks is written
+     */
+    private static final class Ending
+    {
+        final int blocks;
+        final long endedAt;
+        final RecognitionMode mode;
+        final String hypothesis;
+        final boolean shouldKeep;
+        
+        Ending( int blocks, long endedAt, RecognitionMode mode, String hypothesis, boolean shouldKeep )
+        {
+            this.blocks = blocks;
+            this.endedAt = endedAt;
+            this.mode = mode;
+            this.hypothesis = hypothesis;
+            this.shouldKeep = shouldKeep;
+        }
+    }
+    
+    SphinxRecordingSink( File directory, int blockSize )
+    {
+        m_directory = directory;
+        m_audioRing = new SphinxAudioRing( RING_CAPACITY, blockSize );
+        m_buffer = new byte[ 2 * blockSize ];
+    }
+    
+    void setEnabled( boolean isEnabled )
+    {
+        m_isEnabled = isEnabled;
+    }
+    
+    /**
+     * Only keep utterances that produced no hypothesis or one with confidence
+     * below {@link #MISRECOGNIZED_CONFIDENCE}
+     */
+    void setMisrecognizedOnly( boolean isMisrecognizedOnly )
+    {
+        m_isMisrecognizedOnly = isMisrecognizedOnly;
+    }
+    
+    /**
+     * Save samples as 8-bit mu-law instead of 16-bit PCM, which halves the 
+     * size of recordings
+     */
+    void setCompact( boolean isCompact )
+    {
+        m_isCompact = isCompact;
+    }
+    
+    /**
+     * Set largest number of bytes recordings may take up on storage
+     */
+    void setQuota( long quota )
+    {
+        m_quota = quota;
+    }
+    
+    void stop()
+    {
+        m_isTerminated = true;
+        m_audioRing.wakeUp();
+    }
+    
+    /**
+     * Append statistics collected since start to given buffer
+     */
+    void dump( StringBuilder result )
+    {
+        result.append( "recording: saved=" ).append( m_saved.get() )
+              .append( " skipped=" ).append( m_skipped.get() )
+              .append( " dropped=" ).append( m_dropped.get() )
+              .append( " (blocks=" ).append( m_droppedBlocks.get() ).append( ')' )
+              .append( " failed=" ).append( m_failed.get() )
+              .append( " evicted=" ).append( m_evicted.get() ).append( '\n' );
+    }
+    
+    // Producer side
+    
+    /**
+     * Copy decoded block into the ring. Called from recognizer thread.
+     */
+    void append( SphinxAudioBlock block )
+    {
+        if ( !m_isEnabled || block.length == 0 ) return;
+        
+        m_hasAudio = true;
+        
+        if ( m_isDropping || m_audioRing.size() >= m_audioRing.getCapacity() )
+        {
+            if ( !m_isDropping ) Log.w( Tag, "Storage is too slow, dropping recording of current utterance");
+            
+            m_isDropping = true;
+            m_droppedBlocks.incrementAndGet();
+            return;
+        }
+        
+        final SphinxAudioBlock copy = m_audioRing.acquire();
+        System.arraycopy( block.samples, 0, copy.samples, 0, block.length );
+        copy.length = block.length;
+        copy.capturedAt = block.capturedAt;
+        
+        m_audioRing.publish( copy );
+        m_publishedBlocks += 1;
+    }
+    
+    /**
+     * End current utterance and decide whether it is kept. Called from 
+     * recognizer thread.
+     * 
+     * @param hypothesis final hypothesis or null if nothing was recognized
+     * @param confidence confidence of the hypothesis
+     */
+    void finish( RecognitionMode mode, String hypothesis, float confidence )
+    {
+        final boolean isMisrecognized = hypothesis == null || hypothesis.length() == 0 || confidence < MISRECOGNIZED_CONFIDENCE;
+        
+        end( mode, hypothesis, !m_isMisrecognizedOnly || isMisrecognized );
+    }
+    
+    /**
+     * End current utterance without keeping it
+     */
+    void discard()
+    {
+        end( null, null, false );
+    }
+    
+    private void end( RecognitionMode mode, String hypothesis, boolean shouldKeep )
+    {
+        if ( m_hasAudio )
+        {
+            if ( m_isDropping )
+            {
+                m_dropped.incrementAndGet();
+            }
+            else if ( !shouldKeep )
+            {
+                m_skipped.incrementAndGet();
+            }
+            
+            m_endings.offer( new Ending( m_publishedBlocks, System.currentTimeMillis(), mode, hypothesis, shouldKeep && !m_isDropping ) );
+            m_audioRing.wakeUp();
+        }
+        
+        m_isDropping = false;
+        m_hasAudio = false;
+        m_publishedBlocks = 0;
+    }
+    
+    // Consumer side
+    
+    public void run()
+    {
+        while ( !m_isTerminated )
+        {
+            try
+            {
+                final SphinxAudioBlock block = m_audioRing.take( true );
+                
+                // Ending is queued before any block of the next utterance is published
+                Ending ending = m_endings.peek();
+                while ( ending != null && ending.blocks == m_writtenBlocks )
+                {
+                    complete( m_endings.poll() );
+                    ending = m_endings.peek();
+                }
+                
+                if ( block != null )
+                {
+                    write( block );
+                    m_audioRing.release( block );
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Log.d( Tag, "Interrupted waiting for audio");
+            }
+        }
+        
+        closeOutput();
+        getTempFile().delete();
+    }
+    
+    private void write( SphinxAudioBlock block )
+    {
+        m_writtenBlocks += 1;
+        if ( m_isFailed ) return;
+        
+        try
+        {
+            if ( m_output == null ) openOutput();
+            
+            final int length;
+            if ( m_isOutputCompact )
+            {
+                for ( int i = 0; i < block.length; i++ )
+                {
+                    m_buffer[ i ] = toMuLaw( block.samples[ i ] );
+                }
+                length = block.length;
+            }
+            else
+            {
+                for ( int i = 0; i < block.length; i++ )
+                {
+                    final short sample = block.samples[ i ];
+                    m_buffer[ 2*i ]     = (byte)sample;
+                    m_buffer[ 2*i + 1 ] = (byte)(sample >> 8);
+                }
+                length = 2 * block.length;
+            }
+            
+            m_output.write( m_buffer, 0, length );
+            m_writtenSamples += block.length;
+        }
+        catch ( IOException e )
+        {
+            Log.w( Tag, "Unable to write recording, skipping current utterance", e );
+            
+            m_isFailed = true;
+        }
+    }
+    
+    private void openOutput()
+        throws IOException
+    {
+        m_directory.mkdirs();
+        
+        m_isOutputCompact = m_isCompact;
+        m_output = new BufferedOutputStream( new FileOutputStream( getTempFile() ), 16384 );
+        
+        // Header is filled in once the length is known
+        if ( m_isOutputCompact ) m_output.write( new byte[ WAV_HEADER_SIZE ] );
+    }
+    
+    /**
+     * Keep or delete recording of the utterance that has just ended
+     */
+    private void complete( Ending ending )
+    {
+        final boolean wasFailed = m_isFailed;
+        final boolean isClosed = closeOutput();
+        
+        final File temp = getTempFile();
+        if ( !ending.shouldKeep || wasFailed || !isClosed || m_writtenSamples == 0 )
+        {
+            if ( ending.shouldKeep && (wasFailed || !isClosed) ) m_failed.incrementAndGet();
+            
+            temp.delete();
+        }
+        else
+        {
+            final String id = m_idFormat.format( new Date( ending.endedAt ) ) + "-" + ending.mode.name().toLowerCase( Locale.US );
+            
+            try
+            {
+                if ( m_isOutputCompact ) writeWavHeader( temp, m_writtenSamples );
+                
+                final File target = new File( m_directory, id + (m_isOutputCompact ? ".wav" : ".raw") );
+                if ( !temp.renameTo( target ) ) throw new IOException( "Unable to rename " + temp + " to " + target );
+                
+                final Writer writer = new FileWriter( new File( m_directory, id + ".txt" ) );
+                try
+                {
+                    writer.write( ending.hypothesis != null ? ending.hypothesis : "" );
+                    writer.write( '\n' );
+                }
+                finally
+                {
+                    writer.close();
+                }
+                
+                m_saved.incrementAndGet();
+                
+                enforceQuota();
+            }
+            catch ( IOException e )
+            {
+                Log.w( Tag, "Unable to save recording " + id, e );
+                
+                m_failed.incrementAndGet();
+                temp.delete();
+            }
+        }
+        
+        m_isFailed = false;
+        m_writtenBlocks = 0;
+        m_writtenSamples = 0;
+    }
+    
+    /**
+     * @return true if output was closed without errors or was not open
+     */
+    private boolean closeOutput()
+    {
+        if ( m_output == null ) return true;
+        
+        try
+        {
+            m_output.close();
+            return true;
+        }
+        catch ( IOException e )
+        {
+            Log.w( Tag, "Unable to close recording", e );
+            return false;
+        }
+        finally
+        {
+            m_output = null;
+        }
+    }
+    
+    /**
+     * Remove oldest recordings until the directory fits into the quota
+     */
+    private void enforceQuota()
+    {
+        final File[] files = m_directory.listFiles();
+        if ( files == null ) return;
+        
+        // Ids start with a timestamp, so name order is age order
+        Arrays.sort( files );
+        
+        long total = 0;
+        for ( File file : files )
+        {
+            total += file.length();
+        }
+        
+        final long quota = m_quota;
+        for ( int i = 0; i < files.length && total > quota; i++ )
+        {
+            if ( files[ i ].getName().equals( TEMP_FILE ) ) continue;
+            
+            final long length = files[ i ].length();
+            if ( files[ i ].delete() )
+            {
+                total -= length;
+                m_evicted.incrementAndGet();
+            }
+        }
+    }
+    
+    private File getTempFile()
+    {
+        return new File( m_directory, TEMP_FILE );
+    }
+    
+    private static void writeWavHeader( File file, long samples )
+        throws IOException
+    {
+        final RandomAccessFile output = new RandomAccessFile( file, "rw" );
+        try
+        {
+            final int dataSize = (int)samples;
+            
+            output.writeBytes( "RIFF" );
+            output.writeInt( Integer.reverseBytes( WAV_HEADER_SIZE - 8 + dataSize ) );
+            output.writeBytes( "WAVE" );
+            
+            output.writeBytes( "fmt " );
+            output.writeInt( Integer.reverseBytes( 18 ) );
+            output.writeShort( Short.reverseBytes( WAVE_FORMAT_MULAW ) );
+            output.writeShort( Short.reverseBytes( (short)1 ) );
+            output.writeInt( Integer.reverseBytes( SphinxAudioTask.SAMPLE_RATE ) );
+            output.writeInt( Integer.reverseBytes( SphinxAudioTask.SAMPLE_RATE ) );
+            output.writeShort( Short.reverseBytes( (short)1 ) );
+            output.writeShort( Short.reverseBytes( (short)8 ) );
+            output.writeShort( 0 );
+            
+            output.writeBytes( "fact" );
+            output.writeInt( Integer.reverseBytes( 4 ) );
+            output.writeInt( Integer.reverseBytes( dataSize ) );
+            
+            output.writeBytes( "data" );
+            output.writeInt( Integer.reverseBytes( dataSize ) );
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+    
+    /**
+     * Encode sample using G.711 mu-law
+     */
+    static byte toMuLaw( short sample )
+    {
+        int value = sample;
+        final int sign = value < 0 ? 0x80 : 0;
+        if ( value < 0 ) value = -value;
+        if ( value > 32635 ) value = 32635;
+        value += 0x84;
+        
+        int exponent = 7;
+        for ( int mask = 0x4000; (value & mask) == 0 && exponent > 0; mask >>= 1 )
+        {
+            exponent -= 1;
+        }
+        
+        final int mantissa = (value >> (exponent + 3)) & 0x0F;
+        
+        return (byte)~(sign | (exponent << 4) | mantissa);
+    }
+}
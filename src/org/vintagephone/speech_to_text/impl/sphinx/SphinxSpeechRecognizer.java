@@ -21,14 +21,27 @@
  */
 package org.vintagephone.speech_to_text.impl.sphinx;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.vintagephone.speech_to_text.PromptEnvelope;
+import org.vintagephone.speech_to_text.RecognitionAlternative;
+import org.vintagephone.speech_to_text.RecognitionMode;
 import org.vintagephone.speech_to_text.SpeechToTextListener;
+import org.vintagephone.trace.Trace;
+import org.vintagephone.trace.TraceEvent;
+import org.vintagephone.trace.TraceSubsystem;
 
 import android.util.Log;
-import edu.cmu.pocketsphinx.Config;
 import edu.cmu.pocketsphinx.Decoder;
 import edu.cmu.pocketsphinx.Hypothesis;
+import edu.cmu.pocketsphinx.NBest;
 import edu.cmu.pocketsphinx.pocketsphinx;
 
 /**
@@ -56,9 +69,36 @@ class SphinxSpeechRecognizer implements Runnable
         }
     }
     
+    static final int DEFAULT_PRE_ROLL_MILLIS = 300;
+    
+    private static final long FLUSH_TIMEOUT = 250; // ms
+    
+    private static final int WARM_UP_SAMPLES = 8000; // 1 second
+    
+    private static final int MAX_ALTERNATIVES = 5;
+    private static final int MAX_NBEST_STEPS = 20; // N-best repeats sentences with different fillers
+    
+    static final float DEFAULT_DUAL_DECODING_THRESHOLD = 0.6f;
+    
     // Child objects
+    private final SphinxConfiguration m_configuration;
+    private final List<Decoder> m_retiredDecoders = new ArrayList<Decoder>();
+    private final Object m_vocabularyLock = new Object();
+    
+    private SphinxAudioSource m_audioSource;
     private SphinxAudioTask m_audioTask;   
+    private Decoder m_languageModelDecoder;
+    private volatile Map<RecognitionMode, Decoder> m_decoders;
     private Decoder m_decoder;
+    private final SphinxEndpointer m_endpointer = new SphinxEndpointer();
+    private final SphinxStatistics m_statistics = new SphinxStatistics();
+    private final SphinxPartialResultThrottle m_partialThrottle = new SphinxPartialResultThrottle();
+    private final SphinxKeywordSpotter m_keywordSpotter;
+    private final SphinxEchoReference m_echoReference = new SphinxEchoReference();
+    private SphinxCmnStore m_cmnStore;
+    private final SphinxRecordingSink m_recordingSink;
+    private SphinxDecoderWorker m_languageModelWorker;
+    private final SphinxAudioBlock m_heldBlock = new SphinxAudioBlock( SphinxAudioTask.DEFAULT_BLOCK_SIZE );
     
     // State objects
     private AtomicBoolean m_isListening = new AtomicBoolean( false );
@@ -68,169 +108,1032 @@ class SphinxSpeechRecognizer implements Runnable
     
     private SpeechToTextListener m_listener;
     
-    private volatile boolean m_isStopped = false;
+    private final Object m_stateLock = new Object();
+    private volatile boolean m_isStopped = true;
+    private boolean m_isProcessing = false;
+    private boolean m_isFinishing = false;
+    private boolean m_shouldRecognize = false;
     private String m_lastHypothesis = "";
+    private volatile boolean m_isUtteranceEnded = false;
+    
+    private boolean m_isWarmUpEnabled = true;
+    private volatile boolean m_isKeywordSpottingEnabled = false;
+    private boolean m_isEndpointingEnabled = true;
+    private boolean m_isGrammarEnabled = true;
+    private volatile RecognitionMode m_mode = RecognitionMode.FREE_SPEECH;
+    private RecognitionMode m_utteranceMode = RecognitionMode.FREE_SPEECH;
+    private Collection<String> m_vocabulary = new ArrayList<String>();
+    private int m_preRollMillis = DEFAULT_PRE_ROLL_MILLIS;
+    private boolean m_isPreprocessingEnabled = true;
+    private int m_highPassCutoff = 0;
+    private SphinxOverflowPolicy m_overflowPolicy = SphinxOverflowPolicy.DROP_NEWEST;
+    private boolean m_isDualDecodingEnabled = false;
+    private volatile float m_dualDecodingThreshold = DEFAULT_DUAL_DECODING_THRESHOLD;
+    private boolean m_isDualUtterance = false;
+    
+    // Latency from end of utterance to final result
+    private long m_finishRequestedAt = 0;
+    private long m_firstUtteranceLatency = -1;
+    private long m_steadyStateLatencyTotal = 0;
+    private int m_steadyStateUtterances = 0;
+    
+    // Current utterance measurements (only accessed from recognizer thread after start)
+    private long m_utteranceStartedAt = 0;
+    private boolean m_hasPartial = false;
+    private boolean m_hasSpeech = false;
+    private int m_utteranceBlocks = 0;
+    private int m_utteranceBacklog = 0;
+    
+    
+    SphinxSpeechRecognizer()
+    {
+        this( new SphinxConfiguration( SphinxConfiguration.DEFAULT_ROOT ) );
+    }
     
+    SphinxSpeechRecognizer( SphinxConfiguration configuration )
+    {
+        m_configuration = configuration;
+        m_keywordSpotter = new SphinxKeywordSpotter( configuration, SphinxAudioTask.DEFAULT_BLOCK_SIZE );
+        m_recordingSink = new SphinxRecordingSink( configuration.getRecordingDirectory(), SphinxAudioTask.DEFAULT_BLOCK_SIZE );
+        
+        m_endpointer.setEchoReference( m_echoReference );
+        m_keywordSpotter.setEchoReference( m_echoReference );
+    }
       
     void initialize()
     {
-        pocketsphinx.setLogfile("/sdcard/Android/data/edu.cmu.pocketsphinx/pocketsphinx.log");
+        pocketsphinx.setLogfile( m_configuration.getLogPath() );
 
-        final Config sphinxConfig = new Config();
-        sphinxConfig.setString("-hmm", "/sdcard/Android/data/vp/hmm/hub4wsj_sc_8k-b");
-        sphinxConfig.setString("-dict", "/sdcard/Android/data/vp/lm/2996.dic");
-        sphinxConfig.setString("-lm", "/sdcard/Android/data/vp/lm/2996.dmp");
-
-        sphinxConfig.setString("-rawlogdir", "/sdcard/Android/data/vp/raw");
-        sphinxConfig.setFloat("-samprate", 8000.0);
-        sphinxConfig.setInt("-maxhmmpf", 2000);
-        sphinxConfig.setInt("-maxwpf", 10);
-        sphinxConfig.setInt("-pl_window", 2);
-        sphinxConfig.setBoolean("-backtrace", true);
-        sphinxConfig.setBoolean("-bestpath", false);
+        m_configuration.setMemoryMapped( m_isWarmUpEnabled );
+        
+        m_cmnStore = new SphinxCmnStore( m_configuration.getCmnFile() );
+        m_cmnStore.load();
+        m_configuration.setInitialCmn( m_cmnStore.get() );
+        
+        m_languageModelDecoder = new Decoder( m_configuration.createLanguageModelConfig() );
+        if ( m_isWarmUpEnabled ) warmUp( m_languageModelDecoder );
+        
+        m_decoders = createDecoders( m_vocabulary );
+        m_decoder = m_languageModelDecoder;
+        
+        // Audio device and recognizer thread are kept for the whole service lifetime
+        if ( m_audioSource == null ) m_audioSource = new SphinxAudioRecordSource();
+        
+        m_audioTask = new SphinxAudioTask( m_audioSource, SphinxAudioTask.toBlocks( m_preRollMillis ) );
+        m_audioTask.getAudioRing().setOverflowPolicy( m_overflowPolicy );
+        if ( m_isPreprocessingEnabled ) m_audioTask.setFilter( createFilter() );
+        m_audioThread = startThread( m_audioTask, "audio" );
+        m_recognizerThread = startThread( this, "rec" );
+        
+        startThread( m_keywordSpotter, "kws" );
+        startThread( m_recordingSink, "rec-sink" );
+        startThread( m_cmnStore, "cmn" );
+        
+        if ( m_isDualDecodingEnabled )
+        {
+            m_languageModelWorker = new SphinxDecoderWorker( m_languageModelDecoder, m_audioTask, m_statistics.languageModelFinal );
+            startThread( m_languageModelWorker, "lm" );
+        }
         
-        m_decoder = new Decoder(sphinxConfig);        
+        setKeywordSpottingEnabled( m_isKeywordSpottingEnabled );
     }
     
     void setListener( final SpeechToTextListener listener )
     {
         m_listener = listener;
+        m_keywordSpotter.setListener( listener );
+    }
+    
+    /**
+     * Spot "stop", "yes" and "no" while capture is running, whether listening 
+     * or not. Spotted keywords are reported using 
+     * {@link SpeechToTextListener#keywordSpotted(String)}.
+     * <p>
+     * 	Keyword grammar is compiled together with the vocabulary. Until it is 
+     *  loaded spotting stays off, it is turned on once the grammar is there.
+     * </p>
+     */
+    void setKeywordSpottingEnabled( boolean isEnabled )
+    {
+        m_isKeywordSpottingEnabled = isEnabled;
+        
+        if ( m_audioTask == null ) return;
+        
+        if ( isEnabled && !m_keywordSpotter.hasGrammar() )
+        {
+            Log.w( Tag, "Keyword grammar is not loaded, keyword spotting stays off");
+            
+            m_audioTask.setTap( null );
+        }
+        else
+        {
+            m_audioTask.setTap( isEnabled ? m_keywordSpotter.getAudioRing() : null );
+        }
+    }
+    
+    /**
+     * Prompt has started playing. Its echo is not taken for speech and is not 
+     * decoded until user starts talking over it.
+     */
+    void promptStarted( PromptEnvelope envelope )
+    {
+        m_echoReference.start( envelope );
+    }
+    
+    void promptStopped()
+    {
+        m_echoReference.stop();
+    }
+    
+    /**
+     * Set lowest acoustic score per frame accepted for given keyword
+     */
+    void setKeywordThreshold( String keyword, int threshold )
+    {
+        m_keywordSpotter.setThreshold( keyword, threshold );
+    }
+    
+    /**
+     * Set name of the device, channel normalization is learned per device. 
+     * Must be called before {@link #initialize()}.
+     */
+    void setDeviceName( String deviceName )
+    {
+        m_configuration.setDeviceName( deviceName );
+    }
+    
+    /**
+     * Read samples from given source instead of input audio device. Must be 
+     * called before {@link #initialize()}.
+     */
+    void setAudioSource( SphinxAudioSource audioSource )
+    {
+        m_audioSource = audioSource;
+    }
+    
+    /**
+     * Preload models (memory mapped where supported) and run a synthetic 
+     * utterance through every decoder, so that the first real utterance is 
+     * not slowed down by cold caches. Must be called before {@link #initialize()}.
+     */
+    void setWarmUpEnabled( boolean isEnabled )
+    {
+        m_isWarmUpEnabled = isEnabled;
+    }
+    
+    /**
+     * Remove DC offset, attenuate noise between words and normalize speech 
+     * level before decoding. Enabled by default, must be called before 
+     * {@link #initialize()}.
+     */
+    void setPreprocessingEnabled( boolean isEnabled )
+    {
+        m_isPreprocessingEnabled = isEnabled;
+    }
+    
+    /**
+     * Also cut frequencies below given one during preprocessing, 0 to keep
+     * them. Must be called before {@link #initialize()}.
+     */
+    void setHighPassCutoff( int cutoff )
+    {
+        m_highPassCutoff = cutoff;
+    }
+    
+    /**
+     * Set what audio thread does once recognizer falls a whole ring of blocks
+     * behind. Must be called before {@link #initialize()}.
+     */
+    void setOverflowPolicy( SphinxOverflowPolicy policy )
+    {
+        m_overflowPolicy = policy;
+    }
+    
+    /**
+     * Decode utterances of modes that have a grammar with language model too,
+     * on a thread of its own. Grammar result is taken if its confidence is at 
+     * least {@link #setDualDecodingThreshold(float)}, otherwise language model
+     * result is. Must be called before {@link #initialize()}.
+     */
+    void setDualDecodingEnabled( boolean isEnabled )
+    {
+        m_isDualDecodingEnabled = isEnabled;
+    }
+    
+    void setDualDecodingThreshold( float threshold )
+    {
+        m_dualDecodingThreshold = threshold;
+    }
+    
+    /**
+     * Save decoded utterances for later tuning (see {@link SphinxRecordingSink}).
+     * Enabled by default.
+     */
+    void setRecordingEnabled( boolean isEnabled )
+    {
+        m_recordingSink.setEnabled( isEnabled );
+    }
+    
+    /**
+     * Only save utterances that were not recognized or recognized with low
+     * confidence
+     */
+    void setRecordingMisrecognizedOnly( boolean isMisrecognizedOnly )
+    {
+        m_recordingSink.setMisrecognizedOnly( isMisrecognizedOnly );
+    }
+    
+    /**
+     * Save utterances as 8-bit mu-law instead of 16-bit PCM
+     */
+    void setRecordingCompact( boolean isCompact )
+    {
+        m_recordingSink.setCompact( isCompact );
+    }
+    
+    /**
+     * Set largest number of bytes saved utterances may take up, oldest ones
+     * are removed once it is exceeded
+     */
+    void setRecordingQuota( long quota )
+    {
+        m_recordingSink.setQuota( quota );
+    }
+    
+    /**
+     * @return milliseconds from end of first utterance to its result or -1 if 
+     *         nothing has been recognized yet
+     */
+    long getFirstUtteranceLatency()
+    {
+        return m_firstUtteranceLatency;
+    }
+    
+    /**
+     * @return average milliseconds from end of utterance to its result, not 
+     *         counting the first utterance
+     */
+    long getSteadyStateLatency()
+    {
+        return m_steadyStateUtterances > 0 ? m_steadyStateLatencyTotal / m_steadyStateUtterances : -1;
+    }
+    
+    /**
+     * Use grammar constrained decoding for modes that support it. Must be 
+     * called before {@link #initialize()}. Keyword grammar is compiled and 
+     * used either way.
+     */
+    void setGrammarEnabled( boolean isEnabled )
+    {
+        m_isGrammarEnabled = isEnabled;
+    }
+    
+    /**
+     * Set names that could be recognized. Once recognizer is initialized, 
+     * grammars are rebuilt in background and swapped in between utterances.
+     */
+    void setVocabulary( Collection<String> names )
+    {
+        final Collection<String> vocabulary = new ArrayList<String>( names );
+        m_vocabulary = vocabulary;
+        
+        if ( m_languageModelDecoder != null )
+        {
+            startThread( new Runnable()
+            {
+                public void run()
+                {
+                    synchronized ( m_vocabularyLock )
+                    {
+                        // Skip if an even newer vocabulary is already pending
+                        if ( m_vocabulary == vocabulary ) swapDecoders( createDecoders( vocabulary ) );
+                    }
+                    
+                    // Spotting could have been waiting for its first grammar
+                    setKeywordSpottingEnabled( m_isKeywordSpottingEnabled );
+                }
+            }, "vocab");
+        }
+    }
+    
+    void setMode( RecognitionMode mode )
+    {
+        m_mode = mode;
+    }
+    
+    /**
+     * Set amount of audio captured before {@link #startListening()} that is 
+     * still passed to decoder. Must be called before {@link #initialize()}.
+     */
+    void setPreRollMillis( int preRollMillis )
+    {
+        m_preRollMillis = preRollMillis;
+    }
+    
+    /**
+     * Enable or disable ending of utterance as soon as user stops talking
+     */
+    void setEndpointingEnabled( boolean isEnabled )
+    {
+        m_isEndpointingEnabled = isEnabled;
+    }
+    
+    void setTrailingSilenceMillis( int trailingSilenceMillis )
+    {
+        m_endpointer.setTrailingSilenceMillis( trailingSilenceMillis );
+    }
+    
+    /**
+     * Set least amount of decoded audio between two partial results, 0 to 
+     * look for a new partial result after every block
+     */
+    void setPartialResultInterval( int intervalMillis )
+    {
+        m_partialThrottle.setInterval( intervalMillis );
+    }
+    
+    void startCapture()
+    {
+        m_audioTask.startCapture();
+    }
+    
+    void stopCapture()
+    {
+        m_audioTask.stopCapture();
+        
+        // Phone is idle until next capture, estimate is not saved on shutdown
+        m_cmnStore.flush();
     }
 
+    /**
+     * @return number of audio blocks captured but not yet decoded. Anything 
+     *         above one or two means decoder is not keeping up with real time.
+     */
+    int getBacklogDepth()
+    {
+        return m_audioTask.getAudioRing().size();
+    }
+    
+    /**
+     * @return timers and counters collected since start or last reset, one per line
+     */
+    String dumpStatistics()
+    {
+        final StringBuilder result = new StringBuilder();
+        m_statistics.dump( result );
+        
+        if ( m_audioTask != null )
+        {
+            final SphinxAudioRing ring = m_audioTask.getAudioRing();
+            result.append( "audio ring: policy=" ).append( ring.getOverflowPolicy() )
+                  .append( " max backlog=" ).append( ring.getMaxDepth() )
+                  .append( " max lag=" ).append( ring.getMaxLag() ).append( "ms" )
+                  .append( " dropped=" ).append( ring.getOverflowCount() )
+                  .append( " blocked=" ).append( ring.getBlockedCount() )
+                  .append( " allocated=" ).append( ring.getAllocationCount() ).append( '\n' );
+        }
+        
+        m_partialThrottle.dump( result, m_statistics.getHyp.getMean() );
+        m_recordingSink.dump( result );
+        
+        result.append( "first utterance latency: " ).append( m_firstUtteranceLatency ).append( "ms" )
+              .append( ", steady state: " ).append( getSteadyStateLatency() ).append( "ms\n" );
+        
+        return result.toString();
+    }
+    
+    void resetStatistics()
+    {
+        m_statistics.reset();
+    }
+    
     void startListening()
     {
+        // Previous utterance could have been ended by endpointer without a stop
+        if ( m_isUtteranceEnded ) stopListening( false );
+        
         if ( m_isListening.compareAndSet( false, true ) )
         {
-            Log.i( Tag, "Starting voice recognizer...");
+            Log.i( Tag, "Starting voice recognizer (" + m_mode + ")...");
+            
+            synchronized ( m_stateLock )
+            {
+                // Nothing is decoded now, so replaced decoders can be freed
+                for ( Decoder decoder : m_retiredDecoders ) decoder.delete();
+                m_retiredDecoders.clear();
+                
+                m_utteranceMode = m_mode;
+                m_decoder = m_decoders.get( m_utteranceMode );
+            }
+            
+            // Language model decoder could still be ending previous utterance in background
+            if ( m_languageModelWorker != null && m_decoder == m_languageModelDecoder ) awaitLanguageModelWorker();
             
+            // Decoder could have been idle or warmed up with noise since
+            m_cmnStore.seed( m_decoder );
             m_decoder.startUtt();
             
+            m_isDualUtterance = m_languageModelWorker != null && m_decoder != m_languageModelDecoder;
+            if ( m_isDualUtterance ) startLanguageModelWorker();
+            
             // Start audio
-            m_audioTask = new SphinxAudioTask();
-            m_audioThread = startThread( m_audioTask, "audio" );
+            discardBlocks();
+            m_audioTask.startCapture();
+            m_audioTask.openWindow();
             
             // Clear state
-            m_isStopped = false; 
+            m_utteranceStartedAt = System.nanoTime();
+            m_hasPartial = false;
+            m_hasSpeech = false;
+            m_heldBlock.length = 0;
+            m_utteranceBlocks = 0;
+            m_utteranceBacklog = 0;
+            
             m_lastHypothesis = "";
+            m_isUtteranceEnded = false;
+            m_endpointer.reset();
+            m_partialThrottle.reset();
             
-            // Start recognizer            
-            m_recognizerThread = startThread( this, "rec" );
+            // Start recognizer
+            synchronized ( m_stateLock )
+            {
+                m_isStopped = false;
+                m_stateLock.notifyAll();
+            }
             
             Log.i( Tag, "Voice recognizer started");
         }
     }
     
+    /**
+     * Stop listening. Decoder is kept up to date by recognizer thread, so only
+     * the last partially filled block of audio is left to decode here.
+     */
     void stopListening( boolean shouldRecognize )
     {
         if ( m_isListening.compareAndSet( true, false ) )
         {
             Log.i( Tag, "Stopping voice recognizer...");
-                    
-            m_isStopped = true;
             
-            m_audioTask.stop();
+            m_audioTask.closeWindow();
+            
             try
             {
-                m_audioThread.join();
+                synchronized ( m_stateLock )
+                {
+                    if ( !m_isUtteranceEnded )
+                    {
+                        m_shouldRecognize = shouldRecognize;
+                        m_finishRequestedAt = System.nanoTime();
+                        m_isFinishing = true;
+                        m_audioTask.getAudioRing().wakeUp();
+                    }
+                    
+                    while ( m_isProcessing || m_isFinishing )
+                    {
+                        m_stateLock.wait();
+                    }
+                }
             } 
             catch (InterruptedException e)
             {
-                Log.e( Tag, "Interrupted waiting for audio thread, shutting down", e );
+                Log.e( Tag, "Interrupted waiting for recognizer thread, shutting down", e );
                 
-                m_listener.errorOccured("audio_thread_interrupted");                
+                m_listener.errorOccured("recognizer_thread_interrupted");
             }
             
-            m_isStopped = true;
+            final SphinxAudioRing ring = m_audioTask.getAudioRing();
+            Log.i( Tag, "Voice recognizer stopped (blocks: " + ring.getPublishedCount() 
+                        + ", dropped: " + ring.getOverflowCount() 
+                        + ", max backlog: " + ring.getMaxDepth()
+                        + ", max lag: " + ring.getMaxLag() + " ms"
+                        + ", allocated: " + ring.getAllocationCount() + ")");
+        }
+    }
+       
+    public void run()
+    {
+        while ( true )
+        {
             try
             {
-                m_recognizerThread.join();
+                final boolean isFinishing;
+                synchronized ( m_stateLock )
+                {
+                    m_isProcessing = false;
+                    m_stateLock.notifyAll();
+                    
+                    while ( m_isStopped && !m_isFinishing )
+                    {
+                        m_stateLock.wait();
+                    }
+                    
+                    m_isProcessing = true;
+                    isFinishing = m_isFinishing;
+                }
+                
+                if ( isFinishing )
+                {
+                    finishUtterance( m_shouldRecognize );
+                    continue;
+                }
+                
+                final SphinxAudioBlock block = m_audioTask.readNext( true );
+                if ( block == null ) continue;
+                
+                final int backlog = m_audioTask.getAudioRing().getWaitingCount() + 1;
+                m_utteranceBacklog = Math.max( m_utteranceBacklog, backlog );
+                Trace.event( TraceEvent.AUDIO_BLOCK_TAKEN, backlog );
+                
+                final int length = block.length;
+                final SphinxEndpointer.Event event = processBlock( block );
+                
+                if ( m_partialThrottle.shouldExtract( m_decoder, length ) ) extractPartial();
+                
+                if ( event == SphinxEndpointer.Event.SPEECH_ENDED && m_isEndpointingEnabled )
+                {
+                    Log.i( Tag, "End of speech detected, finishing utterance...");
+                    
+                    m_finishRequestedAt = System.nanoTime();
+                    m_audioTask.closeWindow();
+                    finishUtterance( true );
+                }
             } 
             catch (InterruptedException e)
             {
-                Log.e( Tag, "Interrupted waiting for recognizer thread, shutting down", e );
+                Log.d(Tag, "Interrupted in reading next block from audio queue");
+            }
+        }
+    }
+    
+    /**
+     * Report partial hypothesis if it is different from the last one
+     */
+    private void extractPartial()
+    {
+        final long getHypStart = System.nanoTime();
+        final Hypothesis hypothesis = this.m_decoder.getHyp();
+        final long getHypMicros = (System.nanoTime() - getHypStart) / 1000;
+        m_statistics.getHyp.record( getHypMicros );
+        
+        if (hypothesis != null)
+        {
+            final String newHypothesis = hypothesis.getHypstr();
+            
+            if ( !m_lastHypothesis.equals( newHypothesis ) )
+            {
+                Trace.event( TraceEvent.RECOGNIZER_HYPOTHESIS, newHypothesis != null ? newHypothesis.length() : 0, getHypMicros );
+                if ( Trace.isEnabled( TraceSubsystem.RECOGNIZER, Log.VERBOSE ) ) Log.v( Tag, "New hypothesis discovered: " + newHypothesis );
                 
-                m_listener.errorOccured("recognizer_thread_interrupted");
+                if ( !m_hasPartial && newHypothesis != null && newHypothesis.length() > 0 )
+                {
+                    m_hasPartial = true;
+                    m_statistics.firstPartial.record( (System.nanoTime() - m_utteranceStartedAt) / 1000000 );
+                }
+                
+                m_listener.partRecognized( newHypothesis );
             }
             
+            m_lastHypothesis = newHypothesis != null ? newHypothesis : "";
+        }
+    }
+    
+    /**
+     * Decode block and look for start or end of speech in it. While a prompt 
+     * is playing and the user has not started talking yet, only the last block
+     * is kept instead, so that prompt echo is not decoded.
+     */
+    private SphinxEndpointer.Event processBlock( SphinxAudioBlock block )
+        throws InterruptedException
+    {
+        if ( block.isDiscontinuous )
+        {
+            // Decoder can not be told about the gap, it just hears a splice
+            m_statistics.discontinuities.incrementAndGet();
+            Trace.event( TraceEvent.AUDIO_DISCONTINUITY, (System.nanoTime() - block.capturedAt) / 1000000 );
+        }
+        
+        final SphinxEndpointer.Event event = m_endpointer.process( block.samples, block.length, block.capturedAt );
+        
+        if ( event == SphinxEndpointer.Event.SPEECH_STARTED && !m_hasSpeech )
+        {
+            m_hasSpeech = true;
+            m_listener.speechStarted();
+        }
+        
+        if ( !m_hasSpeech && m_echoReference.isActive() )
+        {
+            System.arraycopy( block.samples, 0, m_heldBlock.samples, 0, block.length );
+            m_heldBlock.length = block.length;
+        }
+        else
+        {
+            // Onset is detected late, so block before it is decoded too
+            if ( m_heldBlock.length > 0 ) decode( m_heldBlock );
+            m_heldBlock.length = 0;
+            
+            decode( block );
+        }
+        
+        m_audioTask.release( block );
+        
+        return event;
+    }
+    
+    private void decode( SphinxAudioBlock block )
+        throws InterruptedException
+    {
+        final long start = System.nanoTime();
+        
+        // Both decoders read the same block, language model one could lag 
+        // behind. Held block is reused, so the worker decodes a copy of it.
+        if ( m_isDualUtterance ) m_languageModelWorker.decode( block, block != m_heldBlock );
+        m_decoder.processRaw(block.samples, block.length, false, false);
+        
+        Trace.event( TraceEvent.RECOGNIZER_BLOCK_PROCESSED, block.length, (System.nanoTime() - start) / 1000 );
+        
+        m_utteranceBlocks += 1;
+        m_statistics.blocksProcessed.incrementAndGet();
+        
+        m_recordingSink.append( block );
+    }
+    
+    /**
+     * Decode the tail of the utterance flushed by audio thread after window 
+     * was closed and end the utterance. Called from recognizer thread.
+     */
+    private void finishUtterance( boolean shouldRecognize )
+        throws InterruptedException
+    {
+        while ( true )
+        {
+            final boolean isFlushed = m_audioTask.isFlushed();
             
-            if ( shouldRecognize )
+            SphinxAudioBlock block = m_audioTask.readNext( false );
+            while ( block != null )
             {
-                try
+                if ( shouldRecognize )
                 {
-                    Log.i( Tag, "Running voice recognition...");
-                                
-                    short[] buffer = m_audioTask.readNext( false ); 
-                    while ( buffer != null )
-                    {
-                        Log.d( Tag, "Processing" + buffer.length + " samples from queue");
-                        
-                        m_decoder.processRaw(buffer, buffer.length, false, false);
-                        
-                        buffer = m_audioTask.readNext( false );
-                    }
-                                
-                    m_decoder.endUtt();
-                    
-                    final Hypothesis hypothesis = this.m_decoder.getHyp();
-                    if ( hypothesis != null )
-                    {
-                        m_listener.fullyRecognized( hypothesis.getHypstr() );
-                        
-                        Log.i( Tag, "Voice recognition completed (recognized \"" + hypothesis.getHypstr() + "\")" );
-                    }
-                    else
-                    {
-                        m_listener.errorOccured("no_hypothesis");
-                        
-                        Log.i( Tag, "Voice recognition failed");
-                    }
+                    processBlock( block );
                 }
-                catch ( InterruptedException e )
+                else
                 {
-                    Log.d( Tag, "Voice recognition failed");
+                    m_audioTask.release( block );
                 }
+                
+                block = m_audioTask.readNext( false );
             }
-            else
+            
+            if ( isFlushed ) break;
+            
+            if ( !m_audioTask.awaitFlush( FLUSH_TIMEOUT ) )
             {
-                m_decoder.endUtt();
+                Log.w( Tag, "Audio thread did not flush last block in time");
+                break;
             }
+        }
+        
+        if ( m_isDualUtterance ) m_languageModelWorker.end( shouldRecognize ? m_finishRequestedAt : 0 );
+        m_decoder.endUtt();
+        m_isUtteranceEnded = true;
+        
+        m_statistics.utteranceBlocks.record( m_utteranceBlocks );
+        m_statistics.utteranceBacklog.record( m_utteranceBacklog );
+        
+        if ( shouldRecognize )
+        {
+            deliverResult();
+            updateLatency( (System.nanoTime() - m_finishRequestedAt) / 1000000 );
+        }
+        else
+        {
+            m_recordingSink.discard();
+            m_statistics.cancelled.incrementAndGet();
+        }
+        
+        // Only after the result is out, file is written in background anyway
+        if ( m_utteranceBlocks > 0 ) m_cmnStore.update( m_decoder );
+        
+        synchronized ( m_stateLock )
+        {
+            m_isStopped = true;
+            m_isFinishing = false;
+        }
+    }
+    
+    private void updateLatency( long latency )
+    {
+        m_statistics.finalResult.record( latency );
+        
+        if ( m_firstUtteranceLatency < 0 )
+        {
+            m_firstUtteranceLatency = latency;
+        }
+        else
+        {
+            m_steadyStateLatencyTotal += latency;
+            m_steadyStateUtterances += 1;
+        }
+        
+        Log.i( Tag, "Result latency: " + latency + " ms (first utterance: " + m_firstUtteranceLatency 
+                    + " ms, steady state: " + getSteadyStateLatency() + " ms)");
+    }
+    
+    private SphinxAudioFilter createFilter()
+    {
+        final SphinxFilterChain result = new SphinxFilterChain();
+        
+        result.add( new SphinxDcBlocker() );
+        if ( m_highPassCutoff > 0 ) result.add( new SphinxHighPassFilter( m_highPassCutoff, SphinxAudioTask.SAMPLE_RATE ) );
+        result.add( new SphinxNoiseGate() );
+        result.add( new SphinxAutomaticGain() );
+        
+        return result;
+    }
+    
+    /**
+     * Run a synthetic utterance through decoder, so that model pages and 
+     * search structures are loaded before the user speaks.
+     */
+    private void warmUp( Decoder decoder )
+    {
+        final long start = System.nanoTime();
+        
+        final short[] signal = createWarmUpSignal();
+        final int blockSize = 1024;
+        final short[] block = new short[ blockSize ];
+        
+        decoder.startUtt( "warmup" );
+        for ( int offset = 0; offset < signal.length; offset += blockSize )
+        {
+            final int length = Math.min( blockSize, signal.length - offset );
+            System.arraycopy( signal, offset, block, 0, length );
             
-            Log.i( Tag, "Voice recognizer stopped");
+            decoder.processRaw( block, length, false, false );
+            decoder.getHyp();
         }
+        decoder.endUtt();
+        decoder.getHyp();
+        
+        Log.i( Tag, "Decoder warmed up in " + (System.nanoTime() - start) / 1000000 + " ms");
     }
-       
-    public void run()
+    
+    /**
+     * @return low level noise with a louder burst in the middle, enough to 
+     *         make decoder expand its search
+     */
+    private static short[] createWarmUpSignal()
     {
-        while ( !m_isStopped )
+        final Random random = new Random( 0 );
+        final short[] result = new short[ WARM_UP_SAMPLES ];
+        
+        for ( int i = 0; i < result.length; i++ )
         {
-            try
+            final boolean isBurst = i > result.length / 4 && i < 3 * result.length / 4;
+            final double amplitude = isBurst ? 2000 : 50;
+            
+            result[ i ] = (short)(random.nextGaussian() * amplitude);
+        }
+        
+        return result;
+    }
+    
+    private void deliverResult()
+        throws InterruptedException
+    {
+        Decoder decoder = m_decoder;
+        Hypothesis hypothesis = decoder.getHyp();
+        List<RecognitionAlternative> alternatives = hypothesis != null ? getAlternatives( decoder, hypothesis.getHypstr() ) : null;
+        
+        if ( m_isDualUtterance )
+        {
+            // Grammar decoder alone, language model decoder is not waited for here
+            m_statistics.grammarFinal.record( (System.nanoTime() - m_finishRequestedAt) / 1000000 );
+            
+            if ( alternatives != null && alternatives.get( 0 ).getConfidence() >= m_dualDecodingThreshold )
             {
-                Log.d( Tag, "Reading more samples from queue");
-                short[] buffer = m_audioTask.readNext( true );
+                m_statistics.grammarWins.incrementAndGet();
+            }
+            else
+            {
+                // Grammar forces any audio into one of its sentences, language model does not
+                m_languageModelWorker.awaitIdle();
+                m_statistics.languageModelWins.incrementAndGet();
+                m_statistics.fallbackFinal.record( (System.nanoTime() - m_finishRequestedAt) / 1000000 );
                 
-                Log.d( Tag, "Processing" + buffer.length + " samples from queue");
-                m_decoder.processRaw(buffer, buffer.length, false, false);
+                decoder = m_languageModelDecoder;
+                hypothesis = decoder.getHyp();
+                alternatives = hypothesis != null ? getAlternatives( decoder, hypothesis.getHypstr() ) : null;
                 
+                Log.i( Tag, "Grammar result is not confident, using language model result");
+            }
+        }
+        
+        if ( hypothesis != null )
+        {
+            m_statistics.recognized.incrementAndGet();
+            
+            m_recordingSink.finish( m_utteranceMode, hypothesis.getHypstr(), alternatives.get( 0 ).getConfidence() );
+            
+            m_listener.alternativesRecognized( alternatives );
+            m_listener.fullyRecognized( hypothesis.getHypstr() );
+            
+            Log.i( Tag, "Voice recognition completed (recognized \"" + hypothesis.getHypstr() + "\")" );
+        }
+        else
+        {
+            m_statistics.unrecognized.incrementAndGet();
+            m_recordingSink.finish( m_utteranceMode, null, 0 );
+            m_listener.errorOccured("no_hypothesis");
+            
+            Log.i( Tag, "Voice recognition failed");
+        }
+    }
+    
+    /**
+     * Collect distinct sentences from N-best list of finished utterance. Best
+     * hypothesis gets lattice posterior as its confidence, others get it 
+     * scaled by how much worse their path scores are.
+     */
+    private List<RecognitionAlternative> getAlternatives( Decoder decoder, String best )
+    {
+        final long start = System.nanoTime();
+        final List<RecognitionAlternative> result = new ArrayList<RecognitionAlternative>( MAX_ALTERNATIVES );
+        
+        final double posterior = decoder.getPosterior();
+        result.add( new RecognitionAlternative( best, (float)posterior ) );
+        
+        final NBest nbest = decoder.getNBest();
+        if ( nbest != null )
+        {
+            try
+            {
+                boolean hasReference = false;
+                int referenceScore = 0;
                 
-                final Hypothesis hypothesis = this.m_decoder.getHyp();
-                if (hypothesis != null)
+                for ( int step = 0; step < MAX_NBEST_STEPS && result.size() < MAX_ALTERNATIVES && nbest.next(); step++ )
                 {
-                    final String newHypothesis = hypothesis.getHypstr();
+                    final Hypothesis hypothesis = nbest.getHyp();
+                    if ( hypothesis == null ) continue;
                     
-                    if ( !m_lastHypothesis.equals( newHypothesis ) )
+                    final String text = hypothesis.getHypstr();
+                    final int score = hypothesis.getBest_score();
+                    hypothesis.delete();
+                    
+                    if ( !hasReference )
                     {
-                        Log.d( Tag, "New hypothesis discovered: " + newHypothesis );
-                        
-                        m_listener.partRecognized( newHypothesis );
+                        referenceScore = score;
+                        hasReference = true;
                     }
                     
-                    m_lastHypothesis = newHypothesis != null ? newHypothesis : "";
+                    if ( text == null || text.length() == 0 || containsText( result, text ) ) continue;
+                    
+                    final double ratio = Math.exp( (score - referenceScore) * Math.log( SphinxConfiguration.LOG_BASE ) / SphinxConfiguration.POSTERIOR_SCALE );
+                    result.add( new RecognitionAlternative( text, (float)(posterior * Math.min( ratio, 1.0 )) ) );
                 }
-            } 
-            catch (InterruptedException e)
+            }
+            finally
             {
-                Log.d(Tag, "Interrupted in reading next block from audio queue");
+                nbest.delete();
+            }
+        }
+        
+        m_statistics.alternatives.record( (System.nanoTime() - start) / 1000 );
+        
+        return result;
+    }
+    
+    private static boolean containsText( List<RecognitionAlternative> alternatives, String text )
+    {
+        for ( RecognitionAlternative alternative : alternatives )
+        {
+            if ( alternative.getText().equals( text ) ) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Create decoders constrained to operator command grammars and load 
+     * keyword grammar into the spotter. Modes for which grammar could not be 
+     * built keep using language model decoder.
+     */
+    private Map<RecognitionMode, Decoder> createDecoders( Collection<String> vocabulary )
+    {
+        final Map<RecognitionMode, Decoder> result = new EnumMap<RecognitionMode, Decoder>( RecognitionMode.class );
+        for ( RecognitionMode mode : RecognitionMode.values() )
+        {
+            result.put( mode, m_languageModelDecoder );
+        }
+        
+        final SphinxVocabularyCompiler.Vocabulary compiled;
+        try
+        {
+            compiled = new SphinxVocabularyCompiler( m_configuration ).compile( vocabulary );
+        }
+        catch ( Exception e )
+        {
+            Log.e( Tag, "Unable to compile vocabulary, using language model only and no keyword spotting", e );
+            
+            return result;
+        }
+        
+        // Spotter does not depend on grammar decoding
+        m_keywordSpotter.setGrammar( compiled.keywordGrammar, compiled.dictionary );
+        
+        if ( m_isGrammarEnabled )
+        {
+            try
+            {
+                for ( Map.Entry<RecognitionMode, File> grammar : compiled.grammars.entrySet() )
+                {
+                    Log.i( Tag, "Loading " + grammar.getKey() + " grammar from " + grammar.getValue() );
+                    
+                    final Decoder decoder = new Decoder( m_configuration.createGrammarConfig( grammar.getValue().getAbsolutePath(), 
+                                                                                               compiled.dictionary.getAbsolutePath() ) );
+                    if ( m_isWarmUpEnabled ) warmUp( decoder );
+                    
+                    result.put( grammar.getKey(), decoder );
+                }
             }
+            catch ( Exception e )
+            {
+                Log.e( Tag, "Unable to create grammars, using language model only", e );
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Replace grammar decoders. Old ones are freed before next utterance starts.
+     */
+    private void swapDecoders( Map<RecognitionMode, Decoder> decoders )
+    {
+        synchronized ( m_stateLock )
+        {
+            for ( Decoder decoder : m_decoders.values() )
+            {
+                if ( decoder != m_languageModelDecoder && !m_retiredDecoders.contains( decoder ) )
+                {
+                    m_retiredDecoders.add( decoder );
+                }
+            }
+            
+            m_decoders = decoders;
+        }
+        
+        Log.i( Tag, "Vocabulary updated");
+    }
+    
+    /**
+     * Start language model decoder over the same utterance, from the same 
+     * channel estimate as the grammar decoder
+     */
+    private void startLanguageModelWorker()
+    {
+        try
+        {
+            m_languageModelWorker.start( m_cmnStore.get() );
+        }
+        catch ( InterruptedException e )
+        {
+            Log.e( Tag, "Interrupted waiting for language model decoder, using grammar only", e );
+            
+            m_isDualUtterance = false;
+        }
+    }
+    
+    private void awaitLanguageModelWorker()
+    {
+        try
+        {
+            m_languageModelWorker.awaitIdle();
+        }
+        catch ( InterruptedException e )
+        {
+            Log.e( Tag, "Interrupted waiting for language model decoder", e );
+        }
+    }
+    
+    /**
+     * Throw away blocks left over from previous utterance
+     */
+    private void discardBlocks()
+    {
+        try
+        {
+            SphinxAudioBlock block = m_audioTask.readNext( false );
+            while ( block != null )
+            {
+                m_audioTask.release( block );
+                
+                block = m_audioTask.readNext( false );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Log.d( Tag, "Interrupted discarding old samples");
         }
     }
     
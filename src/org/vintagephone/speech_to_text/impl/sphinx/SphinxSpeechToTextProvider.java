@@ -1,8 +1,14 @@
 package org.vintagephone.speech_to_text.impl.sphinx;
 
+import java.util.Collection;
+
+import org.vintagephone.speech_to_text.PromptEnvelope;
+import org.vintagephone.speech_to_text.RecognitionMode;
 import org.vintagephone.speech_to_text.SpeechToTextListener;
 import org.vintagephone.speech_to_text.SpeechToTextProvider;
 
+import android.os.Build;
+
 public class SphinxSpeechToTextProvider implements SpeechToTextProvider
 {
     private final SphinxSpeechRecognizer m_recognizer;
@@ -10,6 +16,177 @@ public class SphinxSpeechToTextProvider implements SpeechToTextProvider
     public SphinxSpeechToTextProvider()
     {
         m_recognizer = new SphinxSpeechRecognizer();       
+        m_recognizer.setDeviceName( Build.DEVICE );
+    }
+    
+    /**
+     * Set amount of audio captured right before listening has started that is 
+     * still recognized. Must be called before {@link #initialize()}.
+     */
+    public void setPreRollMillis( int preRollMillis )
+    {
+        m_recognizer.setPreRollMillis( preRollMillis );
+    }
+    
+    /**
+     * Preload decoders and run a synthetic utterance through them during 
+     * {@link #initialize()}, so the first real utterance is as fast as the 
+     * rest. Enabled by default.
+     */
+    public void setWarmUpEnabled( boolean isEnabled )
+    {
+        m_recognizer.setWarmUpEnabled( isEnabled );
+    }
+    
+    /**
+     * Clean up captured audio (DC offset, noise between words, level) before 
+     * decoding. Enabled by default, must be called before {@link #initialize()}.
+     */
+    public void setPreprocessingEnabled( boolean isEnabled )
+    {
+        m_recognizer.setPreprocessingEnabled( isEnabled );
+    }
+    
+    /**
+     * Cut rumble below given frequency during preprocessing, 0 (default) to 
+     * keep it. Must be called before {@link #initialize()}.
+     */
+    public void setHighPassCutoff( int cutoff )
+    {
+        m_recognizer.setHighPassCutoff( cutoff );
+    }
+    
+    /**
+     * Set what happens to captured audio once recognizer falls about eight
+     * seconds behind. Defaults to {@link SphinxOverflowPolicy#DROP_NEWEST},
+     * must be called before {@link #initialize()}.
+     */
+    public void setOverflowPolicy( SphinxOverflowPolicy policy )
+    {
+        m_recognizer.setOverflowPolicy( policy );
+    }
+    
+    /**
+     * Decode command utterances with both grammar and the full language model
+     * at the same time, on separate threads. Grammar result is used when it is
+     * confident enough, language model result otherwise. Disabled by default,
+     * must be called before {@link #initialize()}.
+     */
+    public void setDualDecodingEnabled( boolean isEnabled )
+    {
+        m_recognizer.setDualDecodingEnabled( isEnabled );
+    }
+    
+    /**
+     * Set lowest confidence (0..1) of grammar result that is used without
+     * falling back to language model. Defaults to 0.6.
+     */
+    public void setDualDecodingThreshold( float threshold )
+    {
+        m_recognizer.setDualDecodingThreshold( threshold );
+    }
+    
+    /**
+     * Save recognized utterances in the background for later tuning. Enabled
+     * by default.
+     */
+    public void setRecordingEnabled( boolean isEnabled )
+    {
+        m_recognizer.setRecordingEnabled( isEnabled );
+    }
+    
+    /**
+     * Only save utterances that were not recognized or were recognized with
+     * low confidence
+     */
+    public void setRecordingMisrecognizedOnly( boolean isMisrecognizedOnly )
+    {
+        m_recognizer.setRecordingMisrecognizedOnly( isMisrecognizedOnly );
+    }
+    
+    /**
+     * Save utterances as 8-bit mu-law WAV files, half the size of raw 16-bit
+     * files saved by default
+     */
+    public void setRecordingCompact( boolean isCompact )
+    {
+        m_recognizer.setRecordingCompact( isCompact );
+    }
+    
+    /**
+     * Set largest number of bytes saved utterances may take up on the SD card,
+     * oldest are removed first. Defaults to 20 MB.
+     */
+    public void setRecordingQuota( long quota )
+    {
+        m_recognizer.setRecordingQuota( quota );
+    }
+    
+    public void setEndpointingEnabled( boolean isEnabled )
+    {
+        m_recognizer.setEndpointingEnabled( isEnabled );
+    }
+    
+    /**
+     * Set how long user has to be silent before utterance is ended
+     */
+    public void setTrailingSilenceMillis( int trailingSilenceMillis )
+    {
+        m_recognizer.setTrailingSilenceMillis( trailingSilenceMillis );
+    }
+    
+    /**
+     * Set least amount of audio between two partial results. Partial results 
+     * cost a search backtrace each, so fewer of them leave more CPU for 
+     * decoding. Defaults to 250 ms, 0 looks for one after every block.
+     */
+    public void setPartialResultInterval( int intervalMillis )
+    {
+        m_recognizer.setPartialResultInterval( intervalMillis );
+    }
+    
+    /**
+     * Use grammar constrained decoding in dial target and confirmation modes. 
+     * Must be called before {@link #initialize()}.
+     */
+    public void setGrammarEnabled( boolean isEnabled )
+    {
+        m_recognizer.setGrammarEnabled( isEnabled );
+    }
+    
+    public void setKeywordSpottingEnabled( boolean isEnabled )
+    {
+        m_recognizer.setKeywordSpottingEnabled( isEnabled );
+    }
+    
+    /**
+     * Set lowest acoustic score per 10 ms frame accepted for given keyword 
+     * ("stop", "yes" or "no"). Scores of spotted and rejected keywords are 
+     * logged to help choosing thresholds.
+     */
+    public void setKeywordThreshold( String keyword, int threshold )
+    {
+        m_recognizer.setKeywordThreshold( keyword, threshold );
+    }
+    
+    public void promptStarted( PromptEnvelope envelope )
+    {
+        m_recognizer.promptStarted( envelope );
+    }
+    
+    public void promptStopped()
+    {
+        m_recognizer.promptStopped();
+    }
+    
+    public void setVocabulary( Collection<String> names )
+    {
+        m_recognizer.setVocabulary( names );
+    }
+    
+    public void setMode( RecognitionMode mode )
+    {
+        m_recognizer.setMode( mode );
     }
     
     public void initialize()
@@ -17,6 +194,16 @@ public class SphinxSpeechToTextProvider implements SpeechToTextProvider
         m_recognizer.initialize();
     }
 
+    public void startCapture()
+    {
+        m_recognizer.startCapture();
+    }
+    
+    public void stopCapture()
+    {
+        m_recognizer.stopCapture();
+    }
+
     public void startListening()
     {
         m_recognizer.startListening();
@@ -27,6 +214,42 @@ public class SphinxSpeechToTextProvider implements SpeechToTextProvider
         m_recognizer.stopListening( recognizeLast  );
     }
 
+    /**
+     * @return milliseconds from end of first utterance to its result, -1 if 
+     *         nothing has been recognized yet
+     */
+    public long getFirstUtteranceLatency()
+    {
+        return m_recognizer.getFirstUtteranceLatency();
+    }
+    
+    /**
+     * @return average milliseconds from end of utterance to its result for 
+     *         all utterances but the first one, -1 if there were none
+     */
+    public long getSteadyStateLatency()
+    {
+        return m_recognizer.getSteadyStateLatency();
+    }
+    
+    public String dumpStatistics()
+    {
+        return m_recognizer.dumpStatistics();
+    }
+    
+    public void resetStatistics()
+    {
+        m_recognizer.resetStatistics();
+    }
+    
+    /**
+     * @return number of audio blocks waiting to be decoded
+     */
+    public int getBacklogDepth()
+    {
+        return m_recognizer.getBacklogDepth();
+    }
+
     public void setListener(SpeechToTextListener listener)
     {
         m_recognizer.setListener( listener );
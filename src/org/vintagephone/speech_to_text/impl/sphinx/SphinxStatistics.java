@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vintagephone.speech_to_text.Histogram;
+
+/**
+ * This class is used to collect recognizer timings and counters. Everything 
+ * is updated without locking from recognizer thread and could be dumped from
+ * any thread.
+ */
+final class SphinxStatistics
+{
+    final Histogram firstPartial = new Histogram( "start to first partial", "ms" );
+    final Histogram finalResult = new Histogram( "end of audio to final", "ms" );
+    final Histogram getHyp = new Histogram( "getHyp", "us" );
+    final Histogram alternatives = new Histogram( "n-best and posterior", "us" );
+    final Histogram utteranceBlocks = new Histogram( "blocks per utterance", "" );
+    final Histogram utteranceBacklog = new Histogram( "max backlog per utterance", "" );
+    final Histogram grammarFinal = new Histogram( "end of audio to grammar final", "ms" );
+    final Histogram languageModelFinal = new Histogram( "end of audio to language model final", "ms" );
+    final Histogram fallbackFinal = new Histogram( "end of audio to language model fallback", "ms" );
+    
+    final AtomicLong blocksProcessed = new AtomicLong();
+    final AtomicLong recognized = new AtomicLong();
+    final AtomicLong unrecognized = new AtomicLong();
+    final AtomicLong cancelled = new AtomicLong();
+    final AtomicLong discontinuities = new AtomicLong();
+    final AtomicLong grammarWins = new AtomicLong();
+    final AtomicLong languageModelWins = new AtomicLong();
+    
+    void reset()
+    {
+        firstPartial.reset();
+        finalResult.reset();
+        getHyp.reset();
+        alternatives.reset();
+        utteranceBlocks.reset();
+        utteranceBacklog.reset();
+        grammarFinal.reset();
+        languageModelFinal.reset();
+        fallbackFinal.reset();
+        
+        blocksProcessed.set( 0 );
+        recognized.set( 0 );
+        unrecognized.set( 0 );
+        cancelled.set( 0 );
+        discontinuities.set( 0 );
+        grammarWins.set( 0 );
+        languageModelWins.set( 0 );
+    }
+    
+    void dump( StringBuilder out )
+    {
+        out.append( "utterances: recognized=" ).append( recognized.get() )
+           .append( " unrecognized=" ).append( unrecognized.get() )
+           .append( " cancelled=" ).append( cancelled.get() )
+           .append( " blocks=" ).append( blocksProcessed.get() )
+           .append( " discontinuities=" ).append( discontinuities.get() ).append( '\n' );
+        
+        out.append( firstPartial ).append( '\n' );
+        out.append( finalResult ).append( '\n' );
+        out.append( getHyp ).append( '\n' );
+        out.append( alternatives ).append( '\n' );
+        out.append( utteranceBlocks ).append( '\n' );
+        out.append( utteranceBacklog ).append( '\n' );
+        
+        if ( grammarWins.get() + languageModelWins.get() > 0 )
+        {
+            out.append( "dual decoding: grammar won=" ).append( grammarWins.get() )
+               .append( " language model won=" ).append( languageModelWins.get() ).append( '\n' );
+            out.append( grammarFinal ).append( '\n' );
+            out.append( languageModelFinal ).append( '\n' );
+            out.append( fallbackFinal ).append( '\n' );
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+
+import android.util.Log;
+
+/**
+ * This class is used to replay recorded audio instead of reading it from 
+ * input audio device, so recognizer could be run without a device.
+ * <p>
+ * 	Streams are queued using {@link #play(InputStream)} and replayed one after 
+ *  another. Both raw 16-bit little-endian mono PCM and WAV files with the same 
+ *  format are accepted, sample rate must be {@link SphinxAudioTask#SAMPLE_RATE}. 
+ *  Every stream is followed by a short silence, so that endpointer could 
+ *  notice end of speech.
+ * </p>
+ * <p>
+ * 	Samples are replayed at real time speed multiplied by pace. Pace of zero or
+ *  less replays samples as fast as they could be read.
+ * </p>
+ */
+class SphinxStreamAudioSource 
+    implements SphinxAudioSource
+{
+    static final int DEFAULT_TRAILING_SILENCE_MILLIS = 1000;
+    
+    private static final long IDLE_WAIT = 100; // ms
+    private static final int MAX_FORMAT_SIZE = 64; // Extensible format takes 40 bytes
+    private static final String Tag = "SphinxStreamSource";
+    
+    private final double m_pace;
+    private final int m_trailingSilenceSamples;
+    
+    private final Object m_queueLock = new Object();
+    private final LinkedList<InputStream> m_queue = new LinkedList<InputStream>();
+    private boolean m_isIdle = true;
+    private boolean m_isReleased = false;
+    
+    // Replay state (only accessed from audio thread)
+    private InputStream m_stream;
+    private int m_silenceRemaining = 0;
+    private byte[] m_bytes = new byte[ 0 ];
+    private long m_pacingStartedAt;
+    private long m_pacedSamples;
+    
+    private volatile long m_streamStartedAt;
+    private volatile long m_streamEndedAt;
+    
+    SphinxStreamAudioSource( double pace )
+    {
+        this( pace, DEFAULT_TRAILING_SILENCE_MILLIS );
+    }
+    
+    SphinxStreamAudioSource( double pace, int trailingSilenceMillis )
+    {
+        m_pace = pace;
+        m_trailingSilenceSamples = trailingSilenceMillis * (SphinxAudioTask.SAMPLE_RATE / 1000);
+    }
+    
+    /**
+     * Queue file for replay
+     */
+    void play( File file )
+        throws IOException
+    {
+        play( new FileInputStream( file ) );
+    }
+    
+    /**
+     * Queue stream for replay. Stream is closed once it is replayed.
+     */
+    void play( InputStream stream )
+    {
+        synchronized ( m_queueLock )
+        {
+            m_queue.add( new BufferedInputStream( stream ) );
+            m_isIdle = false;
+            m_queueLock.notifyAll();
+        }
+    }
+    
+    /**
+     * Wait until all queued streams and silence after them are replayed
+     * 
+     * @return true if source is idle
+     */
+    boolean awaitIdle( long timeoutMillis )
+        throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        
+        synchronized ( m_queueLock )
+        {
+            long remaining = timeoutMillis;
+            while ( !m_isIdle && remaining > 0 )
+            {
+                m_queueLock.wait( remaining );
+                remaining = deadline - System.currentTimeMillis();
+            }
+            
+            return m_isIdle;
+        }
+    }
+    
+    /**
+     * @return {@link System#nanoTime()} when first sample of last stream was read
+     */
+    long getStreamStartedAt()
+    {
+        return m_streamStartedAt;
+    }
+    
+    /**
+     * @return {@link System#nanoTime()} when last sample of last stream was read
+     */
+    long getStreamEndedAt()
+    {
+        return m_streamEndedAt;
+    }
+    
+    public void start()
+    {
+        m_pacingStartedAt = System.nanoTime();
+        m_pacedSamples = 0;
+    }
+    
+    public int read( short[] buffer, int offset, int length )
+    {
+        if ( m_stream == null )
+        {
+            if ( m_silenceRemaining > 0 )
+            {
+                return readSilence( buffer, offset, length );
+            }
+            
+            if ( !nextStream() ) return m_isReleased ? -1 : 0;
+        }
+        
+        final int read = readSamples( buffer, offset, length );
+        if ( read <= 0 )
+        {
+            m_streamEndedAt = System.nanoTime();
+            closeStream();
+            
+            m_silenceRemaining = m_trailingSilenceSamples;
+            if ( m_silenceRemaining == 0 ) updateIdle();
+            
+            return 0;
+        }
+        
+        pace( read );
+        
+        return read;
+    }
+    
+    public void stop()
+    {
+        // Queued streams are replayed once source is started again
+    }
+    
+    public void release()
+    {
+        synchronized ( m_queueLock )
+        {
+            m_isReleased = true;
+            
+            for ( InputStream stream : m_queue ) close( stream );
+            m_queue.clear();
+            
+            m_isIdle = true;
+            m_queueLock.notifyAll();
+        }
+        
+        closeStream();
+    }
+    
+    private boolean nextStream()
+    {
+        synchronized ( m_queueLock )
+        {
+            if ( m_queue.isEmpty() && !m_isReleased )
+            {
+                try
+                {
+                    m_queueLock.wait( IDLE_WAIT );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if ( m_queue.isEmpty() ) return false;
+            
+            m_stream = m_queue.removeFirst();
+        }
+        
+        try
+        {
+            skipHeader( m_stream );
+        }
+        catch ( IOException e )
+        {
+            Log.e( Tag, "Unable to replay stream", e );
+            
+            closeStream();
+            updateIdle();
+            
+            return false;
+        }
+        
+        m_streamStartedAt = System.nanoTime();
+        m_pacingStartedAt = m_streamStartedAt;
+        m_pacedSamples = 0;
+        
+        return true;
+    }
+    
+    private int readSilence( short[] buffer, int offset, int length )
+    {
+        final int count = Math.min( length, m_silenceRemaining );
+        
+        for ( int i = offset; i < offset + count; i++ ) buffer[ i ] = 0;
+        m_silenceRemaining -= count;
+        
+        pace( count );
+        
+        if ( m_silenceRemaining == 0 ) updateIdle();
+        
+        return count;
+    }
+    
+    private int readSamples( short[] buffer, int offset, int length )
+    {
+        if ( m_bytes.length < 2*length ) m_bytes = new byte[ 2*length ];
+        
+        try
+        {
+            int read = m_stream.read( m_bytes, 0, 2*length );
+            if ( read <= 0 ) return 0;
+            
+            // Keep samples whole
+            if ( read % 2 != 0 )
+            {
+                final int next = m_stream.read();
+                if ( next < 0 ) 
+                {
+                    read -= 1;
+                }
+                else
+                {
+                    m_bytes[ read++ ] = (byte)next;
+                }
+            }
+            
+            final int samples = read / 2;
+            for ( int i = 0; i < samples; i++ )
+            {
+                buffer[ offset + i ] = (short)((m_bytes[ 2*i ] & 0xFF) | (m_bytes[ 2*i + 1 ] << 8));
+            }
+            
+            return samples;
+        }
+        catch ( IOException e )
+        {
+            Log.e( Tag, "Unable to read stream", e );
+            
+            return 0;
+        }
+    }
+    
+    /**
+     * Sleep until samples read so far are due
+     */
+    private void pace( int samples )
+    {
+        m_pacedSamples += samples;
+        if ( m_pace <= 0 ) return;
+        
+        final long dueAt = m_pacingStartedAt + (long)(m_pacedSamples * 1e9 / (SphinxAudioTask.SAMPLE_RATE * m_pace));
+        final long delay = dueAt - System.nanoTime();
+        if ( delay > 0 )
+        {
+            try
+            {
+                Thread.sleep( delay / 1000000, (int)(delay % 1000000) );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private void updateIdle()
+    {
+        synchronized ( m_queueLock )
+        {
+            if ( m_queue.isEmpty() ) 
+            {
+                m_isIdle = true;
+                m_queueLock.notifyAll();
+            }
+        }
+    }
+    
+    private void closeStream()
+    {
+        if ( m_stream != null ) close( m_stream );
+        m_stream = null;
+    }
+    
+    /**
+     * Skip WAV header if there is one, leaving stream at the first sample
+     */
+    private static void skipHeader( InputStream stream )
+        throws IOException
+    {
+        final byte[] header = new byte[ 12 ];
+        
+        stream.mark( header.length );
+        if ( readFully( stream, header, header.length ) < header.length || 
+             !"RIFF".equals( new String( header, 0, 4, "US-ASCII" ) ) ||
+             !"WAVE".equals( new String( header, 8, 4, "US-ASCII" ) ) )
+        {
+            // Raw samples
+            stream.reset();
+            return;
+        }
+        
+        final byte[] chunk = new byte[ 8 ];
+        while ( readFully( stream, chunk, chunk.length ) == chunk.length )
+        {
+            final String id = new String( chunk, 0, 4, "US-ASCII" );
+            final int size = readInt( chunk, 4 );
+            
+            if ( size < 0 ) throw new IOException( "Corrupt WAV chunk " + id.trim() + " of size " + size );
+            
+            if ( "data".equals( id ) )
+            {
+                return;
+            }
+            else if ( "fmt ".equals( id ) )
+            {
+                if ( size < 16 || size > MAX_FORMAT_SIZE ) throw new IOException( "Corrupt WAV format chunk of size " + size );
+                
+                final byte[] format = new byte[ size ];
+                if ( readFully( stream, format, size ) < size ) throw new IOException( "Truncated WAV format chunk" );
+                
+                final int encoding = readShort( format, 0 );
+                final int channels = readShort( format, 2 );
+                final int sampleRate = readInt( format, 4 );
+                final int bitsPerSample = readShort( format, 14 );
+                
+                if ( encoding != 1 || channels != 1 || bitsPerSample != 16 || sampleRate != SphinxAudioTask.SAMPLE_RATE )
+                {
+                    throw new IOException( "Unsupported WAV format: encoding " + encoding + ", " + channels + " channels, " 
+                                           + sampleRate + " Hz, " + bitsPerSample + " bits");
+                }
+            }
+            else
+            {
+                skipFully( stream, size );
+            }
+            
+            // Chunks are word aligned
+            if ( size % 2 != 0 ) skipFully( stream, 1 );
+        }
+        
+        throw new IOException( "No data chunk in WAV stream" );
+    }
+    
+    private static int readFully( InputStream stream, byte[] buffer, int length )
+        throws IOException
+    {
+        int total = 0;
+        while ( total < length )
+        {
+            final int read = stream.read( buffer, total, length - total );
+            if ( read < 0 ) break;
+            
+            total += read;
+        }
+        
+        return total;
+    }
+    
+    private static void skipFully( InputStream stream, long count )
+        throws IOException
+    {
+        while ( count > 0 )
+        {
+            final long skipped = stream.skip( count );
+            if ( skipped <= 0 )
+            {
+                if ( stream.read() < 0 ) throw new IOException( "Unexpected end of WAV stream" );
+                count -= 1;
+            }
+            else
+            {
+                count -= skipped;
+            }
+        }
+    }
+    
+    private static int readShort( byte[] buffer, int offset )
+    {
+        return (buffer[ offset ] & 0xFF) | ((buffer[ offset + 1 ] & 0xFF) << 8);
+    }
+    
+    private static int readInt( byte[] buffer, int offset )
+    {
+        return readShort( buffer, offset ) | (readShort( buffer, offset + 2 ) << 16);
+    }
+    
+    private static void close( InputStream stream )
+    {
+        try
+        {
+            stream.close();
+        }
+        catch ( IOException e )
+        {
+            Log.w( Tag, "Unable to close stream", e );
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.vintagephone.speech_to_text.RecognitionMode;
+
+import android.util.Log;
+
+/**
+ * This class is used to compile phonebook names and operator commands into a 
+ * compact pronunciation dictionary and grammars.
+ * <p>
+ * 	Pronunciations are looked up in user dictionary (<code>book/names.dic</code>),
+ *  then in the master dictionary (<code>lm/cmu07a.dic</code>) and finally in 
+ *  the general model dictionary. Compiled files are cached in 
+ *  <code>lm/cache/&lt;hash&gt;</code>, where hash covers the vocabulary and 
+ *  all source dictionaries, so unchanged phonebook is never compiled twice.
+ * </p>
+ */
+final class SphinxVocabularyCompiler
+{
+    private static final String Tag = "SphinxVocabularyCompiler";
+    
+    private static final String VERSION = "3";
+    
+    private static final String DICTIONARY_FILE = "commands.dic";
+    private static final String COMPLETE_FILE = "complete";
+    
+    /**
+     * This class describes compiled vocabulary files
+     */
+    static final class Vocabulary
+    {
+        final File dictionary;
+        final Map<RecognitionMode, File> grammars;
+        final File keywordGrammar;
+        
+        Vocabulary( File dictionary, Map<RecognitionMode, File> grammars, File keywordGrammar )
+        {
+            this.dictionary = dictionary;
+            this.grammars = grammars;
+            this.keywordGrammar = keywordGrammar;
+        }
+    }
+    
+    private final SphinxConfiguration m_configuration;
+    
+    SphinxVocabularyCompiler( SphinxConfiguration configuration )
+    {
+        m_configuration = configuration;
+    }
+    
+    /**
+     * Compile vocabulary or reuse previously compiled one.
+     */
+    Vocabulary compile( Collection<String> names )
+        throws IOException
+    {
+        final List<String> normalizedNames = new ArrayList<String>();
+        for ( String name : names )
+        {
+            normalizedNames.add( SphinxGrammarBuilder.normalizeName( name ) );
+        }
+        Collections.sort( normalizedNames );
+        
+        final Set<String> words = new HashSet<String>();
+        Collections.addAll( words, SphinxGrammarBuilder.COMMAND_WORDS );
+        Collections.addAll( words, SphinxGrammarBuilder.DIGIT_WORDS );
+        Collections.addAll( words, SphinxGrammarBuilder.REPEAT_WORDS );
+        for ( String name : normalizedNames )
+        {
+            Collections.addAll( words, name.split( " " ) );
+        }
+        
+        final File[] sources = getSourceDictionaries();
+        final File cacheRoot = m_configuration.getVocabularyCacheDir();
+        final File cacheDir = new File( cacheRoot, hash( normalizedNames, sources ) );
+        
+        if ( new File( cacheDir, COMPLETE_FILE ).exists() )
+        {
+            Log.i( Tag, "Using cached vocabulary " + cacheDir );
+        }
+        else
+        {
+            Log.i( Tag, "Compiling vocabulary of " + normalizedNames.size() + " names into " + cacheDir );
+            
+            deleteOtherEntries( cacheRoot, cacheDir );
+            cacheDir.mkdirs();
+            
+            final Map<String, List<String>> pronunciations = lookupPronunciations( words, sources );
+            writeDictionary( new File( cacheDir, DICTIONARY_FILE ), pronunciations );
+            
+            final SphinxGrammarBuilder builder = new SphinxGrammarBuilder( pronunciations.keySet() );
+            for ( RecognitionMode mode : RecognitionMode.values() )
+            {
+                builder.writeGrammar( cacheDir, mode, normalizedNames );
+            }
+            builder.writeKeywordGrammar( cacheDir, normalizedNames );
+            
+            new File( cacheDir, COMPLETE_FILE ).createNewFile();
+        }
+        
+        final Map<RecognitionMode, File> grammars = new EnumMap<RecognitionMode, File>( RecognitionMode.class );
+        for ( RecognitionMode mode : RecognitionMode.values() )
+        {
+            final String grammarName = SphinxGrammarBuilder.getGrammarFileName( mode );
+            if ( grammarName != null ) grammars.put( mode, new File( cacheDir, grammarName ) );
+        }
+        
+        return new Vocabulary( new File( cacheDir, DICTIONARY_FILE ), grammars, 
+                               new File( cacheDir, SphinxGrammarBuilder.KEYWORD_GRAMMAR_FILE ) );
+    }
+    
+    private File[] getSourceDictionaries()
+    {
+        final List<File> result = new ArrayList<File>();
+        for ( String path : new String[] { m_configuration.getUserDictionaryPath(), 
+                                           m_configuration.getMasterDictionaryPath(), 
+                                           m_configuration.getDictionaryPath() } )
+        {
+            final File file = new File( path );
+            if ( file.exists() ) result.add( file );
+        }
+        
+        return result.toArray( new File[ result.size() ] );
+    }
+    
+    /**
+     * Find pronunciations of given words. First dictionary that knows a word 
+     * defines all its pronunciations.
+     */
+    private static Map<String, List<String>> lookupPronunciations( Set<String> words, File[] sources )
+        throws IOException
+    {
+        final Map<String, List<String>> result = new TreeMap<String, List<String>>();
+        
+        for ( File source : sources )
+        {
+            final Map<String, List<String>> found = new TreeMap<String, List<String>>();
+            
+            final BufferedReader reader = new BufferedReader( new FileReader( source ) );
+            try
+            {
+                String line;
+                while ( (line = reader.readLine()) != null )
+                {
+                    final String[] parts = line.trim().split( "\\s+", 2 );
+                    if ( parts.length < 2 ) continue;
+                    
+                    String word = parts[ 0 ].toLowerCase();
+                    final int variant = word.indexOf( '(' );
+                    if ( variant > 0 ) word = word.substring( 0, variant );
+                    
+                    if ( words.contains( word ) && !result.containsKey( word ) )
+                    {
+                        List<String> phones = found.get( word );
+                        if ( phones == null )
+                        {
+                            phones = new ArrayList<String>();
+                            found.put( word, phones );
+                        }
+                        phones.add( parts[ 1 ].trim() );
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+            
+            result.putAll( found );
+        }
+        
+        for ( String word : words )
+        {
+            if ( !result.containsKey( word ) )
+            {
+                Log.w( Tag, "No pronunciation found for \"" + word + "\"" );
+            }
+        }
+        
+        return result;
+    }
+    
+    private static void writeDictionary( File file, Map<String, List<String>> pronunciations )
+        throws IOException
+    {
+        final Writer writer = new FileWriter( file );
+        try
+        {
+            for ( Map.Entry<String, List<String>> entry : pronunciations.entrySet() )
+            {
+                int variant = 1;
+                for ( String phones : entry.getValue() )
+                {
+                    writer.write( entry.getKey() );
+                    if ( variant > 1 ) writer.write( "(" + variant + ")" );
+                    writer.write( "\t" + phones + "\n" );
+                    
+                    variant += 1;
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+    
+    private static String hash( List<String> names, File[] sources )
+    {
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance( "MD5" );
+            
+            digest.update( VERSION.getBytes() );
+            for ( String name : names )
+            {
+                digest.update( (name + "\n").getBytes( "UTF-8" ) );
+            }
+            for ( File source : sources )
+            {
+                digest.update( (source.getAbsolutePath() + ":" + source.length() + ":" + source.lastModified() + "\n").getBytes() );
+            }
+            
+            final StringBuilder result = new StringBuilder();
+            for ( byte b : digest.digest() )
+            {
+                result.append( Character.forDigit( (b >> 4) & 0xF, 16 ) );
+                result.append( Character.forDigit( b & 0xF, 16 ) );
+            }
+            
+            return result.toString();
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "MD5 is not available", e );
+        }
+        catch ( java.io.UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not available", e );
+        }
+    }
+    
+    /**
+     * Remove vocabularies compiled for old phonebooks
+     */
+    private static void deleteOtherEntries( File cacheRoot, File keep )
+    {
+        final File[] entries = cacheRoot.listFiles();
+        if ( entries == null ) return;
+        
+        for ( File entry : entries )
+        {
+            if ( entry.isDirectory() && !entry.equals( keep ) )
+            {
+                final File[] files = entry.listFiles();
+                if ( files != null )
+                {
+                    for ( File file : files ) file.delete();
+                }
+                entry.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.trace;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.util.Log;
+
+/**
+ * This class is used to record frequent events (e.g. every audio block) 
+ * without building strings or taking locks on the hot path.
+ * <p>
+ * 	Events are stored as an id and two numeric arguments in a fixed size ring, 
+ *  oldest events are overwritten. Messages are only formatted when trace is 
+ *  dumped to a file using {@link #dump(File)}.
+ * </p>
+ * <p>
+ * 	Every {@link TraceSubsystem} has a level that could be changed at runtime,
+ *  events below the level are not recorded.
+ * </p>
+ */
+public final class Trace
+{
+    /**
+     * This interface is used to follow level changes (e.g. to reconfigure 
+     * logging of a native library)
+     */
+    public interface LevelListener
+    {
+        void levelChanged( TraceSubsystem subsystem, int level );
+    }
+    
+    private static final String Tag = "Trace";
+    
+    private static final int CAPACITY = 4096; // Must be a power of two
+    private static final int FIELDS = 4;      // Time, thread and event, two arguments
+    
+    private static final long[] s_entries = new long[ CAPACITY*FIELDS ];
+    private static final AtomicLongArray s_sequences = new AtomicLongArray( CAPACITY );
+    private static final AtomicLong s_cursor = new AtomicLong();
+    
+    private static final int[] s_levels = new int[ TraceSubsystem.values().length ];
+    private static final CopyOnWriteArrayList<LevelListener> s_listeners = new CopyOnWriteArrayList<LevelListener>();
+    
+    static
+    {
+        for ( TraceSubsystem subsystem : TraceSubsystem.values() )
+        {
+            s_levels[ subsystem.ordinal() ] = subsystem.defaultLevel;
+        }
+    }
+    
+    private Trace() { }
+    
+    /**
+     * Set lowest level of events recorded for given subsystem
+     */
+    public static void setLevel( TraceSubsystem subsystem, int level )
+    {
+        s_levels[ subsystem.ordinal() ] = level;
+        
+        for ( LevelListener listener : s_listeners ) listener.levelChanged( subsystem, level );
+    }
+    
+    public static int getLevel( TraceSubsystem subsystem )
+    {
+        return s_levels[ subsystem.ordinal() ];
+    }
+    
+    public static boolean isEnabled( TraceSubsystem subsystem, int level )
+    {
+        return level >= s_levels[ subsystem.ordinal() ];
+    }
+    
+    public static void addLevelListener( LevelListener listener )
+    {
+        s_listeners.add( listener );
+    }
+    
+    public static void removeLevelListener( LevelListener listener )
+    {
+        s_listeners.remove( listener );
+    }
+    
+    public static void event( TraceEvent event )
+    {
+        event( event, 0, 0 );
+    }
+    
+    public static void event( TraceEvent event, long argument )
+    {
+        event( event, argument, 0 );
+    }
+    
+    public static void event( TraceEvent event, long first, long second )
+    {
+        if ( event.level < s_levels[ event.subsystem.ordinal() ] ) return;
+        
+        final long index = s_cursor.getAndIncrement();
+        final int slot = (int)(index & (CAPACITY - 1));
+        final int offset = slot*FIELDS;
+        
+        // Sequence is cleared while entry is written, so dump skips it
+        s_sequences.set( slot, 0 );
+        
+        s_entries[ offset ]     = System.nanoTime();
+        s_entries[ offset + 1 ] = (Thread.currentThread().getId() << 16) | event.ordinal();
+        s_entries[ offset + 2 ] = first;
+        s_entries[ offset + 3 ] = second;
+        
+        s_sequences.set( slot, index + 1 );
+    }
+    
+    /**
+     * Write recorded events to a text file, oldest first. Events recorded while
+     * dumping could be missing from the dump.
+     */
+    public static void dump( File file )
+        throws IOException
+    {
+        final TraceEvent[] events = TraceEvent.values();
+        final long end = s_cursor.get();
+        final long start = Math.max( 0, end - CAPACITY );
+        
+        final PrintWriter out = new PrintWriter( new FileWriter( file ) );
+        try
+        {
+            long firstTime = -1;
+            int skipped = 0;
+            
+            for ( long index = start; index < end; index++ )
+            {
+                final int slot = (int)(index & (CAPACITY - 1));
+                final int offset = slot*FIELDS;
+                
+                final long sequence = s_sequences.get( slot );
+                
+                final long time = s_entries[ offset ];
+                final long header = s_entries[ offset + 1 ];
+                final long first = s_entries[ offset + 2 ];
+                final long second = s_entries[ offset + 3 ];
+                
+                if ( sequence != index + 1 || s_sequences.get( slot ) != sequence )
+                {
+                    // Being written or already overwritten
+                    skipped += 1;
+                    continue;
+                }
+                
+                if ( firstTime < 0 ) firstTime = time;
+                
+                final TraceEvent event = events[ (int)(header & 0xFFFF) ];
+                
+                out.print( String.format( "%10.3f ", (time - firstTime) / 1e6 ) );
+                out.print( "[" + (header >>> 16) + "] " );
+                out.print( event.subsystem + " " );
+                out.println( String.format( event.format, first, second ) );
+            }
+            
+            Log.i( Tag, "Dumped " + (end - start - skipped) + " trace events to " + file );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
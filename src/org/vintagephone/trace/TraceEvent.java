@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.trace;
+
+import android.util.Log;
+
+/**
+ * This enumeration lists events that could be recorded by {@link Trace}. 
+ * Events only carry up to two numeric arguments, message is formatted when 
+ * trace is dumped.
+ */
+public enum TraceEvent
+{
+    AUDIO_READ( TraceSubsystem.AUDIO, Log.DEBUG, "Read %d samples (block has %d)" ),
+    AUDIO_BLOCK_TAKEN( TraceSubsystem.RECOGNIZER, Log.DEBUG, "Took block from queue (backlog %d)" ),
+    AUDIO_DISCONTINUITY( TraceSubsystem.RECOGNIZER, Log.WARN, "Samples dropped before block (lag %d ms)" ),
+    RECOGNIZER_BLOCK_PROCESSED( TraceSubsystem.RECOGNIZER, Log.DEBUG, "Processed %d samples in %d us" ),
+    RECOGNIZER_HYPOTHESIS( TraceSubsystem.RECOGNIZER, Log.DEBUG, "New hypothesis (%d characters, getHyp took %d us)" );
+    
+    final TraceSubsystem subsystem;
+    final int level;
+    final String format;
+    
+    private TraceEvent( TraceSubsystem subsystem, int level, String format )
+    {
+        this.subsystem = subsystem;
+        this.level = level;
+        this.format = format;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package android.util;
+
+/**
+ * Minimal replacement for Android logger, so that recognizer classes could be 
+ * used by tools running on a plain JVM. Messages are printed to standard error.
+ */
+public final class Log
+{
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    
+    private static volatile int s_level = Integer.getInteger( "vp.log.level", INFO ).intValue();
+    
+    private Log() { }
+    
+    public static void setLevel( int level )
+    {
+        s_level = level;
+    }
+    
+    public static boolean isLoggable( String tag, int level )
+    {
+        return level >= s_level;
+    }
+    
+    public static int v( String tag, String msg ) { return print( VERBOSE, tag, msg, null ); }
+    public static int d( String tag, String msg ) { return print( DEBUG, tag, msg, null ); }
+    public static int i( String tag, String msg ) { return print( INFO, tag, msg, null ); }
+    public static int w( String tag, String msg ) { return print( WARN, tag, msg, null ); }
+    public static int e( String tag, String msg ) { return print( ERROR, tag, msg, null ); }
+    
+    public static int d( String tag, String msg, Throwable tr ) { return print( DEBUG, tag, msg, tr ); }
+    public static int i( String tag, String msg, Throwable tr ) { return print( INFO, tag, msg, tr ); }
+    public static int w( String tag, String msg, Throwable tr ) { return print( WARN, tag, msg, tr ); }
+    public static int e( String tag, String msg, Throwable tr ) { return print( ERROR, tag, msg, tr ); }
+    
+    private static int print( int level, String tag, String msg, Throwable tr )
+    {
+        if ( level < s_level ) return 0;
+        
+        System.err.println( "VDIWE".charAt( level - VERBOSE ) + "/" + tag + ": " + msg );
+        if ( tr != null ) tr.printStackTrace();
+        
+        return 0;
+    }
+}
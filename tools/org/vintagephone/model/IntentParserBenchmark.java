@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This tool compares {@link IntentParser} against regular expression matching
+ * it has replaced, on partial hypotheses the way decoder produces them (each 
+ * one a word longer than the previous one).
+ * <p>
+ * 	Time and, where the JVM can tell, bytes allocated per hypothesis are 
+ *  reported for both. Each run is repeated several times so that JIT has 
+ *  settled before the last rounds.
+ * </p>
+ * <p>
+ * 	Usage:
+ *  <pre>
+ *  java -cp bin:tools-bin org.vintagephone.model.IntentParserBenchmark [rounds]
+ *  </pre>
+ * </p>
+ */
+public class IntentParserBenchmark
+{
+    private static final Pattern CALL_PATTERN = Pattern.compile("^(call [a-zA-Z]+)");
+    private static final Pattern DIAL_PATTERN = Pattern.compile("^(dial (((one)|(two)|(three)|(four)|(five)|(six)|(seven)|(eight)|(nine)|(zero)|(plus))\\s?)+)");
+    
+    private static final String[] UTTERANCES = {
+        "dial five five five oh one double oh nine",
+        "dial one four one five five five five one two one two",
+        "call john smith",
+        "call mary",
+        "yes",
+        "no",
+        "stop",
+        "dial nine one one stop",
+    };
+    
+    private static final int ITERATIONS = 20000;
+    
+    private static int s_sink = 0;
+    
+    private interface Path
+    {
+        void reset();
+        
+        void process( String text, boolean isFinal );
+    }
+    
+    /**
+     * Matching as it was done by TextListener before the parser, copied as is 
+     * (logging left out, it is left out of the parser path as well)
+     */
+    private static class RegexPath
+        implements Path
+    {
+        String m_dialNumber;
+        String m_dialPerson;
+        boolean m_stopSaid;
+        boolean m_yesSaid;
+        boolean m_noSaid;
+        
+        public void reset()
+        {
+            m_dialNumber = null;
+            m_dialPerson = null;
+            m_stopSaid = false;
+            m_yesSaid = false;
+            m_noSaid = false;
+        }
+        
+        public void process( String text, boolean isFinal )
+        {
+            processText( text.toLowerCase() );
+            
+            if ( isFinal && m_dialNumber != null ) s_sink += m_dialNumber.length();
+        }
+        
+        private void processText( String text )
+        {
+            boolean isRecognized = false;
+            
+            Matcher matcher = CALL_PATTERN.matcher( text );
+            if ( matcher.matches() )
+            {
+                m_dialPerson = text.substring( 5 );
+                
+                isRecognized = true;
+            }
+            
+            matcher = DIAL_PATTERN.matcher( text );
+            if ( matcher.matches() )
+            {
+                m_dialNumber = text.substring( 5 );
+                
+                isRecognized = true;
+            }
+            
+            if ( text.contains("stop") )
+            {
+                m_stopSaid = true;
+                
+                isRecognized = true;
+            }
+            
+            if ( "yes".equals( text ) )
+            {
+                m_yesSaid = false;
+                
+                isRecognized = true;
+            }
+            
+            if ( text.contains("no") )
+            {
+                m_noSaid = true;
+                
+                isRecognized = true;
+            }
+            
+            if ( isRecognized ) s_sink += 1;
+        }
+    }
+    
+    private static class ParserPath
+        implements Path
+    {
+        private final IntentParser m_parser = new IntentParser();
+        
+        ParserPath()
+        {
+            m_parser.setNames( Arrays.asList( "john smith", "mary", "operator" ) );
+        }
+        
+        public void reset()
+        {
+            m_parser.reset();
+        }
+        
+        public void process( String text, boolean isFinal )
+        {
+            m_parser.parse( text );
+            
+            if ( m_parser.isStopSaid() || m_parser.isNoSaid() ) s_sink += 1;
+            if ( isFinal && m_parser.getIntent() == IntentParser.Intent.DIAL ) s_sink += m_parser.getNumber().length();
+        }
+    }
+    
+    public static void main( String[] args )
+    {
+        final int rounds = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 5;
+        
+        final String[][] partials = new String[ UTTERANCES.length ][];
+        int hypotheses = 0;
+        for ( int i = 0; i < UTTERANCES.length; i++ )
+        {
+            partials[ i ] = toPartials( UTTERANCES[ i ] );
+            hypotheses += partials[ i ].length;
+        }
+        
+        final Path regex = new RegexPath();
+        final Path parser = new ParserPath();
+        
+        for ( int round = 1; round <= rounds; round++ )
+        {
+            System.out.println( "round " + round + ":" );
+            System.out.println( "  regex:  " + run( regex, partials, hypotheses ) );
+            System.out.println( "  parser: " + run( parser, partials, hypotheses ) );
+        }
+        
+        if ( s_sink == 42 ) System.out.println();
+    }
+    
+    private static String run( Path path, String[][] partials, int hypotheses )
+    {
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        
+        for ( int iteration = 0; iteration < ITERATIONS; iteration++ )
+        {
+            for ( String[] utterance : partials )
+            {
+                path.reset();
+                for ( int i = 0; i < utterance.length; i++ )
+                {
+                    path.process( utterance[ i ], i == utterance.length - 1 );
+                }
+            }
+        }
+        
+        final long nanos = System.nanoTime() - start;
+        final long allocated = getAllocatedBytes() - allocatedBefore;
+        
+        final long total = (long)ITERATIONS * hypotheses;
+        return String.format( "%.0f ns/hypothesis, %s bytes/hypothesis", 
+                              nanos / (double)total, 
+                              allocatedBefore < 0 ? "n/a" : String.valueOf( allocated / total ) );
+    }
+    
+    /**
+     * @return partial hypotheses leading to given text, one word at a time
+     */
+    private static String[] toPartials( String text )
+    {
+        final String[] words = text.split( " " );
+        final String[] result = new String[ words.length ];
+        
+        final StringBuilder partial = new StringBuilder();
+        for ( int i = 0; i < words.length; i++ )
+        {
+            if ( i > 0 ) partial.append( ' ' );
+            partial.append( words[ i ] );
+            
+            result[ i ] = partial.toString();
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return bytes allocated by current thread so far or -1 if not supported
+     */
+    private static long getAllocatedBytes()
+    {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if ( bean instanceof com.sun.management.ThreadMXBean )
+        {
+            final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+            if ( sunBean.isThreadAllocatedMemorySupported() )
+            {
+                return sunBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+            }
+        }
+        
+        return -1;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.model;
+
+import java.util.Arrays;
+
+/**
+ * This tool checks {@link IntentParser} on sequences of partial hypotheses
+ * the way decoder revises them, including revisions that extend the last 
+ * word instead of adding a new one.
+ * <p>
+ * 	Exits with a non-zero status if any case fails.
+ * </p>
+ * <p>
+ * 	Usage:
+ *  <pre>
+ *  java -cp bin:tools-bin org.vintagephone.model.IntentParserCheck
+ *  </pre>
+ * </p>
+ */
+public class IntentParserCheck
+{
+    private static int s_failures = 0;
+    
+    public static void main( String[] args )
+    {
+        final IntentParser parser = new IntentParser();
+        parser.setNames( Arrays.asList( "ann", "anne", "john smith" ) );
+        
+        // Last stable word is extended by the next partial
+        check( parser, "anne", null, "call ann bob", "call anne" );
+        check( parser, "ann", null, "call anne", "call ann" );
+        check( parser, "john smith", null, "call john", "call john smith" );
+        check( parser, null, "5550100", "dial five five", "dial five five five oh one double oh" );
+        check( parser, null, "19", "dial one nine one", "dial one nineteen", "dial one nine" );
+        
+        System.out.println( s_failures == 0 ? "All cases passed" : s_failures + " case(s) failed" );
+        if ( s_failures > 0 ) System.exit( 1 );
+    }
+    
+    private static void check( IntentParser parser, String person, String number, String... partials )
+    {
+        parser.reset();
+        for ( String partial : partials )
+        {
+            parser.parse( partial );
+        }
+        
+        final String last = partials[ partials.length - 1 ];
+        if ( !equal( person, parser.getPerson() ) || !equal( number, parser.getNumber() ) )
+        {
+            System.out.println( "FAIL \"" + last + "\": expected person=" + person + " number=" + number 
+                                + ", got person=" + parser.getPerson() + " number=" + parser.getNumber() );
+            s_failures += 1;
+        }
+        else
+        {
+            System.out.println( "ok   \"" + last + "\"" );
+        }
+    }
+    
+    private static boolean equal( String expected, String actual )
+    {
+        return expected == null ? actual == null : expected.equals( actual );
+    }
+}
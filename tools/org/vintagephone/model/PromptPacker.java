@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This tool packs all prompt folders of a voice tree into a single 
+ * {@link PromptArchive}, which is then copied to the phone next to the 
+ * folders (<code>/sdcard/Android/data/vp/voice/prompts.pack</code>).
+ * <p>
+ * 	Prompts are converted to given sample rate or, if none is given, to the
+ *  rate most of them share. Files that are not 16-bit PCM WAV are left out
+ *  and are not said while the archive is in use, convert them before 
+ *  packing.
+ * </p>
+ * <p>
+ * 	Newest change to every folder is recorded, phone decodes a folder from 
+ *  its files instead once they are newer. Keep modification times when 
+ *  copying folders to the phone along with the archive.
+ * </p>
+ * <p>
+ * 	Usage:
+ *  <pre>
+ *  java -cp bin:tools-bin org.vintagephone.model.PromptPacker voice-root [sample-rate]
+ *  </pre>
+ * </p>
+ */
+public class PromptPacker
+{
+    public static void main( String[] args )
+        throws Exception
+    {
+        if ( args.length < 1 )
+        {
+            System.err.println( "Usage: PromptPacker voice-root [sample-rate]" );
+            System.exit( 1 );
+        }
+        
+        final File root = new File( args[ 0 ] );
+        final Map<String, List<Prompt>> folders = PromptLibrary.decodeTree( root );
+        final int sampleRate = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : PromptLibrary.getCommonSampleRate( folders );
+        
+        int count = 0;
+        int skipped = 0;
+        for ( Iterator<Map.Entry<String, List<Prompt>>> i = folders.entrySet().iterator(); i.hasNext(); )
+        {
+            final Map.Entry<String, List<Prompt>> entry = i.next();
+            
+            final List<Prompt> packed = new ArrayList<Prompt>();
+            for ( Prompt prompt : entry.getValue() )
+            {
+                if ( prompt.isDecoded() )
+                {
+                    packed.add( prompt.resample( sampleRate ) );
+                }
+                else
+                {
+                    System.err.println( "Skipping " + prompt.getFile() + ", it is not 16-bit PCM WAV, convert it before packing" );
+                    skipped += 1;
+                }
+            }
+            
+            count += packed.size();
+            if ( packed.isEmpty() )
+            {
+                i.remove();
+            }
+            else
+            {
+                entry.setValue( packed );
+            }
+        }
+        
+        final File archive = new File( root, PromptArchive.FILE_NAME );
+        PromptArchive.write( folders, sampleRate, archive );
+        
+        // Make sure the phone will accept it
+        PromptArchive.read( archive, null );
+        
+        System.out.println( "Packed " + count + " prompts in " + folders.size() + " folders at " + sampleRate + " Hz into " 
+                            + archive + " (" + archive.length() / 1024 + " KB), skipped " + skipped );
+    }
+}
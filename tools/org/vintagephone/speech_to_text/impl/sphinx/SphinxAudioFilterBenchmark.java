@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * This tool measures how much CPU every preprocessing filter (see 
+ * {@link SphinxAudioFilter}) takes, alone and chained.
+ * <p>
+ * 	Filters process blocks of {@link SphinxAudioTask#DEFAULT_BLOCK_SIZE} 
+ *  samples of synthetic handset audio (DC offset, hum, noise and bursts of 
+ *  voiced sound). Time per block, real-time factor on one core and bytes 
+ *  allocated per block (where the JVM can tell) are reported. Each filter 
+ *  is measured several rounds, so that JIT has settled before the last one.
+ * </p>
+ * <p>
+ * 	Usage:
+ *  <pre>
+ *  java -cp bin:tools-bin org.vintagephone.speech_to_text.impl.sphinx.SphinxAudioFilterBenchmark [seconds of audio] [rounds]
+ *  </pre>
+ * </p>
+ */
+public class SphinxAudioFilterBenchmark
+{
+    private interface Factory
+    {
+        SphinxAudioFilter create();
+    }
+    
+    public static void main( String[] args )
+    {
+        final int seconds = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 600;
+        final int rounds = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 3;
+        
+        final short[] signal = createSignal( SphinxAudioTask.SAMPLE_RATE * 10 );
+        final int blocks = seconds * SphinxAudioTask.SAMPLE_RATE / SphinxAudioTask.DEFAULT_BLOCK_SIZE;
+        
+        final String[] names = { "dc blocker", "high-pass", "noise gate", "automatic gain", "chain" };
+        final Factory[] factories = {
+            new Factory() { public SphinxAudioFilter create() { return new SphinxDcBlocker(); } },
+            new Factory() { public SphinxAudioFilter create() { return new SphinxHighPassFilter( SphinxHighPassFilter.DEFAULT_CUTOFF, SphinxAudioTask.SAMPLE_RATE ); } },
+            new Factory() { public SphinxAudioFilter create() { return new SphinxNoiseGate(); } },
+            new Factory() { public SphinxAudioFilter create() { return new SphinxAutomaticGain(); } },
+            new Factory() 
+            { 
+                public SphinxAudioFilter create() 
+                { 
+                    return new SphinxFilterChain().add( new SphinxDcBlocker() )
+                                                  .add( new SphinxHighPassFilter( SphinxHighPassFilter.DEFAULT_CUTOFF, SphinxAudioTask.SAMPLE_RATE ) )
+                                                  .add( new SphinxNoiseGate() )
+                                                  .add( new SphinxAutomaticGain() ); 
+                } 
+            },
+        };
+        
+        for ( int round = 1; round <= rounds; round++ )
+        {
+            System.out.println( "round " + round + " (" + seconds + " s of audio):" );
+            for ( int i = 0; i < factories.length; i++ )
+            {
+                System.out.println( String.format( "  %-15s %s", names[ i ], run( factories[ i ].create(), signal, blocks ) ) );
+            }
+        }
+    }
+    
+    private static String run( SphinxAudioFilter filter, short[] signal, int blocks )
+    {
+        final short[] block = new short[ SphinxAudioTask.DEFAULT_BLOCK_SIZE ];
+        
+        final long allocatedBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        
+        int offset = 0;
+        for ( int i = 0; i < blocks; i++ )
+        {
+            if ( offset + block.length > signal.length ) offset = 0;
+            System.arraycopy( signal, offset, block, 0, block.length );
+            offset += block.length;
+            
+            filter.process( block, block.length );
+        }
+        
+        final long nanos = System.nanoTime() - start;
+        final long allocated = getAllocatedBytes() - allocatedBefore;
+        
+        final double audioNanos = (double)blocks * block.length / SphinxAudioTask.SAMPLE_RATE * 1e9;
+        return String.format( "%6.1f us/block, RTF %.5f, %s bytes/block", 
+                              nanos / 1000.0 / blocks,
+                              nanos / audioNanos,
+                              allocatedBefore < 0 ? "n/a" : String.valueOf( allocated / blocks ) );
+    }
+    
+    /**
+     * @return quiet noise with DC offset and hum, interrupted by louder 
+     *         harmonic bursts roughly where words would be
+     */
+    private static short[] createSignal( int length )
+    {
+        final Random random = new Random( 0 );
+        final short[] result = new short[ length ];
+        
+        for ( int i = 0; i < length; i++ )
+        {
+            final double time = i / (double)SphinxAudioTask.SAMPLE_RATE;
+            final boolean isWord = (time % 2.0) > 0.5 && (time % 2.0) < 1.3;
+            
+            double sample = 1500 + 200 * Math.sin( 2 * Math.PI * 50 * time ) + 60 * random.nextGaussian();
+            if ( isWord )
+            {
+                for ( int harmonic = 1; harmonic <= 8; harmonic++ )
+                {
+                    sample += 400.0 / harmonic * Math.sin( 2 * Math.PI * 140 * harmonic * time );
+                }
+            }
+            
+            result[ i ] = SphinxDcBlocker.clip( (int)sample );
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return bytes allocated by current thread so far or -1 if not supported
+     */
+    private static long getAllocatedBytes()
+    {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if ( bean instanceof com.sun.management.ThreadMXBean )
+        {
+            final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+            if ( sunBean.isThreadAllocatedMemorySupported() )
+            {
+                return sunBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+            }
+        }
+        
+        return -1;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+/**
+ * This tool checks that {@link SphinxAudioRing} marks the first block after
+ * dropped samples as discontinuous, whichever block the overflow policy 
+ * dropped.
+ * <p>
+ * 	Exits with a non-zero status if any case fails.
+ * </p>
+ * <p>
+ * 	Usage:
+ *  <pre>
+ *  java -cp bin:tools-bin org.vintagephone.speech_to_text.impl.sphinx.SphinxAudioRingCheck
+ *  </pre>
+ * </p>
+ */
+public class SphinxAudioRingCheck
+{
+    private static final int CAPACITY = 4;
+    
+    private static int s_failures = 0;
+    
+    public static void main( String[] args )
+        throws InterruptedException
+    {
+        checkOnlyWaitingBlockDropped();
+        checkOldestOfSeveralDropped();
+        checkNewestDropped();
+        
+        System.out.println( s_failures == 0 ? "All cases passed" : s_failures + " case(s) failed" );
+        if ( s_failures > 0 ) System.exit( 1 );
+    }
+    
+    /**
+     * Consumer holds all blocks but one, so the dropped block is the only 
+     * waiting one and the gap is right before the block published next
+     */
+    private static void checkOnlyWaitingBlockDropped()
+        throws InterruptedException
+    {
+        final SphinxAudioRing ring = createRing( SphinxOverflowPolicy.DROP_OLDEST );
+        for ( int i = 0; i < CAPACITY - 1; i++ )
+        {
+            ring.take( false );
+        }
+        
+        publish( ring, CAPACITY + 1 );
+        
+        final SphinxAudioBlock block = ring.take( false );
+        check( "only waiting block dropped", block.length == CAPACITY + 1 && block.isDiscontinuous );
+    }
+    
+    private static void checkOldestOfSeveralDropped()
+        throws InterruptedException
+    {
+        final SphinxAudioRing ring = createRing( SphinxOverflowPolicy.DROP_OLDEST );
+        ring.take( false );
+        
+        publish( ring, CAPACITY + 1 );
+        
+        final SphinxAudioBlock block = ring.take( false );
+        check( "oldest of several waiting blocks dropped", block.length == 3 && block.isDiscontinuous );
+    }
+    
+    private static void checkNewestDropped()
+        throws InterruptedException
+    {
+        final SphinxAudioRing ring = createRing( SphinxOverflowPolicy.DROP_NEWEST );
+        
+        publish( ring, CAPACITY + 1 );
+        for ( int i = 0; i < CAPACITY; i++ )
+        {
+            ring.release( ring.take( false ) );
+        }
+        publish( ring, CAPACITY + 2 );
+        
+        final SphinxAudioBlock block = ring.take( false );
+        check( "newest block dropped", block.length == CAPACITY + 2 && block.isDiscontinuous );
+    }
+    
+    /**
+     * @return full ring of blocks, each block holding its number as length
+     */
+    private static SphinxAudioRing createRing( SphinxOverflowPolicy policy )
+    {
+        final SphinxAudioRing ring = new SphinxAudioRing( CAPACITY, CAPACITY + 2 );
+        ring.setOverflowPolicy( policy );
+        
+        for ( int i = 1; i <= CAPACITY; i++ )
+        {
+            publish( ring, i );
+        }
+        
+        return ring;
+    }
+    
+    private static void publish( SphinxAudioRing ring, int number )
+    {
+        final SphinxAudioBlock block = ring.acquire();
+        block.length = number;
+        ring.publish( block );
+    }
+    
+    private static void check( String name, boolean isPassed )
+    {
+        System.out.println( (isPassed ? "ok   " : "FAIL ") + name );
+        if ( !isPassed ) s_failures += 1;
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.vintagephone.speech_to_text.RecognitionMode;
+
+/**
+ * This class is a set of recorded utterances with reference transcripts used
+ * to measure recognition accuracy.
+ * <p>
+ * 	Corpus directory contains <code>transcripts.txt</code> with one 
+ *  "<i>utterance-id</i> <i>words</i>" line per utterance and a 
+ *  <code>utterance-id.raw</code> file for every utterance (16-bit little-endian 
+ *  mono 8 kHz PCM, as written by <code>-rawlogdir</code>).
+ * </p>
+ */
+final class SphinxCorpus
+{
+    static final class Utterance
+    {
+        final String id;
+        final String reference;
+        final File audioFile;
+        
+        Utterance( String id, String reference, File audioFile )
+        {
+            this.id = id;
+            this.reference = reference;
+            this.audioFile = audioFile;
+        }
+        
+        /**
+         * @return mode operator would be in when this utterance is spoken: 
+         *         "yes", "no" and "stop" answers are confirmations, everything
+         *         else is a dial target
+         */
+        RecognitionMode getMode()
+        {
+            final boolean isAnswer = "yes".equals( reference ) || "no".equals( reference ) || "stop".equals( reference );
+            
+            return isAnswer ? RecognitionMode.CONFIRMATION : RecognitionMode.DIAL_TARGET;
+        }
+    }
+    
+    private final File m_directory;
+    private final List<Utterance> m_utterances = new ArrayList<Utterance>();
+    
+    SphinxCorpus( File directory )
+        throws IOException
+    {
+        m_directory = directory;
+        
+        final BufferedReader reader = new BufferedReader( new FileReader( new File( directory, "transcripts.txt" ) ) );
+        try
+        {
+            String line;
+            while ( (line = reader.readLine()) != null )
+            {
+                line = line.trim();
+                if ( line.length() == 0 || line.startsWith( "#" ) ) continue;
+                
+                final int split = line.indexOf( ' ' );
+                final String id = split > 0 ? line.substring( 0, split ) : line;
+                final String reference = split > 0 ? line.substring( split + 1 ).trim().toLowerCase() : "";
+                
+                m_utterances.add( new Utterance( id, reference, new File( directory, id + ".raw" ) ) );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+    
+    File getDirectory()
+    {
+        return m_directory;
+    }
+    
+    List<Utterance> getUtterances()
+    {
+        return m_utterances;
+    }
+    
+    /**
+     * @return names from phonebook file next to the corpus (<code>numbers.txt</code>), if any
+     */
+    List<String> readPhonebookNames()
+        throws IOException
+    {
+        final List<String> result = new ArrayList<String>();
+        
+        final File numbersFile = new File( m_directory, "numbers.txt" );
+        if ( numbersFile.exists() )
+        {
+            final Properties numbers = new Properties();
+            final InputStream in = new FileInputStream( numbersFile );
+            try
+            {
+                numbers.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+            
+            for ( Object name : numbers.keySet() )
+            {
+                result.add( name.toString() );
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Read all samples of a raw utterance file
+     */
+    static short[] readRaw( File file )
+        throws IOException
+    {
+        final byte[] bytes = new byte[ (int)file.length() ];
+        
+        final DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+        try
+        {
+            in.readFully( bytes );
+        }
+        finally
+        {
+            in.close();
+        }
+        
+        final short[] result = new short[ bytes.length / 2 ];
+        for ( int i = 0; i < result.length; i++ )
+        {
+            result[ i ] = (short)((bytes[ 2*i ] & 0xFF) | (bytes[ 2*i + 1 ] << 8));
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Count word substitutions, insertions and deletions needed to turn 
+     * hypothesis into reference.
+     */
+    static int countWordErrors( String reference, String hypothesis )
+    {
+        final String[] ref = split( reference );
+        final String[] hyp = split( hypothesis );
+        
+        int[] previous = new int[ hyp.length + 1 ];
+        int[] current = new int[ hyp.length + 1 ];
+        for ( int j = 0; j <= hyp.length; j++ ) previous[ j ] = j;
+        
+        for ( int i = 1; i <= ref.length; i++ )
+        {
+            current[ 0 ] = i;
+            for ( int j = 1; j <= hyp.length; j++ )
+            {
+                final int substitution = previous[ j - 1 ] + (ref[ i - 1 ].equals( hyp[ j - 1 ] ) ? 0 : 1);
+                current[ j ] = Math.min( substitution, Math.min( previous[ j ], current[ j - 1 ] ) + 1 );
+            }
+            
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        
+        return previous[ hyp.length ];
+    }
+    
+    static int countWords( String text )
+    {
+        return split( text ).length;
+    }
+    
+    private static String[] split( String text )
+    {
+        final String trimmed = text != null ? text.trim().toLowerCase() : "";
+        
+        return trimmed.length() > 0 ? trimmed.split( "\\s+" ) : new String[ 0 ];
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.vintagephone.speech_to_text.RecognitionAlternative;
+import org.vintagephone.speech_to_text.SpeechToTextListener;
+
+/**
+ * This tool runs a recorded corpus (see {@link SphinxCorpus}) through the 
+ * same recognizer, audio task and endpointer that run on the phone, replaying
+ * utterances instead of reading input audio device.
+ * <p>
+ * 	For every utterance hypothesis, time from first sample to first partial 
+ *  result, time from last sample to final result and real-time factor 
+ *  (recognizer thread CPU time divided by audio duration) are reported.
+ * </p>
+ * <p>
+ * 	Usage (needs <code>pocketsphinx_jni</code> built for the host on 
+ *  <code>java.library.path</code>):
+ *  <pre>
+ *  java -cp bin:tools-bin org.vintagephone.speech_to_text.impl.sphinx.SphinxCorpusRunner &lt;model root&gt; &lt;corpus dir&gt; [pace]
+ *  </pre>
+ *  Pace of 1 (default) replays utterances in real time, larger values replay
+ *  them faster, 0 replays them as fast as possible.
+ * </p>
+ */
+public class SphinxCorpusRunner
+{
+    private static final long RESULT_TIMEOUT = 5000; // ms
+    
+    /**
+     * Collects recognizer callbacks for one utterance
+     */
+    private static class Result 
+        implements SpeechToTextListener
+    {
+        final CountDownLatch done = new CountDownLatch( 1 );
+        
+        volatile long firstPartialAt = 0;
+        volatile long finalAt = 0;
+        volatile String hypothesis = "";
+        
+        public void speechStarted()
+        {
+            // Not reported, first partial result is what matters here
+        }
+        
+        public void partRecognized( String text )
+        {
+            if ( firstPartialAt == 0 && text != null && text.length() > 0 ) firstPartialAt = System.nanoTime();
+        }
+        
+        public void alternativesRecognized( List<RecognitionAlternative> alternatives )
+        {
+            // Only the best hypothesis is scored
+        }
+        
+        public void fullyRecognized( String text )
+        {
+            hypothesis = text;
+            finalAt = System.nanoTime();
+            done.countDown();
+        }
+        
+        public void errorOccured( String error )
+        {
+            finalAt = System.nanoTime();
+            done.countDown();
+        }
+        
+        public void keywordSpotted( String keyword )
+        {
+            // Keyword spotting is not enabled
+        }
+    }
+    
+    public static void main( String[] args )
+        throws Exception
+    {
+        if ( args.length < 2 )
+        {
+            System.err.println( "Usage: SphinxCorpusRunner <model root> <corpus dir> [pace]" );
+            System.exit( 1 );
+        }
+        
+        final double pace = args.length > 2 ? Double.parseDouble( args[ 2 ] ) : 1.0;
+        
+        final SphinxCorpus corpus = new SphinxCorpus( new File( args[ 1 ] ) );
+        final SphinxStreamAudioSource source = new SphinxStreamAudioSource( pace );
+        
+        final SphinxSpeechRecognizer recognizer = new SphinxSpeechRecognizer( new SphinxConfiguration( args[ 0 ] ) );
+        recognizer.setAudioSource( source );
+        recognizer.setVocabulary( corpus.readPhonebookNames() );
+        recognizer.initialize();
+        recognizer.startCapture();
+        
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final long recognizerThreadId = findThread( "sphx:rec" );
+        
+        int utterances = 0;
+        int words = 0;
+        int wordErrors = 0;
+        long totalFirstPartial = 0;
+        int partials = 0;
+        long totalFinal = 0;
+        long totalCpu = 0;
+        long totalSamples = 0;
+        
+        for ( SphinxCorpus.Utterance utterance : corpus.getUtterances() )
+        {
+            final long samples = utterance.audioFile.length() / 2;
+            final long audioMillis = samples * 1000 / SphinxAudioTask.SAMPLE_RATE;
+            
+            final Result result = new Result();
+            recognizer.setListener( result );
+            recognizer.setMode( utterance.getMode() );
+            
+            final long cpuBefore = threads.getThreadCpuTime( recognizerThreadId );
+            
+            recognizer.startListening();
+            source.play( utterance.audioFile );
+            
+            // Endpointer normally finishes the utterance during trailing silence
+            final long replayMillis = pace > 0 ? (long)(audioMillis / pace) : audioMillis;
+            source.awaitIdle( replayMillis + SphinxStreamAudioSource.DEFAULT_TRAILING_SILENCE_MILLIS + RESULT_TIMEOUT );
+            if ( result.done.getCount() > 0 ) recognizer.stopListening( true );
+            
+            if ( !result.done.await( RESULT_TIMEOUT, TimeUnit.MILLISECONDS ) )
+            {
+                System.out.println( utterance.id + "\tno result" );
+                continue;
+            }
+            
+            final long cpu = threads.getThreadCpuTime( recognizerThreadId ) - cpuBefore;
+            final long firstPartial = result.firstPartialAt > 0 ? (result.firstPartialAt - source.getStreamStartedAt()) / 1000000 : -1;
+            final long toFinal = (result.finalAt - source.getStreamEndedAt()) / 1000000;
+            final double rtf = audioMillis > 0 ? cpu / 1e6 / audioMillis : 0.0;
+            final int errors = SphinxCorpus.countWordErrors( utterance.reference, result.hypothesis );
+            
+            System.out.println( String.format( "%s\tref: \"%s\"\thyp: \"%s\"\tfirst partial: %d ms\tfinal: %d ms\tRTF: %.3f",
+                                               utterance.id, utterance.reference, result.hypothesis, firstPartial, toFinal, rtf ) );
+            
+            utterances += 1;
+            words += SphinxCorpus.countWords( utterance.reference );
+            wordErrors += errors;
+            if ( firstPartial >= 0 )
+            {
+                totalFirstPartial += firstPartial;
+                partials += 1;
+            }
+            totalFinal += toFinal;
+            totalCpu += cpu;
+            totalSamples += samples;
+        }
+        
+        recognizer.stopCapture();
+        
+        System.out.println();
+        System.out.println( String.format( "utterances: %d, avg first partial: %d ms, avg final: %d ms, RTF: %.3f, WER: %.1f%%",
+                                           utterances, 
+                                           partials > 0 ? totalFirstPartial / partials : -1,
+                                           utterances > 0 ? totalFinal / utterances : -1,
+                                           totalSamples > 0 ? totalCpu / 1e9 / (totalSamples / (double)SphinxAudioTask.SAMPLE_RATE) : 0.0,
+                                           words > 0 ? 100.0 * wordErrors / words : 0.0 ) );
+        System.out.println();
+        System.out.print( recognizer.dumpStatistics() );
+        
+        // Recognizer threads are kept for service lifetime
+        System.exit( 0 );
+    }
+    
+    private static long findThread( String name )
+    {
+        for ( Thread thread : Thread.getAllStackTraces().keySet() )
+        {
+            if ( name.equals( thread.getName() ) ) return thread.getId();
+        }
+        
+        throw new IllegalStateException( "Thread " + name + " is not running" );
+    }
+}
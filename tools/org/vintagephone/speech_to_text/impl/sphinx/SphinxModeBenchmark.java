@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.vintagephone.speech_to_text.RecognitionMode;
+
+import edu.cmu.pocketsphinx.Decoder;
+import edu.cmu.pocketsphinx.Hypothesis;
+
+/**
+ * This tool compares grammar constrained decoding against the general 
+ * language model on a recorded corpus (see {@link SphinxCorpus}).
+ * <p>
+ * 	Every utterance is decoded twice: once with the language model decoder and
+ *  once with the grammar of the mode its reference belongs to ("yes", "no" and 
+ *  "stop" answers use confirmation grammar, everything else uses dial target 
+ *  grammar). Real-time factor and word error rate are reported per decoder.
+ * </p>
+ * <p>
+ * 	Usage (needs <code>pocketsphinx_jni</code> built for the host on 
+ *  <code>java.library.path</code>):
+ *  <pre>
+ *  java -cp bin:tools-bin org.vintagephone.speech_to_text.impl.sphinx.SphinxModeBenchmark &lt;model root&gt; &lt;corpus dir&gt;
+ *  </pre>
+ *  Model root has the same layout as <code>/sdcard/Android/data/vp</code>.
+ * </p>
+ */
+public class SphinxModeBenchmark
+{
+    private static class Score
+    {
+        int utterances;
+        int sentenceErrors;
+        int words;
+        int wordErrors;
+        long audioSamples;
+        long decodeNanos;
+        
+        void add( SphinxCorpus.Utterance utterance, String hypothesis, int samples, long nanos )
+        {
+            final int errors = SphinxCorpus.countWordErrors( utterance.reference, hypothesis );
+            
+            utterances += 1;
+            words += SphinxCorpus.countWords( utterance.reference );
+            wordErrors += errors;
+            if ( errors > 0 ) sentenceErrors += 1;
+            
+            audioSamples += samples;
+            decodeNanos += nanos;
+        }
+        
+        public String toString()
+        {
+            final double audioSeconds = audioSamples / (double)SphinxAudioTask.SAMPLE_RATE;
+            final double decodeSeconds = decodeNanos / 1e9;
+            
+            return String.format( "utterances: %d, audio: %.1fs, decode: %.2fs, RTF: %.3f, WER: %.1f%%, SER: %.1f%%",
+                                  utterances, audioSeconds, decodeSeconds, 
+                                  audioSeconds > 0 ? decodeSeconds / audioSeconds : 0.0,
+                                  words > 0 ? 100.0 * wordErrors / words : 0.0,
+                                  utterances > 0 ? 100.0 * sentenceErrors / utterances : 0.0 );
+        }
+    }
+    
+    public static void main( String[] args )
+        throws Exception
+    {
+        if ( args.length < 2 )
+        {
+            System.err.println( "Usage: SphinxModeBenchmark <model root> <corpus dir>" );
+            System.exit( 1 );
+        }
+        
+        System.loadLibrary( "pocketsphinx_jni" );
+        
+        final SphinxConfiguration configuration = new SphinxConfiguration( args[ 0 ] );
+        final SphinxCorpus corpus = new SphinxCorpus( new File( args[ 1 ] ) );
+        
+        final SphinxVocabularyCompiler.Vocabulary vocabulary = new SphinxVocabularyCompiler( configuration ).compile( corpus.readPhonebookNames() );
+        
+        final Decoder languageModelDecoder = new Decoder( configuration.createLanguageModelConfig() );
+        final Map<RecognitionMode, Decoder> grammarDecoders = new EnumMap<RecognitionMode, Decoder>( RecognitionMode.class );
+        for ( Map.Entry<RecognitionMode, File> grammar : vocabulary.grammars.entrySet() )
+        {
+            grammarDecoders.put( grammar.getKey(), new Decoder( configuration.createGrammarConfig( grammar.getValue().getAbsolutePath(), 
+                                                                                                  vocabulary.dictionary.getAbsolutePath() ) ) );
+        }
+        
+        final Score languageModelScore = new Score();
+        final Score grammarScore = new Score();
+        
+        for ( SphinxCorpus.Utterance utterance : corpus.getUtterances() )
+        {
+            final short[] samples = SphinxCorpus.readRaw( utterance.audioFile );
+            
+            final RecognitionMode mode = utterance.getMode();
+            
+            final String lmHypothesis = decode( languageModelDecoder, samples, languageModelScore, utterance );
+            final String grammarHypothesis = decode( grammarDecoders.get( mode ), samples, grammarScore, utterance );
+            
+            System.out.println( utterance.id + "\tref: \"" + utterance.reference + "\"\tlm: \"" + lmHypothesis + "\"\tgrammar: \"" + grammarHypothesis + "\"" );
+        }
+        
+        System.out.println();
+        System.out.println( "Language model: " + languageModelScore );
+        System.out.println( "Grammar:        " + grammarScore );
+    }
+    
+    private static String decode( Decoder decoder, short[] samples, Score score, SphinxCorpus.Utterance utterance )
+    {
+        final long start = System.nanoTime();
+        
+        decoder.startUtt();
+        decoder.processRaw( samples, samples.length, false, true );
+        decoder.endUtt();
+        
+        final Hypothesis hypothesis = decoder.getHyp();
+        final String result = hypothesis != null && hypothesis.getHypstr() != null ? hypothesis.getHypstr() : "";
+        
+        score.add( utterance, result, samples.length, System.nanoTime() - start );
+        
+        return result;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2011 Basil Shikin, VintagePhone Project
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.vintagephone.speech_to_text.impl.sphinx;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import edu.cmu.pocketsphinx.Decoder;
+import edu.cmu.pocketsphinx.Hypothesis;
+
+/**
+ * This tool measures decoder CPU saved by throttling partial results (see 
+ * {@link SphinxPartialResultThrottle}) on a recorded corpus (see 
+ * {@link SphinxCorpus}).
+ * <p>
+ * 	Every utterance is fed to language model decoder block by block, the same
+ *  way recognizer thread does, once extracting a partial hypothesis after 
+ *  every block and once through the throttle. CPU time of the decoding 
+ *  thread, number of extractions and time spent in them are reported, along
+ *  with the number of final results that differ (should be none).
+ * </p>
+ * <p>
+ * 	Usage (needs <code>pocketsphinx_jni</code> built for the host on 
+ *  <code>java.library.path</code>):
+ *  <pre>
+ *  java -cp bin:tools-bin org.vintagephone.speech_to_text.impl.sphinx.SphinxPartialResultBenchmark &lt;model root&gt; &lt;corpus dir&gt; [interval ms]
+ *  </pre>
+ * </p>
+ */
+public class SphinxPartialResultBenchmark
+{
+    private static class Run
+    {
+        long cpuNanos;
+        long extractNanos;
+        int extractions;
+        int blocks;
+        
+        public String toString()
+        {
+            return String.format( "CPU: %.2fs, partials: %d of %d blocks, extraction: %.2fs (%.0f us each)",
+                                  cpuNanos / 1e9, extractions, blocks, extractNanos / 1e9,
+                                  extractions > 0 ? extractNanos / 1e3 / extractions : 0.0 );
+        }
+    }
+    
+    public static void main( String[] args )
+        throws Exception
+    {
+        if ( args.length < 2 )
+        {
+            System.err.println( "Usage: SphinxPartialResultBenchmark <model root> <corpus dir> [interval ms]" );
+            System.exit( 1 );
+        }
+        
+        System.loadLibrary( "pocketsphinx_jni" );
+        
+        final SphinxConfiguration configuration = new SphinxConfiguration( args[ 0 ] );
+        final SphinxCorpus corpus = new SphinxCorpus( new File( args[ 1 ] ) );
+        final int interval = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : SphinxPartialResultThrottle.DEFAULT_INTERVAL;
+        
+        final Decoder decoder = new Decoder( configuration.createLanguageModelConfig() );
+        final List<SphinxCorpus.Utterance> utterances = corpus.getUtterances();
+        
+        // First pass only warms up the decoder and JIT
+        run( decoder, utterances, null, new Run() );
+        
+        final Run everyBlock = new Run();
+        final String[] everyBlockResults = run( decoder, utterances, null, everyBlock );
+        
+        final SphinxPartialResultThrottle throttle = new SphinxPartialResultThrottle();
+        throttle.setInterval( interval );
+        
+        final Run throttled = new Run();
+        final String[] throttledResults = run( decoder, utterances, throttle, throttled );
+        
+        int differences = 0;
+        for ( int i = 0; i < utterances.size(); i++ )
+        {
+            if ( !everyBlockResults[ i ].equals( throttledResults[ i ] ) ) differences += 1;
+        }
+        
+        System.out.println( "Every block:       " + everyBlock );
+        System.out.println( "Throttled (" + interval + " ms): " + throttled );
+        System.out.println( String.format( "CPU saved: %.1f%%, final results differing: %d",
+                                           everyBlock.cpuNanos > 0 ? 100.0 * (everyBlock.cpuNanos - throttled.cpuNanos) / everyBlock.cpuNanos : 0.0,
+                                           differences ) );
+        
+        final StringBuilder statistics = new StringBuilder();
+        throttle.dump( statistics, throttled.extractions > 0 ? throttled.extractNanos / 1000 / throttled.extractions : 0 );
+        System.out.print( statistics );
+    }
+    
+    /**
+     * @param throttle throttle to consult or null to extract after every block
+     * @return final hypothesis of every utterance
+     */
+    private static String[] run( Decoder decoder, List<SphinxCorpus.Utterance> utterances, SphinxPartialResultThrottle throttle, Run run )
+        throws Exception
+    {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final String[] result = new String[ utterances.size() ];
+        final short[] block = new short[ SphinxAudioTask.DEFAULT_BLOCK_SIZE ];
+        
+        for ( int i = 0; i < utterances.size(); i++ )
+        {
+            final short[] samples = SphinxCorpus.readRaw( utterances.get( i ).audioFile );
+            
+            final long cpuStart = threads.getCurrentThreadCpuTime();
+            
+            decoder.startUtt();
+            if ( throttle != null ) throttle.reset();
+            
+            for ( int offset = 0; offset < samples.length; offset += block.length )
+            {
+                final int length = Math.min( block.length, samples.length - offset );
+                System.arraycopy( samples, offset, block, 0, length );
+                
+                decoder.processRaw( block, length, false, false );
+                run.blocks += 1;
+                
+                if ( throttle == null || throttle.shouldExtract( decoder, length ) )
+                {
+                    final long start = System.nanoTime();
+                    decoder.getHyp();
+                    run.extractNanos += System.nanoTime() - start;
+                    run.extractions += 1;
+                }
+            }
+            
+            decoder.endUtt();
+            final Hypothesis hypothesis = decoder.getHyp();
+            
+            run.cpuNanos += threads.getCurrentThreadCpuTime() - cpuStart;
+            
+            result[ i ] = hypothesis != null && hypothesis.getHypstr() != null ? hypothesis.getHypstr() : "";
+        }
+        
+        return result;
+    }
+}